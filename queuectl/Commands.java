@@ -0,0 +1,479 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * The CLI commands, run either in a one-shot process (Main) or inside the daemon on behalf of a
+ * client. Output goes to the given streams, which the daemon forwards to the client.
+ */
+public class Commands {
+    private static final int LIST_PAGE = 500; // jobs per store query when listing
+
+    private final Config cfg;
+    private final JobStore store;
+    private final WorkerManager manager;
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final boolean daemon; // workers outlive the command and config changes are live
+
+    public Commands(Config cfg, JobStore store, WorkerManager manager, InputStream in, PrintStream out, PrintStream err, boolean daemon) {
+        this.cfg = cfg;
+        this.store = store;
+        this.manager = manager;
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.daemon = daemon;
+    }
+
+    public void run(String[] args) throws Exception {
+        String cmd = args[0];
+        switch (cmd) {
+            case "enqueue" -> {
+                if (args.length < 2) {
+                    err.println("Usage: queuectl enqueue '{\"id\":\"job1\",\"command\":\"sleep 2\",\"max_retries\":3}' | --file <jobs.jsonl|-> [--chunk-size N]");
+                    return;
+                }
+                if ("--file".equals(args[1]) && args.length >= 3) {
+                    JobImporter importer = new JobImporter(store, cfg, err);
+                    for (int i = 3; i < args.length; i++) {
+                        if ("--chunk-size".equals(args[i]) && i + 1 < args.length) importer.chunkSize(Integer.parseInt(args[++i]));
+                    }
+                    JobImporter.Result r;
+                    if ("-".equals(args[2])) {
+                        r = importer.run(in);
+                    } else {
+                        try (var file = Files.newInputStream(Path.of(args[2]))) {
+                            r = importer.run(file);
+                        }
+                    }
+                    out.printf("Enqueued %d jobs in %.2f s (%.0f jobs/sec), %d lines rejected%n",
+                            r.enqueued(), r.nanos() / 1e9, r.jobsPerSecond(), r.rejected());
+                    return;
+                }
+                String json = args[1];
+                Job j = Json.MAPPER.readValue(json, Job.class);
+                if (j.id == null || (j.command == null) == (j.handler == null)) {
+                    err.println("job must have id and either command or handler");
+                    return;
+                }
+                j.clearRuntimeState();
+                if (j.maxRetries == 0) j.maxRetries = cfg.getMaxRetries();
+                try {
+                    if (j.retryPolicy != null) RetryPolicy.parse(j.retryPolicy);
+                    j.checkDependencies();
+                } catch (IllegalArgumentException e) {
+                    err.println(e.getMessage());
+                    return;
+                }
+                String existing;
+                try {
+                    existing = store.enqueue(j);
+                } catch (SQLException e) {
+                    err.println(e.getMessage());
+                    return;
+                }
+                // a producer retrying after a timeout lands here: report the job it already has, not an error
+                if (JobStore.DUPLICATE_KEY.equals(j.state)) out.println("Job " + existing + " already enqueued with dedupe_key " + j.dedupeKey + "; " + j.id + " not enqueued");
+                else if (JobStore.DUPLICATE.equals(j.state)) out.println("Job " + j.id + " already enqueued");
+                else if ("waiting".equals(j.state)) out.println("Enqueued job " + j.id + ", waiting on " + dependencies(j.depsPending));
+                else if ("pending".equals(j.state)) out.println("Enqueued job " + j.id);
+                else out.println("Enqueued job " + j.id + " as " + j.state + ": " + j.outputTail.strip());
+            }
+            case "worker" -> {
+                if (args.length < 2) { err.println("Usage: queuectl worker start --count N | stop | scale N"); return; }
+                String sub = args[1];
+                if ("start".equals(sub)) {
+                    int count = 0, concurrency = 0;
+                    boolean virtual = false;
+                    QueueScheduler queues = null;
+                    for (int i = 2; i < args.length; i++) {
+                        if ("--count".equals(args[i]) && i + 1 < args.length) {
+                            count = Integer.parseInt(args[++i]);
+                        } else if ("--queues".equals(args[i]) && i + 1 < args.length) {
+                            queues = QueueScheduler.parse(args[++i], store.signal());
+                        } else if ("--virtual".equals(args[i])) {
+                            virtual = true;
+                        } else if ("--concurrency".equals(args[i]) && i + 1 < args.length) {
+                            concurrency = Integer.parseInt(args[++i]);
+                        } else if ("--batch-size".equals(args[i]) && i + 1 < args.length) {
+                            cfg.setBatchSize(Integer.parseInt(args[++i]));
+                        } else if ("--flush-interval-ms".equals(args[i]) && i + 1 < args.length) {
+                            cfg.setFlushIntervalMs(Long.parseLong(args[++i]));
+                        } else if ("--metrics-port".equals(args[i]) && i + 1 < args.length) {
+                            cfg.setMetricsPort(Integer.parseInt(args[++i]));
+                        }
+                    }
+                    // without --count, one worker per allowed concurrent job
+                    if (count == 0) count = Math.max(1, concurrency);
+                    manager.start(count, virtual, concurrency, queues);
+                    if (daemon) {
+                        // the daemon serves metrics itself and keeps the workers until stop/scale
+                        out.println("Started " + count + (virtual ? " virtual" : "") + " workers in the daemon.");
+                        return;
+                    }
+                    MetricsServer metrics = null;
+                    if (cfg.getMetricsPort() > 0) {
+                        try {
+                            metrics = MetricsServer.start(cfg.getMetricsPort(), store, manager::activeCount);
+                            out.println("Metrics at http://127.0.0.1:" + metrics.port() + "/metrics");
+                        } catch (IOException e) {
+                            // another worker process may hold the port; workers run fine without it
+                            err.println("metrics endpoint disabled: cannot bind port " + cfg.getMetricsPort() + ": " + e.getMessage());
+                        }
+                    }
+                    out.println("Started " + count + (virtual ? " virtual" : "") + " workers. Press ENTER to stop.");
+                    // wait until user presses enter
+                    Scanner sc = new Scanner(in);
+                    sc.nextLine();
+                    if (metrics != null) metrics.stop();
+                    manager.stop();
+                } else if ("stop".equals(sub)) {
+                    if (!daemon) {
+                        err.println("No daemon running; workers started with `worker start` stop when you press ENTER.");
+                        return;
+                    }
+                    manager.stop();
+                    out.println("Workers stopped.");
+                } else if ("scale".equals(sub) && args.length >= 3) {
+                    if (!daemon) {
+                        err.println("No daemon running; `worker scale` needs `queuectl daemon`.");
+                        return;
+                    }
+                    int count = Integer.parseInt(args[2]);
+                    manager.scale(count);
+                    out.println("Workers scaled to " + count + ".");
+                } else {
+                    err.println("Unknown worker command: " + sub);
+                }
+            }
+            case "status" -> {
+                Map<String, Integer> counts = store.countsByState();
+                out.printf("Workers active: %d\n", manager.activeCount());
+                out.printf("pending=%d processing=%d completed=%d failed=%d dead=%d cancelled=%d waiting=%d\n",
+                        counts.getOrDefault("pending", 0), counts.getOrDefault("processing", 0),
+                        counts.getOrDefault("completed", 0), counts.getOrDefault("failed", 0), counts.getOrDefault("dead", 0),
+                        counts.getOrDefault("cancelled", 0), counts.getOrDefault("waiting", 0));
+                Instant now = Instant.now();
+                for (JobStore.QueueDepth q : store.queueDepths()) {
+                    String age = q.oldestPendingCreatedAt() == null ? "-"
+                            : Duration.between(Instant.parse(q.oldestPendingCreatedAt()), now).toSeconds() + "s";
+                    out.printf("  queue %-12s pending=%d processing=%d oldest=%s\n", q.queue(), q.pending(), q.processing(), age);
+                }
+            }
+            case "stats" -> {
+                if (daemon) {
+                    // the workers are in this process: no need to go through HTTP
+                    printMetrics(Metrics.prometheus(store.countsByState(), manager.activeCount()));
+                    return;
+                }
+                int port = cfg.getMetricsPort();
+                for (int i = 1; i < args.length; i++) {
+                    if ("--port".equals(args[i]) && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+                }
+                String body = fetchMetrics(port);
+                if (body == null) {
+                    // no worker process serving metrics: only the store's counts are available
+                    err.println("no metrics endpoint on port " + port + "; showing job counts only");
+                    body = Metrics.prometheus(store.countsByState(), manager.activeCount());
+                    for (String line : body.split("\n")) {
+                        if (line.startsWith("queuectl_jobs{")) out.println(line);
+                    }
+                    return;
+                }
+                printMetrics(body);
+            }
+            case "list" -> listJobs(args, 1, null);
+            case "dlq" -> {
+                if (args.length < 2) { err.println("Usage: queuectl dlq list | retry <jobid>"); return; }
+                if ("list".equals(args[1])) {
+                    listJobs(args, 2, "dead");
+                } else if ("retry".equals(args[1])) {
+                    if (args.length < 3) { err.println("Usage: queuectl dlq retry <jobid>"); return; }
+                    String id = args[2];
+                    Job j = store.getJob(id);
+                    if (j == null) { err.println("job not found"); return; }
+                    if (!store.requeue(id)) { err.println("job not in DLQ"); return; }
+                    j = store.getJob(id);
+                    if (j != null && "waiting".equals(j.state)) out.println("Retry scheduled for job " + id + ", waiting on " + dependencies(j.depsPending));
+                    else out.println("Retry scheduled for job " + id);
+                } else {
+                    err.println("Unknown dlq command");
+                }
+            }
+            case "cancel" -> {
+                if (args.length < 2) { err.println("Usage: queuectl cancel <jobid>"); return; }
+                String id = args[1];
+                String state = store.cancel(id);
+                if (state == null) {
+                    err.println("job not found");
+                } else if ("cancelled".equals(state)) {
+                    out.println("Cancelled job " + id);
+                } else if ("processing".equals(state)) {
+                    out.println("Cancelling job " + id + "; its worker kills it within a second");
+                } else {
+                    err.println("job " + id + " already " + state);
+                }
+            }
+            case "archive" -> {
+                Long olderThan = null;
+                boolean vacuum = false;
+                for (int i = 1; i < args.length; i++) {
+                    if ("--older-than".equals(args[i]) && i + 1 < args.length) olderThan = Long.parseLong(args[++i]);
+                    else if ("--vacuum".equals(args[i])) vacuum = true;
+                }
+                if (olderThan == null && cfg.getRetentionSeconds() == 0) {
+                    // retention-seconds 0 means never archive; only an explicit --older-than overrides it
+                    out.println("Nothing archived: retention-seconds is 0 (never); pass --older-than <seconds> to archive anyway");
+                } else {
+                    long secs = olderThan != null ? olderThan : cfg.getRetentionSeconds();
+                    int moved = Retention.archiveOlderThan(store, System.currentTimeMillis() - secs * 1000, cfg.getArchiveBatchSize());
+                    out.println("Archived " + moved + " finished job(s) older than " + secs + "s");
+                }
+                store.compact(vacuum);
+                if (vacuum) out.println("Store compacted");
+            }
+            case "logs" -> {
+                if (args.length < 2) { err.println("Usage: queuectl logs <jobid> [--follow]"); return; }
+                String id = args[1];
+                boolean follow = args.length > 2 && ("--follow".equals(args[2]) || "-f".equals(args[2]));
+                Job j = store.getJob(id);
+                if (j == null) j = store.getArchivedJob(id);
+                if (j == null) { err.println("job not found"); return; }
+                Path log = OutputCapture.logPath(cfg, id);
+                if (!Files.exists(log) && !follow) {
+                    // log files may have been cleaned up; the tail survives in the DB
+                    if (j.outputTail != null) out.print(j.outputTail);
+                    return;
+                }
+                printLog(log, id, follow);
+            }
+            case "config" -> {
+                if (args.length < 2) { err.println("Usage: queuectl config set <key> <value> | get <key> | list"); return; }
+                if ("set".equals(args[1]) && args.length >= 4) {
+                    String key = args[2], val = args[3];
+                    try {
+                        cfg.set(key, val);
+                    } catch (IllegalArgumentException e) {
+                        err.println(e instanceof NumberFormatException ? "bad value for " + key + ": " + val : e.getMessage());
+                        return;
+                    }
+                    // saved in the store: later commands load it, running workers pick it up within a second
+                    store.saveConfig(key, cfg.get(key));
+                    out.println(key + " set to " + cfg.get(key));
+                } else if ("get".equals(args[1]) && args.length >= 3) {
+                    if (!Config.KEYS.contains(args[2])) { err.println("unknown config key " + args[2]); return; }
+                    out.println(cfg.get(args[2]));
+                } else if ("list".equals(args[1])) {
+                    Map<String, String> saved = store.loadConfig();
+                    for (String key : Config.KEYS) {
+                        out.println(key + "=" + cfg.get(key) + (saved.containsKey(key) ? "" : "    (default)"));
+                    }
+                } else {
+                    err.println("Usage: queuectl config set <key> <value> | get <key> | list");
+                }
+            }
+            default -> {
+                err.println("Unknown command: " + cmd);
+                printHelp(out);
+            }
+        }
+    }
+
+    /**
+     * list and dlq list: [--state s] [--archive] [--limit n] [--after jobid] [--since time]. Jobs are
+     * fetched LIST_PAGE at a time and written as NDJSON through one generator, flushed after every
+     * page, so memory stays at one page however many jobs match and the first line shows up after the
+     * first page's query rather than after the last row.
+     */
+    private void listJobs(String[] args, int first, String state) throws Exception {
+        boolean archived = false;
+        long limit = Long.MAX_VALUE;
+        String afterId = null, since = null;
+        try {
+            for (int i = first; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--state" -> state = optionValue(args, i++);
+                    case "--archive" -> archived = true;
+                    case "--limit" -> limit = Long.parseLong(optionValue(args, i++));
+                    case "--after" -> afterId = optionValue(args, i++);
+                    case "--since" -> since = sinceBound(optionValue(args, i++));
+                    default -> throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e instanceof NumberFormatException ? "--limit needs a number" : e.getMessage());
+            return;
+        }
+        JobStore.Cursor after = null;
+        if (afterId != null) {
+            Job j = archived ? store.getArchivedJob(afterId) : store.getJob(afterId);
+            if (j == null) { err.println("job not found: " + afterId); return; }
+            after = JobStore.Cursor.after(j);
+        }
+        SequenceWriter w = Json.MAPPER.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .withRootValueSeparator("\n").writeValues(out);
+        long written = 0;
+        while (written < limit) {
+            int n = (int) Math.min(LIST_PAGE, limit - written);
+            List<Job> page = archived ? store.listArchived(state, since, after, n) : store.listPage(state, since, after, n);
+            for (Job j : page) w.write(j);
+            w.flush();
+            written += page.size();
+            if (page.size() < n) break;
+            after = JobStore.Cursor.after(page.get(page.size() - 1));
+        }
+        w.close();
+        if (written > 0) out.println();
+    }
+
+    private static String optionValue(String[] args, int i) {
+        if (i + 1 >= args.length) throw new IllegalArgumentException(args[i] + " needs a value");
+        return args[i + 1];
+    }
+
+    // created_at is compared as text and Instant.toString drops a zero fraction ("...:50Z" sorts after
+    // "...:50.2Z"), so --since is cut to the whole second without the zone: a prefix of every time in it.
+    private static String sinceBound(String since) {
+        try {
+            String s = Instant.parse(since).truncatedTo(ChronoUnit.SECONDS).toString();
+            return s.substring(0, s.length() - 1);
+        } catch (DateTimeParseException e) {
+            if (since.matches("\\d{4}-\\d{2}-\\d{2}(T\\d{2}(:\\d{2}(:\\d{2})?)?)?")) return since;
+            throw new IllegalArgumentException("--since needs an ISO-8601 UTC time such as 2026-10-17T01:17:50Z or 2026-10-17");
+        }
+    }
+
+    private void printMetrics(String body) {
+        for (String line : body.split("\n")) {
+            if (!line.isEmpty() && !line.startsWith("#")) out.println(line);
+        }
+    }
+
+    // Copy a job's log to the output through read-only memory maps. With follow, keep mapping newly
+    // appended bytes until the job reaches a terminal state and the file stops growing.
+    private void printLog(Path log, String id, boolean follow) throws Exception {
+        WritableByteChannel sink = Channels.newChannel(out);
+        long pos = 0;
+        while (true) {
+            boolean done = !follow || isFinished(id);
+            if (Files.exists(log)) {
+                try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+                    long size = ch.size();
+                    while (pos < size) {
+                        long len = Math.min(size - pos, 64L * 1024 * 1024);
+                        MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                        while (map.hasRemaining()) sink.write(map);
+                        pos += len;
+                    }
+                }
+            }
+            out.flush();
+            // state is read before the file so output written just before completion is not missed
+            if (done) return;
+            Thread.sleep(200);
+        }
+    }
+
+    // GET /metrics from a local worker process; null if nothing answers.
+    private static String fetchMetrics(int port) {
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+            HttpRequest req = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/metrics"))
+                    .timeout(Duration.ofSeconds(5)).build();
+            HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString());
+            return res.statusCode() == 200 ? res.body() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String dependencies(int n) {
+        return n + (n == 1 ? " dependency" : " dependencies");
+    }
+
+    private boolean isFinished(String id) throws SQLException {
+        Job j = store.getJob(id);
+        return j == null || "completed".equals(j.state) || "dead".equals(j.state) || "cancelled".equals(j.state);
+    }
+
+    public static void printHelp(PrintStream out) {
+        out.println("""
+            queuectl - simple job queue
+            Commands:
+              daemon [--count 4 ...]    (own the store and workers; other commands are sent to it over queuectl.sock)
+              daemon stop
+              enqueue '{"id":"job1","command":"sleep 2","max_retries":3,"queue":"critical","priority":5}'
+              enqueue '{"id":"job2","command":"./call-api.sh","retry_policy":"decorrelated:cap=300","timeout_seconds":60}'
+              enqueue '{"id":"report","command":"./report.sh","depends_on":["job1","job2"],"on_dependency_failure":"cancel"}'
+              enqueue '{"id":"job3","handler":"echo","payload":{"to":"ops"}}'    (runs a JobHandler inside the worker; no process)
+              enqueue '{"id":"order-42-mail","command":"./mail.sh 42","dedupe_key":"order-42"}'    (same id or key again: not enqueued twice)
+              enqueue '{"id":"charge-7","command":"./charge.sh 7","resource_key":"payments"}'    (claimed within resource-limits for payments)
+              enqueue --file jobs.jsonl [--chunk-size 1000]    (one job per line; - reads stdin)
+              worker start --count 3 [--batch-size 8] [--flush-interval-ms 200]    (press ENTER to stop; returns at once under a daemon)
+              worker start --virtual --concurrency 5000
+              worker start --count 8 --queues critical:10,default:3,bulk:1:2    (name:weight[:cap])
+              worker start --count 4 --metrics-port 9464    (Prometheus text at http://127.0.0.1:9464/metrics)
+              worker stop    (daemon only)
+              worker scale 8    (daemon only)
+              status
+              stats [--port 9464]    (latency percentiles, outcomes and worker phases from a running worker)
+              list --state pending
+              list [--limit 100] [--after <jobid>] [--since 2026-10-17T00:00:00Z]    (pages by creation; --after the last id shown for the next page)
+              list --archive [--state dead]    (jobs moved out by retention)
+              archive [--older-than 86400] [--vacuum]    (archive finished jobs now; --vacuum also rewrites the store)
+              dlq list [--limit 100] [--after <jobid>] [--since ...]
+              dlq retry <jobid>
+              logs <jobid> [--follow]
+              cancel <jobid>    (pending or waiting: at once; running: its worker kills the process tree)
+              config list
+              config get retry-policy
+              config set max-retries 3    (saved in the store; running workers reload it)
+              config set backoff-base 2.0
+              config set backoff-max-seconds 3600
+              config set retry-policy exponential:base=2,cap=600,jitter=0.5    (or decorrelated[:base=1,cap=..], fixed:delay=30[,jitter=0.1])
+              config set batch-size 8
+              config set flush-interval-ms 200
+              config set commit-interval-ms 1
+              config set commit-batch-size 256
+              config set idle-poll-ms 5000
+              config set log-dir logs
+              config set log-max-bytes 67108864
+              config set lease-ms 30000
+              config set job-timeout-seconds 3600    (for jobs without timeout_seconds; 0 = no limit)
+              config set kill-grace-ms 2000
+              config set retention-seconds 604800    (finished jobs older than this are archived by workers; 0 = never)
+              config set archive-batch-size 500
+              config set dedupe-ttl-seconds 86400    (how long a dedupe_key blocks later jobs with it)
+              config set resource-limits payments:10:4,smtp:0:2    (name:rate/s[:max in flight[:burst]]; 0 = no limit)
+              config set enqueue-chunk-size 1000
+              config set metrics-port 9464
+              config set synchronous FULL
+            """);
+    }
+}
@@ -1,12 +1,183 @@
 package com.queuectl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public class Config {
-    // Default values
-    private int maxRetries = 3;
-    private double backoffBase = 2.0; // delay = base ^ attempts (seconds)
+    // Default values. Volatile: under the daemon, `config set` changes them while workers run.
+    private volatile int maxRetries = 3;
+    private volatile double backoffBase = 2.0; // exponential retry policy: delay = base ^ attempts (seconds)
+    private volatile double backoffMaxSeconds = 3600; // cap on any retry delay
+    private volatile String retryPolicy = "exponential"; // for jobs without their own retry_policy
+    private volatile int batchSize = 1; // jobs reserved per claim round-trip
+    private volatile long flushIntervalMs = 200; // max time a completion waits before being acknowledged
+    private volatile long commitIntervalMs = 1; // group commit: max wait for more transitions before writing
+    private volatile int commitBatchSize = 256; // group commit: write as soon as this many transitions are queued
+    private volatile long idlePollMs = 5000; // idle workers re-check the DB this often for jobs enqueued by other processes
+    private volatile String logDir = "logs"; // per-job output logs: <logDir>/<id>.log
+    private volatile long logMaxBytes = 64L * 1024 * 1024; // output beyond this is drained but not written
+    private volatile int outputTailBytes = 4096; // tail of the output kept in the DB
+    private volatile long leaseMs = 30_000; // a claim is lost if not heartbeated for this long
+    private volatile long busyTimeoutMs = 5000; // how long to wait on another process's write lock
+    private volatile int enqueueChunkSize = 1000; // jobs per transaction for enqueue --file
+    private volatile String backend = "sqlite"; // sqlite or log
+    private volatile String storePath; // defaults to queue.db (sqlite) or queue-log/ (log)
+    private volatile long snapshotEveryBytes = 256L * 1024 * 1024; // log backend: snapshot + compact after this much log
+    private volatile long jobTimeoutSeconds = 0; // for jobs without their own timeout_seconds; 0 means none
+    private volatile long killGraceMs = 2000; // after SIGTERM, how long a timed-out or cancelled tree gets before SIGKILL
+    private volatile long retentionSeconds = 7 * 24 * 3600; // completed/dead/cancelled jobs older than this move to the archive; 0 keeps them
+    private volatile int archiveBatchSize = 500; // jobs moved per archive transaction
+    private volatile long dedupeTtlSeconds = 24 * 3600; // how long a dedupe_key keeps later jobs with it from being enqueued
+    private volatile String resourceLimits = ""; // per resource_key rate and in-flight limits, see ResourceLimiter
+    private volatile int metricsPort = 9464; // worker start serves /metrics here (loopback only); 0 disables
+    private volatile String synchronous = "FULL"; // SQLite synchronous level (OFF, NORMAL, FULL, EXTRA); also the log backend's force policy
 
     public int getMaxRetries() { return maxRetries; }
     public void setMaxRetries(int maxRetries) { this.maxRetries = maxRetries; }
     public double getBackoffBase() { return backoffBase; }
     public void setBackoffBase(double backoffBase) { this.backoffBase = backoffBase; }
+    public double getBackoffMaxSeconds() { return backoffMaxSeconds; }
+    public void setBackoffMaxSeconds(double backoffMaxSeconds) { this.backoffMaxSeconds = backoffMaxSeconds; }
+    public String getRetryPolicy() { return retryPolicy; }
+    public void setRetryPolicy(String retryPolicy) {
+        RetryPolicy.parse(retryPolicy); // reject bad specs here rather than at the first failure
+        this.retryPolicy = retryPolicy;
+    }
+    public int getBatchSize() { return batchSize; }
+    public void setBatchSize(int batchSize) { this.batchSize = Math.max(1, batchSize); }
+    public long getFlushIntervalMs() { return flushIntervalMs; }
+    public void setFlushIntervalMs(long flushIntervalMs) { this.flushIntervalMs = flushIntervalMs; }
+    public long getCommitIntervalMs() { return commitIntervalMs; }
+    public void setCommitIntervalMs(long commitIntervalMs) { this.commitIntervalMs = commitIntervalMs; }
+    public int getCommitBatchSize() { return commitBatchSize; }
+    public void setCommitBatchSize(int commitBatchSize) { this.commitBatchSize = Math.max(1, commitBatchSize); }
+    public long getIdlePollMs() { return idlePollMs; }
+    public void setIdlePollMs(long idlePollMs) { this.idlePollMs = idlePollMs; }
+    public String getLogDir() { return logDir; }
+    public void setLogDir(String logDir) { this.logDir = logDir; }
+    public long getLogMaxBytes() { return logMaxBytes; }
+    public void setLogMaxBytes(long logMaxBytes) { this.logMaxBytes = logMaxBytes; }
+    public int getOutputTailBytes() { return outputTailBytes; }
+    public void setOutputTailBytes(int outputTailBytes) { this.outputTailBytes = Math.max(1, outputTailBytes); }
+    public long getLeaseMs() { return leaseMs; }
+    public void setLeaseMs(long leaseMs) { this.leaseMs = leaseMs; }
+    public long getBusyTimeoutMs() { return busyTimeoutMs; }
+    public void setBusyTimeoutMs(long busyTimeoutMs) { this.busyTimeoutMs = busyTimeoutMs; }
+    public int getEnqueueChunkSize() { return enqueueChunkSize; }
+    public void setEnqueueChunkSize(int enqueueChunkSize) { this.enqueueChunkSize = Math.max(1, enqueueChunkSize); }
+    public String getBackend() { return backend; }
+    public void setBackend(String backend) {
+        if (!List.of("sqlite", "log").contains(backend)) throw new IllegalArgumentException("backend must be sqlite or log");
+        this.backend = backend;
+    }
+    public String getStorePath() {
+        if (storePath != null) return storePath;
+        return "log".equals(backend) ? "queue-log" : "queue.db";
+    }
+    public void setStorePath(String storePath) { this.storePath = storePath; }
+    public long getSnapshotEveryBytes() { return snapshotEveryBytes; }
+    public void setSnapshotEveryBytes(long snapshotEveryBytes) { this.snapshotEveryBytes = snapshotEveryBytes; }
+    public long getJobTimeoutSeconds() { return jobTimeoutSeconds; }
+    public void setJobTimeoutSeconds(long jobTimeoutSeconds) { this.jobTimeoutSeconds = Math.max(0, jobTimeoutSeconds); }
+    public long getKillGraceMs() { return killGraceMs; }
+    public void setKillGraceMs(long killGraceMs) { this.killGraceMs = Math.max(0, killGraceMs); }
+    public long getRetentionSeconds() { return retentionSeconds; }
+    public void setRetentionSeconds(long retentionSeconds) { this.retentionSeconds = Math.max(0, retentionSeconds); }
+    public int getArchiveBatchSize() { return archiveBatchSize; }
+    public void setArchiveBatchSize(int archiveBatchSize) { this.archiveBatchSize = Math.max(1, archiveBatchSize); }
+    public long getDedupeTtlSeconds() { return dedupeTtlSeconds; }
+    public void setDedupeTtlSeconds(long dedupeTtlSeconds) { this.dedupeTtlSeconds = Math.max(1, dedupeTtlSeconds); }
+    public String getResourceLimits() { return resourceLimits; }
+    public void setResourceLimits(String resourceLimits) {
+        ResourceLimiter.parse(resourceLimits); // reject bad specs here rather than at the next claim
+        this.resourceLimits = resourceLimits.trim();
+    }
+    public int getMetricsPort() { return metricsPort; }
+    public void setMetricsPort(int metricsPort) { this.metricsPort = metricsPort; }
+    public String getSynchronous() { return synchronous; }
+    public void setSynchronous(String synchronous) {
+        String s = synchronous.toUpperCase();
+        if (!List.of("OFF", "NORMAL", "FULL", "EXTRA").contains(s)) {
+            throw new IllegalArgumentException("synchronous must be one of OFF, NORMAL, FULL, EXTRA");
+        }
+        this.synchronous = s;
+    }
+
+    // Settings by `config set` key. Keys map onto the setters above, so validation stays in one place.
+    public static final List<String> KEYS = List.of("max-retries", "backoff-base", "backoff-max-seconds", "retry-policy",
+            "batch-size", "flush-interval-ms", "commit-interval-ms", "commit-batch-size", "idle-poll-ms", "log-dir",
+            "log-max-bytes", "lease-ms", "job-timeout-seconds", "kill-grace-ms", "retention-seconds",
+            "archive-batch-size", "dedupe-ttl-seconds", "resource-limits", "enqueue-chunk-size", "metrics-port", "synchronous");
+
+    // Throws IllegalArgumentException for an unknown key or a bad value.
+    public void set(String key, String value) {
+        switch (key) {
+            case "max-retries" -> setMaxRetries(Integer.parseInt(value));
+            case "backoff-base" -> setBackoffBase(Double.parseDouble(value));
+            case "backoff-max-seconds" -> setBackoffMaxSeconds(Double.parseDouble(value));
+            case "retry-policy" -> setRetryPolicy(value);
+            case "batch-size" -> setBatchSize(Integer.parseInt(value));
+            case "flush-interval-ms" -> setFlushIntervalMs(Long.parseLong(value));
+            case "commit-interval-ms" -> setCommitIntervalMs(Long.parseLong(value));
+            case "commit-batch-size" -> setCommitBatchSize(Integer.parseInt(value));
+            case "idle-poll-ms" -> setIdlePollMs(Long.parseLong(value));
+            case "log-dir" -> setLogDir(value);
+            case "log-max-bytes" -> setLogMaxBytes(Long.parseLong(value));
+            case "lease-ms" -> setLeaseMs(Long.parseLong(value));
+            case "job-timeout-seconds" -> setJobTimeoutSeconds(Long.parseLong(value));
+            case "kill-grace-ms" -> setKillGraceMs(Long.parseLong(value));
+            case "retention-seconds" -> setRetentionSeconds(Long.parseLong(value));
+            case "archive-batch-size" -> setArchiveBatchSize(Integer.parseInt(value));
+            case "dedupe-ttl-seconds" -> setDedupeTtlSeconds(Long.parseLong(value));
+            case "resource-limits" -> setResourceLimits(value);
+            case "enqueue-chunk-size" -> setEnqueueChunkSize(Integer.parseInt(value));
+            case "metrics-port" -> setMetricsPort(Integer.parseInt(value));
+            case "synchronous" -> setSynchronous(value);
+            default -> throw new IllegalArgumentException("unknown config key " + key);
+        }
+    }
+
+    public String get(String key) {
+        return switch (key) {
+            case "max-retries" -> String.valueOf(maxRetries);
+            case "backoff-base" -> String.valueOf(backoffBase);
+            case "backoff-max-seconds" -> String.valueOf(backoffMaxSeconds);
+            case "retry-policy" -> retryPolicy;
+            case "batch-size" -> String.valueOf(batchSize);
+            case "flush-interval-ms" -> String.valueOf(flushIntervalMs);
+            case "commit-interval-ms" -> String.valueOf(commitIntervalMs);
+            case "commit-batch-size" -> String.valueOf(commitBatchSize);
+            case "idle-poll-ms" -> String.valueOf(idlePollMs);
+            case "log-dir" -> logDir;
+            case "log-max-bytes" -> String.valueOf(logMaxBytes);
+            case "lease-ms" -> String.valueOf(leaseMs);
+            case "job-timeout-seconds" -> String.valueOf(jobTimeoutSeconds);
+            case "kill-grace-ms" -> String.valueOf(killGraceMs);
+            case "retention-seconds" -> String.valueOf(retentionSeconds);
+            case "archive-batch-size" -> String.valueOf(archiveBatchSize);
+            case "dedupe-ttl-seconds" -> String.valueOf(dedupeTtlSeconds);
+            case "resource-limits" -> resourceLimits;
+            case "enqueue-chunk-size" -> String.valueOf(enqueueChunkSize);
+            case "metrics-port" -> String.valueOf(metricsPort);
+            case "synchronous" -> synchronous;
+            default -> throw new IllegalArgumentException("unknown config key " + key);
+        };
+    }
+
+    // Apply saved settings; returns the keys whose value changed. A bad saved value is reported and
+    // skipped so one typo cannot stop workers from starting.
+    public List<String> apply(Map<String, String> saved) {
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> e : saved.entrySet()) {
+            try {
+                String before = get(e.getKey());
+                set(e.getKey(), e.getValue());
+                if (!before.equals(get(e.getKey()))) changed.add(e.getKey());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("ignoring saved config " + e.getKey() + "=" + e.getValue() + ": " + ex.getMessage());
+            }
+        }
+        return changed;
+    }
 }
@@ -0,0 +1,299 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Long-running process that owns the JobStore and WorkerManager and runs CLI commands for clients
+ * over a Unix domain socket, so a command costs one round trip instead of a JVM start and a store
+ * open, and `worker stop|scale` and `config set` act on the live workers.
+ *
+ * Protocol, NDJSON both ways. The client sends {"args":["enqueue","{...}"],"backend":"sqlite","store":"/abs/queue.db"};
+ * for `enqueue --file -` its stdin follows, until it shuts down its side. backend and store may be left
+ * out; given, they must name the daemon's own store, or the command is refused. The daemon answers with {"out":"..."} and
+ * {"err":"..."} chunks and ends with {"exit":N}. Each connection runs on its own virtual thread.
+ */
+public class Daemon {
+    private final Config cfg;
+    private final JobStore store;
+    private final WorkerManager manager;
+    private final Path socket;
+    private final Path storePath;
+    private final ServerSocketChannel server;
+    private MetricsServer metrics;
+    private volatile boolean running = true;
+    private boolean closed;
+
+    // Socket path: QUEUECTL_SOCKET, or queuectl.sock in the working directory (next to queue.db).
+    public static Path socketPath() {
+        String env = System.getenv("QUEUECTL_SOCKET");
+        return Path.of(env != null ? env : "queuectl.sock").toAbsolutePath();
+    }
+
+    // The store cfg names, as an absolute path: a relative one means the working directory of whoever said it.
+    public static Path storePath(Config cfg) {
+        return Path.of(cfg.getStorePath()).toAbsolutePath().normalize();
+    }
+
+    public Daemon(Config cfg, JobStore store, Path socket) throws IOException {
+        this.cfg = cfg;
+        this.store = store;
+        this.storePath = storePath(cfg);
+        this.manager = new WorkerManager(store, cfg);
+        this.socket = socket;
+        SocketChannel other = DaemonClient.connect(socket);
+        if (other != null) {
+            other.close();
+            throw new IOException("a daemon is already listening on " + socket);
+        }
+        // a socket file nobody answers on is left over from a daemon that died
+        Files.deleteIfExists(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        if (cfg.getMetricsPort() > 0) {
+            try {
+                metrics = MetricsServer.start(cfg.getMetricsPort(), store, manager::activeCount);
+            } catch (IOException e) {
+                System.err.println("metrics endpoint disabled: cannot bind port " + cfg.getMetricsPort() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // `queuectl daemon [worker start options]`: serve until `daemon stop` or SIGTERM.
+    public static void main(String[] args, Config cfg) throws Exception {
+        JobStore store = JobStore.open(cfg);
+        Daemon daemon;
+        try {
+            daemon = new Daemon(cfg, store, socketPath());
+        } catch (IOException e) {
+            store.close();
+            System.err.println("cannot start daemon: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+        if (args.length > 1) {
+            String[] start = new String[args.length + 1];
+            start[0] = "worker";
+            start[1] = "start";
+            System.arraycopy(args, 1, start, 2, args.length - 1);
+            new Commands(cfg, store, daemon.manager, InputStream.nullInputStream(), System.out, System.err, true).run(start);
+        }
+        System.out.println("Daemon listening on " + daemon.socket);
+        daemon.serve();
+        daemon.close();
+    }
+
+    public void serve() throws IOException {
+        while (running) {
+            SocketChannel ch;
+            try {
+                ch = server.accept();
+            } catch (AsynchronousCloseException e) {
+                break; // stop() closed the server
+            }
+            Thread.ofVirtual().name("client").start(() -> handle(ch));
+        }
+    }
+
+    // Stop accepting connections; serve() returns.
+    public void stop() {
+        running = false;
+        try { server.close(); } catch (IOException ignored) {}
+    }
+
+    // Stop workers, release the store and remove the socket file. Safe to call more than once.
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        stop();
+        if (metrics != null) metrics.stop();
+        manager.stop();
+        try { store.close(); } catch (SQLException e) {
+            System.err.println("closing store failed: " + e.getMessage());
+        }
+        try { Files.deleteIfExists(socket); } catch (IOException ignored) {}
+    }
+
+    private void handle(SocketChannel ch) {
+        try (ch) {
+            InputStream in = new BufferedInputStream(input(ch));
+            Frames frames = new Frames(output(ch));
+            PrintStream out = new PrintStream(frames.stream("out"), true, StandardCharsets.UTF_8);
+            PrintStream err = new PrintStream(frames.stream("err"), true, StandardCharsets.UTF_8);
+            int exit = 0;
+            try {
+                JsonNode request = parseRequest(readLine(in));
+                String[] args = args(request);
+                String mismatch = storeMismatch(request);
+                if (args.length >= 2 && "daemon".equals(args[0]) && "stop".equals(args[1])) {
+                    out.println("Daemon stopping.");
+                    stop();
+                } else if (args.length == 0 || "daemon".equals(args[0])) {
+                    err.println("a daemon is already running on " + socket);
+                    exit = 1;
+                } else if (mismatch != null) {
+                    err.println(mismatch);
+                    exit = 1;
+                } else {
+                    new Commands(cfg, store, manager, in, out, err, true).run(args);
+                }
+            } catch (Exception e) {
+                err.println("error: " + e.getMessage());
+                exit = 1;
+            }
+            out.flush();
+            err.flush();
+            frames.exit(exit);
+        } catch (IOException e) {
+            // client went away mid-command; nothing to report to
+        }
+    }
+
+    private static JsonNode parseRequest(String line) throws IOException {
+        if (line == null) throw new IOException("empty request");
+        JsonNode request = Json.MAPPER.readTree(line);
+        if (!request.path("args").isArray()) throw new IOException("request must be {\"args\":[...]}");
+        return request;
+    }
+
+    private static String[] args(JsonNode request) {
+        JsonNode args = request.path("args");
+        String[] out = new String[args.size()];
+        for (int i = 0; i < out.length; i++) out[i] = args.get(i).asText();
+        return out;
+    }
+
+    // Why the request's store is not the one this daemon serves, or null if it is or the request doesn't say.
+    private String storeMismatch(JsonNode request) {
+        String backend = request.path("backend").asText(cfg.getBackend());
+        Path path = request.hasNonNull("store") ? Path.of(request.get("store").asText()).normalize() : storePath;
+        if (backend.equals(cfg.getBackend()) && path.equals(storePath)) return null;
+        return "the daemon on " + socket + " serves the " + cfg.getBackend() + " store " + storePath + ", not the " + backend
+                + " store " + path + "; stop it, or set QUEUECTL_SOCKET to reach another daemon";
+    }
+
+    // One line without reading past it: what follows may be the command's stdin.
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b < 0) return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    // Streams straight over the channel. Channels.newInputStream/newOutputStream share one lock between
+    // reads and writes, which would let a client blocked on reading starve our writes and vice versa.
+    static InputStream input(SocketChannel ch) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return ch.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    static OutputStream output(SocketChannel ch) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) ch.write(buf);
+            }
+        };
+    }
+
+    /**
+     * Writes the response frames. Each stream turns its writes into {"out"|"err": text} lines; a write
+     * that ends inside a multi-byte UTF-8 character keeps those bytes for the next one, so text is
+     * never split mid-character.
+     */
+    static final class Frames {
+        private final OutputStream sink;
+
+        Frames(OutputStream sink) {
+            this.sink = sink;
+        }
+
+        OutputStream stream(String key) {
+            return new OutputStream() {
+                private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    partial.write(b, off, len);
+                    byte[] bytes = partial.toByteArray();
+                    int end = completeUtf8(bytes);
+                    if (end == 0) return;
+                    partial.reset();
+                    partial.write(bytes, end, bytes.length - end);
+                    frame(key, new String(bytes, 0, end, StandardCharsets.UTF_8));
+                }
+            };
+        }
+
+        void exit(int code) throws IOException {
+            frame("exit", code);
+        }
+
+        private synchronized void frame(String key, Object value) throws IOException {
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put(key, value);
+            byte[] line = Json.MAPPER.writeValueAsBytes(f);
+            byte[] withNewline = Arrays.copyOf(line, line.length + 1);
+            withNewline[line.length] = '\n';
+            sink.write(withNewline);
+        }
+
+        // Length of the prefix that does not end in an incomplete UTF-8 sequence.
+        private static int completeUtf8(byte[] b) {
+            int n = b.length;
+            for (int i = n - 1; i >= Math.max(0, n - 3); i--) {
+                int c = b[i] & 0xff;
+                if (c < 0x80) return n; // ASCII: nothing pending
+                if (c >= 0xc0) {
+                    int need = c >= 0xf0 ? 4 : c >= 0xe0 ? 3 : 2;
+                    return n - i >= need ? n : i;
+                }
+            }
+            return n; // only continuation bytes or invalid: let the decoder replace them
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thin client side of the {@link Daemon} protocol: sends the command line and the store it is meant
+ * for, streams stdin when the command reads it, and replays the daemon's output on stdout/stderr.
+ */
+public class DaemonClient {
+    // A connection to the daemon listening on socket, or null if there is none.
+    public static SocketChannel connect(Path socket) {
+        if (!Files.exists(socket)) return null;
+        try {
+            SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                ch.connect(UnixDomainSocketAddress.of(socket));
+                return ch;
+            } catch (IOException e) {
+                ch.close();
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Run args in the daemon against the store cfg names; returns the command's exit status. A daemon
+    // serving another store refuses the command rather than running it there.
+    public static int run(SocketChannel ch, String[] args, Config cfg, InputStream stdin, PrintStream out, PrintStream err) throws IOException {
+        try (ch) {
+            // relative paths mean the client's working directory, not the daemon's
+            for (int i = 0; i + 1 < args.length; i++) {
+                if ("--file".equals(args[i]) && !"-".equals(args[i + 1])) args[i + 1] = Path.of(args[i + 1]).toAbsolutePath().toString();
+            }
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("args", args);
+            request.put("backend", cfg.getBackend());
+            request.put("store", Daemon.storePath(cfg).toString());
+            OutputStream toDaemon = Daemon.output(ch);
+            toDaemon.write(Json.MAPPER.writeValueAsBytes(request));
+            toDaemon.write('\n');
+            if (readsStdin(args)) {
+                // copy on another thread so a daemon answering while it reads (bad lines) cannot deadlock us
+                Thread copier = Thread.ofVirtual().start(() -> {
+                    try {
+                        stdin.transferTo(toDaemon);
+                        ch.shutdownOutput();
+                    } catch (IOException ignored) {
+                        // the daemon closed the connection; its frames say why
+                    }
+                });
+                int exit = replay(ch, out, err);
+                copier.interrupt();
+                return exit;
+            }
+            ch.shutdownOutput();
+            return replay(ch, out, err);
+        }
+    }
+
+    private static boolean readsStdin(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("--file".equals(args[i]) && "-".equals(args[i + 1])) return true;
+        }
+        return false;
+    }
+
+    private static int replay(SocketChannel ch, PrintStream out, PrintStream err) throws IOException {
+        BufferedReader frames = new BufferedReader(new InputStreamReader(Daemon.input(ch), StandardCharsets.UTF_8));
+        for (String line; (line = frames.readLine()) != null; ) {
+            JsonNode f = Json.MAPPER.readTree(line);
+            if (f.has("out")) {
+                out.print(f.get("out").asText());
+                out.flush();
+            } else if (f.has("err")) {
+                err.print(f.get("err").asText());
+                err.flush();
+            } else if (f.has("exit")) {
+                return f.get("exit").asInt();
+            }
+        }
+        err.println("daemon closed the connection");
+        return 1;
+    }
+}
@@ -0,0 +1,107 @@
+package com.queuectl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind stage between workers and the JobStore. Workers submit their completions and
+ * failures; a single writer thread applies everything queued within commitIntervalMs (or as soon
+ * as commitBatchSize transitions are waiting) in one transaction, so N workers share one fsync.
+ * A submission's future completes only after the transaction containing it has committed.
+ */
+public class GroupCommitter {
+    private static class Entry {
+        final List<Job> completed;
+        final List<Job> failed;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(List<Job> completed, List<Job> failed) {
+            this.completed = completed;
+            this.failed = failed;
+        }
+
+        int size() { return completed.size() + failed.size(); }
+    }
+
+    private final JobStore store;
+    private final Config cfg;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public GroupCommitter(JobStore store, Config cfg) {
+        this.store = store;
+        this.cfg = cfg;
+        this.writer = new Thread(this::writeLoop, "group-commit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Queue transitions; the returned future completes once they are durable.
+    public CompletableFuture<Void> submit(List<Job> completed, List<Job> failed) {
+        Entry e = new Entry(List.copyOf(completed), List.copyOf(failed));
+        if (!running) {
+            e.done.completeExceptionally(new IllegalStateException("group committer is closed"));
+            return e.done;
+        }
+        queue.add(e);
+        return e.done;
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                int size = first.size();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cfg.getCommitIntervalMs());
+                while (size < cfg.getCommitBatchSize()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Entry next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    size += next.size();
+                }
+            } catch (InterruptedException ignored) {
+                // close() interrupts a waiting writer; whatever was collected is still written below
+            }
+            if (!batch.isEmpty()) commit(batch);
+        }
+    }
+
+    private void commit(List<Entry> batch) {
+        List<Job> completed = new ArrayList<>();
+        List<Job> failed = new ArrayList<>();
+        for (Entry e : batch) {
+            completed.addAll(e.completed);
+            failed.addAll(e.failed);
+        }
+        try {
+            long t0 = System.nanoTime();
+            store.applyTransitions(completed, failed, cfg);
+            Metrics.COMMIT.record(System.nanoTime() - t0);
+            for (Entry e : batch) e.done.complete(null);
+        } catch (Exception ex) {
+            for (Entry e : batch) e.done.completeExceptionally(ex);
+        }
+        batch.clear();
+    }
+
+    // Stop accepting work, write everything already queued and wait for the writer to finish.
+    public void close() {
+        running = false;
+        writer.interrupt();
+        try { writer.join(); } catch (InterruptedException ignored) {}
+        // anything that slipped in after the writer's last drain
+        for (Entry e; (e = queue.poll()) != null; ) {
+            e.done.completeExceptionally(new IllegalStateException("group committer is closed"));
+        }
+    }
+}
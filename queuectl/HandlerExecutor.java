@@ -0,0 +1,116 @@
+package com.queuectl;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a job's handler in this process, on the worker's own thread: no fork, no shell, no pipe and no
+ * thread per job. A platform worker running a CPU-bound handler is time-sliced by the OS like any
+ * thread; on virtual workers such a handler keeps its carrier until it returns. A timeout or a cancel
+ * interrupts the handler, which fails the attempt. Handlers come from ServiceLoader, loaded once per
+ * process, plus any added with register().
+ */
+public class HandlerExecutor implements JobExecutor {
+    private static final Map<String, JobHandler> HANDLERS = loadHandlers();
+    private static final String TIMED_OUT = "timed out";
+    // one daemon thread interrupts handlers that run past their timeout; nothing is scheduled without one
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "handler-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String worker;
+    private final JobProcesses processes;
+    private final Config cfg;
+
+    public HandlerExecutor(String worker, JobProcesses processes, Config cfg) {
+        this.worker = worker;
+        this.processes = processes;
+        this.cfg = cfg;
+    }
+
+    private static Map<String, JobHandler> loadHandlers() {
+        Map<String, JobHandler> out = new ConcurrentHashMap<>();
+        out.put("echo", new Echo());
+        try {
+            for (JobHandler h : ServiceLoader.load(JobHandler.class)) out.put(h.name(), h);
+        } catch (ServiceConfigurationError e) {
+            System.err.println("loading job handlers failed: " + e.getMessage());
+        }
+        return out;
+    }
+
+    // Add (or replace) a handler for this process, for code that embeds queuectl.
+    public static void register(JobHandler handler) {
+        HANDLERS.put(handler.name(), handler);
+    }
+
+    @Override
+    public int execute(Job job) throws InterruptedException {
+        OutputCapture output = OutputCapture.direct(OutputCapture.logPath(cfg, job.id), cfg);
+        PrintStream out = new PrintStream(output.stream(), true, StandardCharsets.UTF_8);
+        JobHandler handler = HANDLERS.get(job.handler);
+        if (handler == null) {
+            out.println("[queuectl] no handler named " + job.handler + " in this worker");
+            output.finish(0);
+            job.outputTail = output.tail();
+            return 1;
+        }
+        JobProcesses.InProcess running = new JobProcesses.InProcess(Thread.currentThread());
+        processes.register(job.id, running);
+        long timeout = job.timeoutSeconds > 0 ? job.timeoutSeconds : cfg.getJobTimeoutSeconds();
+        ScheduledFuture<?> timer = timeout > 0 ? TIMEOUTS.schedule(() -> running.stop(TIMED_OUT), timeout, TimeUnit.SECONDS) : null;
+        Exception failure = null;
+        try {
+            handler.handle(job, out);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            if (timer != null) timer.cancel(false);
+        }
+        String stopped = running.finish();
+        boolean cancelled = processes.unregister(job.id);
+        boolean interrupted = Thread.interrupted(); // ours if stopped is set; otherwise the worker's stop
+        if (stopped == null && failure instanceof InterruptedException) {
+            output.finish(0);
+            throw (InterruptedException) failure;
+        }
+        if (stopped == null && interrupted) Thread.currentThread().interrupt(); // the job finished; the worker stops next
+        out.flush();
+        output.finish(0);
+        job.outputTail = output.tail();
+        if (cancelled) job.cancelRequested = true;
+        if (stopped != null) {
+            if (stopped.equals(TIMED_OUT)) Metrics.TIMED_OUT.increment();
+            String why = stopped.equals(TIMED_OUT) ? "timed out after " + timeout + "s" : stopped;
+            System.err.println("[" + worker + "] job " + job.id + " " + why + "; handler interrupted");
+            job.outputTail = (job.outputTail == null ? "" : job.outputTail) + "\n[queuectl] " + why + "; handler interrupted\n";
+            return 1;
+        }
+        if (failure == null) return 0;
+        job.outputTail = (job.outputTail == null ? "" : job.outputTail) + "[queuectl] handler " + job.handler + " failed: " + failure + "\n";
+        return 1;
+    }
+
+    // Writes the payload to the job's output; for trying handlers out from the CLI.
+    private static final class Echo implements JobHandler {
+        @Override
+        public String name() {
+            return "echo";
+        }
+
+        @Override
+        public void handle(Job job, PrintStream out) {
+            out.println(job.payload == null ? "" : job.payload.toString());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.queuectl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative longs (nanoseconds here), in the style of
+ * HdrHistogram: every power of two is split into 32 linear sub-buckets, so any recorded value is
+ * reported within ~3% using a fixed 1888-slot array. Recording is one array increment plus two adds.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS; // 32
+    private static final int LINEAR = SUB_COUNT * 2; // values below 64 get a slot each
+    private static final int SLOTS = LINEAR + (62 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(slot(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    private static int slot(long v) {
+        if (v < LINEAR) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS; // >= 1
+        return LINEAR + (shift - 1) * SUB_COUNT + (int) ((v >>> shift) - SUB_COUNT);
+    }
+
+    // Midpoint of the values that map to a slot.
+    private static long valueOf(int slot) {
+        if (slot < LINEAR) return slot;
+        int shift = (slot - LINEAR) / SUB_COUNT + 1;
+        long sub = (slot - LINEAR) % SUB_COUNT + SUB_COUNT;
+        return (sub << shift) + (1L << (shift - 1));
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // Values at the given quantiles (0..1) from one snapshot. Concurrent records may or may not be included.
+    public long[] quantiles(double... qs) {
+        long[] snapshot = new long[SLOTS];
+        long total = 0;
+        for (int i = 0; i < SLOTS; i++) total += snapshot[i] = counts.get(i);
+        long[] out = new long[qs.length];
+        if (total == 0) return out;
+        long top = max();
+        for (int k = 0; k < qs.length; k++) {
+            long rank = Math.max(1, (long) Math.ceil(qs[k] * total));
+            long seen = 0;
+            out[k] = top;
+            for (int i = 0; i < SLOTS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    out[k] = Math.min(valueOf(i), top);
+                    break;
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -2,13 +2,21 @@ package com.queuectl;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 public class Job {
     public String id;
-    public String command;
-    public String state; // pending, processing, completed, failed, dead
+    public String command; // run with /bin/sh -c; null for a handler job
+    public String handler; // name of a JobHandler run in the worker process instead of a command
+    public JsonNode payload; // any JSON, passed to the handler
+    public String state; // pending, processing, completed, failed, dead, cancelled, waiting (on depends_on)
+    public String queue = "default"; // named lane; workers can weight and cap lanes independently
+    public int priority; // higher is claimed first within the same queue
     public int attempts;
     @JsonProperty("max_retries")
     public int maxRetries;
@@ -18,6 +26,29 @@ public class Job {
     public String updatedAt;
     @JsonProperty("available_at")
     public String availableAt; // ISO-8601
+    @JsonProperty("output_tail")
+    public String outputTail; // last few KB of stdout/stderr; the full log is in the job's log file
+    public String owner; // JobStore.owner() of the process holding (or last holding) the job
+    @JsonProperty("lease_expires_at")
+    public String leaseExpiresAt; // ISO-8601, set while processing
+    @JsonProperty("retry_policy")
+    public String retryPolicy; // see RetryPolicy; null means the configured retry-policy
+    @JsonProperty("timeout_seconds")
+    public int timeoutSeconds; // the job's process tree is killed after this long; 0 means job-timeout-seconds
+    @JsonProperty("cancel_requested")
+    public boolean cancelRequested; // `queuectl cancel` on a running job: its worker kills it and marks it cancelled
+    @JsonProperty("last_retry_delay_ms")
+    public long lastRetryDelayMs; // delay before the current attempt; decorrelated backoff grows from it
+    @JsonProperty("depends_on")
+    public List<String> dependsOn; // ids of jobs that must complete first; each must already be enqueued
+    @JsonProperty("on_dependency_failure")
+    public String onDependencyFailure; // dead (the default: to the DLQ) or cancel, when a dependency ends dead or cancelled
+    @JsonProperty("deps_pending")
+    public int depsPending; // dependencies not yet completed, while waiting
+    @JsonProperty("dedupe_key")
+    public String dedupeKey; // producer's idempotency key: another job with it within dedupe-ttl-seconds is not enqueued
+    @JsonProperty("resource_key")
+    public String resourceKey; // shared downstream resource; resource-limits caps the rate and concurrency of its jobs
 
     public Job() {}
 
@@ -36,4 +67,46 @@ public class Job {
     public boolean isRetryable() {
         return attempts < maxRetries;
     }
+
+    @JsonIgnore
+    public boolean hasDependencies() {
+        return dependsOn != null && !dependsOn.isEmpty();
+    }
+
+    // State this job takes instead of running when a job it depends on ends dead or cancelled.
+    @JsonIgnore
+    public String dependencyFailureState() {
+        return "cancel".equals(onDependencyFailure) ? "cancelled" : "dead";
+    }
+
+    // Check depends_on and on_dependency_failure, dropping repeated ids; throws IllegalArgumentException.
+    public void checkDependencies() {
+        if (onDependencyFailure != null && !onDependencyFailure.equals("dead") && !onDependencyFailure.equals("cancel")) {
+            throw new IllegalArgumentException("on_dependency_failure must be dead or cancel");
+        }
+        if (dependsOn == null) return;
+        LinkedHashSet<String> ids = new LinkedHashSet<>(dependsOn);
+        if (ids.contains(null)) throw new IllegalArgumentException("depends_on contains a null id");
+        if (ids.contains(id)) throw new IllegalArgumentException("job " + id + " depends on itself");
+        dependsOn = new ArrayList<>(ids);
+    }
+
+    // Clear the fields the store and workers own, so a job parsed from user JSON (a line copied from
+    // `list`, say) enters the queue as a fresh one: pending, or waiting on its depends_on.
+    public void clearRuntimeState() {
+        state = null;
+        attempts = 0;
+        owner = null;
+        leaseExpiresAt = null;
+        cancelRequested = false;
+        lastRetryDelayMs = 0;
+        depsPending = 0;
+        outputTail = null;
+    }
+
+    // available_at as epoch millis; a job without one is available now
+    @JsonIgnore
+    public long availableAtMillis() {
+        return availableAt == null ? System.currentTimeMillis() : Instant.parse(availableAt).toEpochMilli();
+    }
 }
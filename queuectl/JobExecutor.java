@@ -0,0 +1,14 @@
+package com.queuectl;
+
+/**
+ * Runs one attempt of a claimed job for a Worker: {@link ShellExecutor} for a command,
+ * {@link HandlerExecutor} for a handler.
+ */
+public interface JobExecutor {
+    /**
+     * Run the job and return its exit status (0 for success), with its output in the job's log file and
+     * the tail in job.outputTail. A job cancelled while it runs comes back failed with cancelRequested
+     * set. Throws InterruptedException if the worker is stopped meanwhile; the job has been stopped too.
+     */
+    int execute(Job job) throws InterruptedException;
+}
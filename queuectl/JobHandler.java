@@ -0,0 +1,24 @@
+package com.queuectl;
+
+import java.io.PrintStream;
+
+/**
+ * Work run inside the worker process instead of through /bin/sh. A job with "handler": "<name>" and an
+ * optional JSON "payload" (instead of a command) is passed to the handler of that name, which saves the
+ * fork, the shell and often a second JVM that a command costs.
+ *
+ * Handlers are found with ServiceLoader: put the implementation on the classpath and list it in
+ * META-INF/services/com.queuectl.JobHandler. {@link HandlerExecutor#register} adds one from code.
+ *
+ * Returning completes the job; throwing fails the attempt, which is then retried or sent to the DLQ
+ * like a non-zero exit. A handler runs on the worker's thread, may be called for several jobs at once,
+ * and should treat interruption (a timeout, a cancel or a worker stop) as a request to stop: unlike a
+ * process, a thread can't be killed, so one that ignores it holds its worker until it returns.
+ */
+public interface JobHandler {
+    // The name jobs refer to it by.
+    String name();
+
+    // Run one attempt. What is written to out goes to the job's log file and output_tail.
+    void handle(Job job, PrintStream out) throws Exception;
+}
@@ -0,0 +1,120 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk enqueue from NDJSON, one job per line. Each line is read with a streaming JsonParser straight
+ * into a Job (no tree is built), and jobs are handed to {@link JobStore#enqueueBatch} chunk-size at a
+ * time, so memory is bounded by one chunk however large the input is. Lines that don't parse, lack an
+ * id or a command or handler, repeat an existing id or a live dedupe_key, or depend on a job not enqueued before them
+ * are reported on the error stream and skipped.
+ */
+public class JobImporter {
+    public record Result(long enqueued, long rejected, long nanos) {
+        public double jobsPerSecond() {
+            return nanos == 0 ? 0 : enqueued / (nanos / 1e9);
+        }
+    }
+
+    private final JobStore store;
+    private final Config cfg;
+    private final PrintStream errors;
+    private int chunkSize;
+    private final JsonFactory factory;
+    private final ObjectReader reader;
+
+    public JobImporter(JobStore store, Config cfg, PrintStream errors) {
+        this.store = store;
+        this.cfg = cfg;
+        this.errors = errors;
+        this.chunkSize = cfg.getEnqueueChunkSize();
+        this.factory = Json.MAPPER.getFactory();
+        this.reader = Json.MAPPER.readerFor(Job.class);
+    }
+
+    // Jobs per transaction for this import only; the configured enqueue-chunk-size is left alone.
+    public JobImporter chunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+    public Result run(InputStream in) throws IOException, SQLException {
+        long t0 = System.nanoTime();
+        long enqueued = 0, rejected = 0, lineNo = 0;
+        List<Job> chunk = new ArrayList<>(chunkSize);
+        long[] chunkLines = new long[chunkSize];
+        BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        for (String line; (line = lines.readLine()) != null; ) {
+            lineNo++;
+            if (line.isBlank()) continue;
+            Job job;
+            try {
+                job = parse(line);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                errors.println("line " + lineNo + ": " + firstLine(e.getMessage()));
+                rejected++;
+                continue;
+            }
+            chunkLines[chunk.size()] = lineNo;
+            chunk.add(job);
+            if (chunk.size() == chunkSize) {
+                int n = store.enqueueBatch(chunk);
+                enqueued += n;
+                rejected += reportSkipped(chunk, chunkLines, chunk.size() - n);
+                chunk.clear();
+            }
+        }
+        int n = store.enqueueBatch(chunk);
+        enqueued += n;
+        rejected += reportSkipped(chunk, chunkLines, chunk.size() - n);
+        return new Result(enqueued, rejected, System.nanoTime() - t0);
+    }
+
+    // A parser per line, so one malformed line can't swallow the ones after it.
+    private Job parse(String line) throws IOException {
+        try (JsonParser p = factory.createParser(line)) {
+            Job job = reader.readValue(p);
+            if (p.nextToken() != null) throw new IllegalArgumentException("trailing data after the job object");
+            if (job == null || job.id == null || (job.command == null) == (job.handler == null)) {
+                throw new IllegalArgumentException("job must have id and either command or handler");
+            }
+            job.clearRuntimeState();
+            if (job.maxRetries == 0) job.maxRetries = cfg.getMaxRetries();
+            if (job.retryPolicy != null) RetryPolicy.parse(job.retryPolicy);
+            job.checkDependencies();
+            return job;
+        }
+    }
+
+    private int reportSkipped(List<Job> chunk, long[] chunkLines, int expected) {
+        if (expected == 0) return 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            if (JobStore.DUPLICATE.equals(chunk.get(i).state)) {
+                errors.println("line " + chunkLines[i] + ": job " + chunk.get(i).id + " already exists");
+            } else if (JobStore.DUPLICATE_KEY.equals(chunk.get(i).state)) {
+                errors.println("line " + chunkLines[i] + ": job " + chunk.get(i).id + " has dedupe_key " + chunk.get(i).dedupeKey + ", already taken by another job");
+            } else if (JobStore.UNKNOWN_DEPENDENCY.equals(chunk.get(i).state)) {
+                errors.println("line " + chunkLines[i] + ": job " + chunk.get(i).id + " depends on a job that does not exist (yet)");
+            }
+        }
+        return expected;
+    }
+
+    private static String firstLine(String msg) {
+        int nl = msg.indexOf('\n');
+        return nl < 0 ? msg : msg.substring(0, nl);
+    }
+}
@@ -0,0 +1,99 @@
+package com.queuectl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The jobs running in this worker process, by job id, so a cancellation seen by the WorkerManager can
+ * reach the worker's process or handler thread, and the process trees that time out, are cancelled or
+ * are interrupted by stop can be killed as a whole.
+ */
+public class JobProcesses {
+    private final Map<String, Process> running = new ConcurrentHashMap<>();
+    private final Map<String, InProcess> handlers = new ConcurrentHashMap<>();
+    private final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A handler running on a worker's thread. stop() interrupts that thread, but only until finish(), so
+     * a timeout or cancel that comes late can't interrupt the worker's next job. A thread can't be
+     * killed: a handler that ignores the interrupt holds its worker until it returns.
+     */
+    static final class InProcess {
+        private final Thread thread;
+        private boolean finished;
+        private String stoppedBy; // why it was interrupted, or null
+
+        InProcess(Thread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void stop(String reason) {
+            if (finished || stoppedBy != null) return;
+            stoppedBy = reason;
+            thread.interrupt();
+        }
+
+        // Returns why the handler was interrupted, or null if it wasn't.
+        synchronized String finish() {
+            finished = true;
+            return stoppedBy;
+        }
+    }
+
+    void register(String jobId, Process p) {
+        running.put(jobId, p);
+    }
+
+    void register(String jobId, InProcess handler) {
+        handlers.put(jobId, handler);
+    }
+
+    // Forget the job; returns whether it was cancelled while it ran.
+    boolean unregister(String jobId) {
+        running.remove(jobId);
+        handlers.remove(jobId);
+        return cancelled.remove(jobId);
+    }
+
+    // Kill a running job's process tree off the caller's thread, or interrupt its handler. False if the
+    // job is not running here.
+    public boolean cancel(String jobId, long graceMs) {
+        Process p = running.get(jobId);
+        InProcess h = handlers.get(jobId);
+        if (p == null && h == null || !cancelled.add(jobId)) return false;
+        if (p != null) Thread.ofVirtual().name("cancel-" + jobId).start(() -> killTree(p, graceMs));
+        else h.stop("cancelled");
+        return true;
+    }
+
+    /**
+     * Ask the process and everything it started to exit (SIGTERM), then SIGKILL whatever is left
+     * after graceMs. The descendants are listed before anything is signalled: once /bin/sh exits its
+     * children are re-parented and can no longer be found from it.
+     */
+    static void killTree(Process p, long graceMs) {
+        List<ProcessHandle> tree = p.descendants().toList();
+        p.destroy();
+        for (ProcessHandle h : tree) h.destroy();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMs);
+        for (ProcessHandle h : concat(p.toHandle(), tree)) {
+            long left = deadline - System.nanoTime();
+            try {
+                if (left > 0) h.onExit().get(left, TimeUnit.NANOSECONDS);
+            } catch (Exception ignored) {
+                // still running (or we were interrupted): forced below
+            }
+            if (h.isAlive()) h.destroyForcibly();
+        }
+    }
+
+    private static List<ProcessHandle> concat(ProcessHandle first, List<ProcessHandle> rest) {
+        ProcessHandle[] all = new ProcessHandle[rest.size() + 1];
+        all[0] = first;
+        for (int i = 0; i < rest.size(); i++) all[i + 1] = rest.get(i);
+        return List.of(all);
+    }
+}
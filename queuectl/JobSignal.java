@@ -0,0 +1,79 @@
+package com.queuectl;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes idle workers when there is something to claim instead of having them poll the database.
+ * In-process enqueues call {@link #signal()}; future availability (retry backoff) is registered with
+ * {@link #scheduleAt(long)}, a small delay queue whose head is the next instant a worker must wake.
+ *
+ * To avoid lost wakeups a worker takes a {@link #ticket()} before trying to claim and passes it to
+ * {@link #await(long, long)}: a signal that arrives between the empty claim and the wait is not missed.
+ */
+public class JobSignal {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final TreeSet<Long> due = new TreeSet<>(); // epoch millis at which pending jobs become claimable
+    private long generation;
+
+    public long ticket() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // New work is claimable now: wake one waiting worker.
+    public void signal() {
+        lock.lock();
+        try {
+            generation++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Work becomes claimable at the given time. Waiters re-arm their timeout if this is the new head.
+    public void scheduleAt(long epochMillis) {
+        if (epochMillis <= System.currentTimeMillis()) {
+            signal();
+            return;
+        }
+        lock.lock();
+        try {
+            boolean newHead = due.isEmpty() || epochMillis < due.first();
+            if (due.add(epochMillis) && newHead) changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until a signal newer than {@code ticket}, until a scheduled time is reached, or for at most
+     * {@code maxWaitMs}. Only one waiter consumes each scheduled time.
+     */
+    public void await(long ticket, long maxWaitMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        lock.lock();
+        try {
+            while (generation == ticket) {
+                long now = System.currentTimeMillis();
+                if (!due.isEmpty() && due.first() <= now) {
+                    due.pollFirst();
+                    return;
+                }
+                if (now >= deadline) return;
+                long until = due.isEmpty() ? deadline : Math.min(deadline, due.first());
+                changed.await(until - now, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
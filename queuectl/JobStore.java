@@ -1,202 +1,194 @@
 package com.queuectl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.sql.*;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
-
-public class JobStore {
-    private final Connection conn;
-    private final ObjectMapper mapper = new ObjectMapper();
-
-    public JobStore(String dbPath) throws SQLException {
-        String url = "jdbc:sqlite:" + dbPath;
-        conn = DriverManager.getConnection(url);
-        init();
+import java.util.Map;
+
+/**
+ * Persistent job queue used by workers and the CLI. Two backends exist: {@link SqliteJobStore}
+ * (the default; can be shared by several processes) and {@link LogJobStore} (an embedded append-only
+ * log for single-process, high-throughput use). Pick one with {@link #open(Config)}.
+ *
+ * Failures are reported as SQLException by both backends (the log engine wraps its I/O errors) so
+ * callers keep a single error path.
+ */
+public interface JobStore extends AutoCloseable {
+    // Set on a job by the acknowledgement methods when its lease had already been lost.
+    String LEASE_LOST = "lease-lost";
+    // Set on a job by enqueue and enqueueBatch when a job with the same id already exists.
+    String DUPLICATE = "duplicate";
+    // Set on a job by enqueue and enqueueBatch when another job took its dedupe_key less than dedupe-ttl-seconds ago.
+    String DUPLICATE_KEY = "duplicate-key";
+    // Set on a job by enqueueBatch when one of its depends_on ids is neither live nor archived.
+    String UNKNOWN_DEPENDENCY = "unknown-dependency";
+
+    static JobStore open(Config cfg) throws SQLException {
+        return switch (cfg.getBackend()) {
+            case "sqlite" -> new SqliteJobStore(cfg.getStorePath(), cfg);
+            case "log" -> new LogJobStore(cfg.getStorePath(), cfg);
+            default -> throw new IllegalArgumentException("unknown backend: " + cfg.getBackend());
+        };
     }
 
-    private void init() throws SQLException {
-        try (Statement s = conn.createStatement()) {
-            s.execute("""
-                CREATE TABLE IF NOT EXISTS jobs (
-                  id TEXT PRIMARY KEY,
-                  command TEXT NOT NULL,
-                  state TEXT NOT NULL,
-                  attempts INTEGER NOT NULL,
-                  max_retries INTEGER NOT NULL,
-                  created_at TEXT,
-                  updated_at TEXT,
-                  available_at TEXT
-                );
-            """);
-        }
+    /**
+     * A job with depends_on is inserted waiting, with a count of the dependencies not yet completed;
+     * each completion decrements its dependents' counts in the same write, and a dependent reaching zero
+     * becomes pending. A dependency ending dead or cancelled moves every waiting job downstream of it to
+     * dead or cancelled by its on_dependency_failure, each job visited once. Dependencies must already
+     * exist when a job is enqueued, so the graph can never have a cycle.
+     *
+     * Enqueue is idempotent, so a producer can retry after a timeout: a job whose id already exists, or
+     * whose dedupe_key another job took less than dedupe-ttl-seconds ago, is not inserted and is marked
+     * DUPLICATE or DUPLICATE_KEY. Returns the id of the job that stands for this one: its own, or the
+     * one holding the key.
+     */
+    String enqueue(Job job) throws SQLException;
+
+    // Insert a chunk of jobs in one transaction. Jobs whose id or dedupe_key is taken are skipped and
+    // marked DUPLICATE or DUPLICATE_KEY, and jobs depending on an unknown id UNKNOWN_DEPENDENCY, instead
+    // of failing the chunk. A job may depend on one earlier in the same chunk. Returns how many were inserted.
+    int enqueueBatch(List<Job> jobs) throws SQLException;
+
+    // Order in which claims are handed out: highest priority first, then oldest.
+    Comparator<Job> CLAIM_ORDER = Comparator.<Job>comparingInt(j -> -j.priority).thenComparing(j -> j.createdAt);
+
+    // Claim up to n due pending jobs from one queue (any queue if null), leased to this process.
+    List<Job> reserveBatch(String queue, int n) throws SQLException;
+
+    default List<Job> reserveBatch(int n) throws SQLException {
+        return reserveBatch(null, n);
     }
 
-    public synchronized void enqueue(Job job) throws SQLException {
-        String sql = "INSERT INTO jobs (id, command, state, attempts, max_retries, created_at, updated_at, available_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, job.id);
-            p.setString(2, job.command);
-            p.setString(3, job.state);
-            p.setInt(4, job.attempts);
-            p.setInt(5, job.maxRetries);
-            p.setString(6, job.createdAt);
-            p.setString(7, job.updatedAt);
-            p.setString(8, job.availableAt);
-            p.executeUpdate();
-        }
+    default boolean markProcessingAndReserveNext(Config cfg, JobHolder out) throws SQLException {
+        List<Job> batch = reserveBatch(1);
+        if (batch.isEmpty()) return false;
+        out.job = batch.get(0);
+        return true;
     }
 
-    public synchronized boolean markProcessingAndReserveNext(Config cfg, JobHolder out) throws SQLException {
-        // We atomically reserve a pending job by updating it; update returns rows updated.
-        // We pick the oldest pending job whose available_at <= now
-        String selectId = "SELECT id FROM jobs WHERE state = 'pending' AND datetime(available_at) <= datetime('now') ORDER BY created_at LIMIT 1";
-        conn.setAutoCommit(false);
-        try (PreparedStatement sel = conn.prepareStatement(selectId);
-             ResultSet rs = sel.executeQuery()) {
-            if (!rs.next()) {
-                conn.commit();
-                conn.setAutoCommit(true);
-                return false;
-            }
-            String id = rs.getString("id");
-            // Update to processing and increment attempts
-            String upd = "UPDATE jobs SET state='processing', attempts = attempts + 1, updated_at = ?, available_at = ? WHERE id = ? AND state = 'pending'";
-            String now = Instant.now().toString();
-            // tentative backoff placeholder: set available_at far future to avoid double pick (we'll set correct on failure)
-            String reservedUntil = Instant.now().plus(365, ChronoUnit.DAYS).toString();
-            try (PreparedStatement p = conn.prepareStatement(upd)) {
-                p.setString(1, now);
-                p.setString(2, reservedUntil);
-                p.setString(3, id);
-                int updated = p.executeUpdate();
-                if (updated == 0) {
-                    conn.rollback();
-                    conn.setAutoCommit(true);
-                    return false;
-                }
-            }
-
-            // retrieve full row
-            String getRow = "SELECT * FROM jobs WHERE id = ?";
-            try (PreparedStatement g = conn.prepareStatement(getRow)) {
-                g.setString(1, id);
-                try (ResultSet r2 = g.executeQuery()) {
-                    if (r2.next()) {
-                        Job j = readJobFromResult(r2);
-                        conn.commit();
-                        conn.setAutoCommit(true);
-                        out.job = j;
-                        return true;
-                    }
-                }
-            }
-            conn.rollback();
-            conn.setAutoCommit(true);
-            return false;
-        } catch (SQLException ex) {
-            conn.rollback();
-            conn.setAutoCommit(true);
-            throw ex;
-        }
-    }
+    // Acknowledge a batch of successful jobs atomically.
+    void completeJobs(List<String> ids) throws SQLException;
 
-    private Job readJobFromResult(ResultSet r) throws SQLException {
-        Job j = new Job();
-        j.id = r.getString("id");
-        j.command = r.getString("command");
-        j.state = r.getString("state");
-        j.attempts = r.getInt("attempts");
-        j.maxRetries = r.getInt("max_retries");
-        j.createdAt = r.getString("created_at");
-        j.updatedAt = r.getString("updated_at");
-        j.availableAt = r.getString("available_at");
-        return j;
+    default void completeJob(String id) throws SQLException {
+        completeJobs(List.of(id));
     }
 
-    public synchronized void completeJob(String id) throws SQLException {
-        String sql = "UPDATE jobs SET state='completed', updated_at = ? WHERE id = ?";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, Instant.now().toString());
-            p.setString(2, id);
-            p.executeUpdate();
-        }
-    }
+    // Schedule a retry (or move to the DLQ) for a batch of failed jobs atomically.
+    // Each job's state and available_at are updated in place to reflect what was written.
+    void failJobs(List<Job> jobs, Config cfg) throws SQLException;
 
-    public synchronized void failAndScheduleRetry(Job job, Config cfg) throws SQLException {
-        int attempts = job.attempts; // note: attempts was incremented when reserved
-        if (attempts > job.maxRetries) {
-            // move to dead
-            String sql = "UPDATE jobs SET state='dead', updated_at = ? WHERE id = ?";
-            try (PreparedStatement p = conn.prepareStatement(sql)) {
-                p.setString(1, Instant.now().toString());
-                p.setString(2, job.id);
-                p.executeUpdate();
-            }
-            return;
-        }
-        // compute delay = base ^ attempts (seconds)
-        double delaySec = Math.pow(cfg.getBackoffBase(), attempts);
-        Instant next = Instant.now().plus((long)Math.ceil(delaySec), java.time.temporal.ChronoUnit.SECONDS);
-        String sql = "UPDATE jobs SET state='pending', updated_at = ?, available_at = ? WHERE id = ?";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, Instant.now().toString());
-            p.setString(2, next.toString());
-            p.setString(3, job.id);
-            p.executeUpdate();
-        }
+    default void failAndScheduleRetry(Job job, Config cfg) throws SQLException {
+        failJobs(List.of(job), cfg);
     }
 
-    public synchronized List<Job> listByState(String state) throws SQLException {
-        List<Job> out = new ArrayList<>();
-        String sql = "SELECT * FROM jobs WHERE state = ? ORDER BY created_at";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, state);
-            try (ResultSet r = p.executeQuery()) {
-                while (r.next()) out.add(readJobFromResult(r));
-            }
-        }
-        return out;
-    }
+    // Apply completions and failures together atomically (used by GroupCommitter).
+    void applyTransitions(List<Job> completed, List<Job> failed, Config cfg) throws SQLException;
 
-    public synchronized List<Job> listAll() throws SQLException {
-        List<Job> out = new ArrayList<>();
-        String sql = "SELECT * FROM jobs ORDER BY created_at";
-        try (PreparedStatement p = conn.prepareStatement(sql);
-             ResultSet r = p.executeQuery()) {
-            while (r.next()) out.add(readJobFromResult(r));
-        }
-        return out;
-    }
+    // Hand reserved but never started jobs back to the queue, undoing the attempt counted at reserve time.
+    void releaseJobs(List<String> ids) throws SQLException;
 
-    public synchronized Job getJob(String id) throws SQLException {
-        String sql = "SELECT * FROM jobs WHERE id = ?";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, id);
-            try (ResultSet r = p.executeQuery()) {
-                if (r.next()) return readJobFromResult(r);
-            }
-        }
-        return null;
+    // Extend the lease of every job this process holds. Returns how many were extended.
+    int heartbeat() throws SQLException;
+
+    // Return jobs whose lease ran out to the queue (or the DLQ once retries are exhausted).
+    int reapExpiredLeases() throws SQLException;
+
+    // Return the jobs of worker processes that have exited, killed or crashed without releasing them,
+    // to the queue as the reaper would, without waiting for their leases to run out. Workers call it
+    // when they start. Returns how many.
+    int recoverOrphans() throws SQLException;
+
+    // Move a dead job back to pending with a fresh attempt budget, or to waiting if some of its
+    // dependencies have not completed. Returns false if it is not in the DLQ.
+    boolean requeue(String id) throws SQLException;
+
+    // Earliest time (epoch millis) a pending job of one of these queues could be claimed, or null if
+    // there is none. queues null means any queue; an empty list, none.
+    Long nextDueAt(Collection<String> queues) throws SQLException;
+
+    /**
+     * One page of jobs in list order: state null means every state, since (an ISO-8601 prefix such as
+     * 2026-10-17T01:17:50) keeps jobs created at or after it, and after (null for the first page)
+     * continues from the last job of the previous page. At most limit jobs. Each page is its own short
+     * query, so a caller walking millions of jobs holds one page in memory and never blocks writers for
+     * long. SQLite orders by (created_at, id); the log backend by enqueue order.
+     */
+    List<Job> listPage(String state, String since, Cursor after, int limit) throws SQLException;
+
+    Job getJob(String id) throws SQLException;
+
+    int countByState(String state) throws SQLException;
+
+    /**
+     * Cancel a job. A pending or waiting job becomes cancelled at once; a processing one is flagged, and becomes
+     * cancelled when the worker running it has killed it. Returns the job's state afterwards (unchanged
+     * for a job that already finished), or null if there is no such job.
+     */
+    String cancel(String id) throws SQLException;
+
+    // Ids of jobs this process is running that have been asked to cancel.
+    List<String> cancelRequested() throws SQLException;
+
+    /**
+     * Move up to n completed, dead or cancelled jobs last updated before cutoffMillis out of the live
+     * jobs and into the archive, as one short write. Returns how many moved; fewer than n means none are
+     * left. Archived jobs no longer show in list, counts or claims.
+     */
+    int archive(long cutoffMillis, int n) throws SQLException;
+
+    // Archived jobs, paged like listPage.
+    List<Job> listArchived(String state, String since, Cursor after, int limit) throws SQLException;
+
+    Job getArchivedJob(String id) throws SQLException;
+
+    // Forget dedupe keys whose dedupe-ttl-seconds ran out before nowMillis. Returns how many. Lookups
+    // ignore expired keys anyway; this only keeps them from piling up.
+    int expireDedupeKeys(long nowMillis) throws SQLException;
+
+    // Give space freed by archiving back to the filesystem. full rewrites the whole store, which is slow
+    // but needed once to switch a SQLite file created before archiving to incremental vacuum.
+    void compact(boolean full) throws SQLException;
+
+    // Number of jobs in every state, from counters kept up to date on each transition (no scan).
+    Map<String, Integer> countsByState() throws SQLException;
+
+    // Settings saved with `config set`, by config key. Stores apply them to their Config when opened.
+    Map<String, String> loadConfig() throws SQLException;
+
+    void saveConfig(String key, String value) throws SQLException;
+
+    // Pending/processing counts per queue and the created_at of each queue's oldest pending job.
+    List<QueueDepth> queueDepths() throws SQLException;
+
+    JobSignal signal();
+
+    // host:pid and a random token, identifying this process in the owner column
+    String owner();
+
+    // output_tail of a job that never ran because a job upstream of it failed.
+    static String dependencyFailedNote(String upstreamId, String upstreamState) {
+        return "[queuectl] not run: upstream job " + upstreamId + " is " + upstreamState + "\n";
     }
 
-    public synchronized int countByState(String state) throws SQLException {
-        String sql = "SELECT COUNT(*) AS c FROM jobs WHERE state = ?";
-        try (PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, state);
-            try (ResultSet r = p.executeQuery()) {
-                if (r.next()) return r.getInt("c");
-            }
+    @Override
+    void close() throws SQLException;
+
+    class JobHolder { public Job job; }
+
+    record QueueDepth(String queue, int pending, int processing, String oldestPendingCreatedAt) {}
+
+    // Position in list order: just after the job with this created_at and id.
+    record Cursor(String createdAt, String id) {
+        public static Cursor after(Job job) {
+            return new Cursor(job.createdAt == null ? "" : job.createdAt, job.id);
         }
-        return 0;
-    }
 
-    public void close() throws SQLException {
-        conn.close();
+        // Whether job comes after this position in (created_at, id) order.
+        public boolean isBefore(Job job) {
+            int c = (job.createdAt == null ? "" : job.createdAt).compareTo(createdAt);
+            return c > 0 || c == 0 && job.id.compareTo(id) > 0;
+        }
     }
-
-    public static class JobHolder { public Job job; }
 }
@@ -0,0 +1,14 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The process's one ObjectMapper. Building it loads a few hundred Jackson classes, which is a large
+ * part of a command's start-up, so it is made the first time something reads or writes JSON (when this
+ * class is loaded) rather than by every class that might: a worker claiming shell jobs never needs it.
+ */
+public final class Json {
+    private Json() {}
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+}
@@ -0,0 +1,1456 @@
+package com.queuectl;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Embedded single-process JobStore: every state change appends the job's full JSON to a segmented,
+ * memory-mapped log, and all queries are served from an in-memory index rebuilt on startup.
+ *
+ * On disk (in the store directory):
+ *   seg-NNNNNNNN.log   records of [int length][int crc32c][payload], zero length = end of data
+ *   snapshot.log       [int first segment not covered] then the latest record of every job
+ *   archive.ndjson.gz  jobs moved out by retention: one gzip member of job JSON lines per archive call
+ *   lock               held while open; a second process opens the store read-only
+ *
+ * A PUT payload is [byte type][byte state][long available_at][long lease_expires_at][int priority]
+ * [short id length][id][short queue length][queue][short resource_key length][resource_key][job JSON]. The index only needs the fixed header, so recovery never parses JSON or timestamps
+ * (except for jobs waiting on dependencies, whose counts are rebuilt from their depends_on), and the index
+ * keeps each job as the bytes it last wrote rather than as a Job. A DELETE payload is
+ * [byte type][short id length][id] and drops an archived job from the index. A DEDUPE payload is
+ * [byte type][long expires_at][short key length][key][short id length][id] and records a dedupe_key.
+ *
+ * Once snapshot-every-bytes of log has been written, the live jobs are written to a new snapshot in
+ * the background and the segments it covers are deleted (compaction). Durability follows
+ * synchronous: FULL/EXTRA force the map on every commit, NORMAL forces it once a second, OFF leaves
+ * it to the OS.
+ */
+public class LogJobStore implements JobStore {
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int HEADER_BYTES = 8;
+    private static final byte PUT_V1 = 1; // before queues: no priority or queue in the header
+    private static final byte PUT_V2 = 2; // before resource limits: no resource_key in the header
+    private static final byte DELETE = 3;
+    private static final byte DEDUPE = 4;
+    private static final byte PUT = 5;
+    private static final int MAX_SEGMENTS_BEFORE_SNAPSHOT = 64;
+    private static final List<String> STATES = List.of("pending", "processing", "completed", "failed", "dead", "cancelled", "waiting");
+    private static final byte PENDING = 0;
+    private static final byte PROCESSING = 1;
+    private static final byte WAITING = 6;
+    private static final Set<String> FINISHED = Set.of("completed", "dead", "cancelled");
+
+    // One live job: its sort keys plus the JSON last written for it.
+    private static final class Entry {
+        final String id;
+        final long seq;
+        byte state;
+        long availableAt;
+        long leaseExpiresAt = Long.MAX_VALUE;
+        boolean mine; // leased by this process
+        boolean cancelRequested; // only meaningful while mine
+        long finishedAt = -1; // finished entries: epoch millis of the transition, -1 until known
+        int depsPending; // waiting entries: dependencies not completed yet. Kept here only; the JSON's copy goes stale
+        String queue = "default"; // interned
+        String resourceKey; // interned; null for a job without one
+        int priority;
+        byte[] json;
+
+        Entry(String id, long seq) {
+            this.id = id;
+            this.seq = seq;
+        }
+
+        String state() {
+            return STATES.get(state);
+        }
+    }
+
+    private record DedupeKey(String jobId, long expiresAt) {}
+
+    private final Path dir;
+    private final Config cfg;
+    private final String owner = ownerId();
+    private final JobSignal signal = new JobSignal();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final HashMap<String, Entry> byId = new HashMap<>();
+    // every entry in creation order; list pages seek into it from their cursor's entry
+    private final TreeMap<Long, Entry> bySeq = new TreeMap<>();
+    private final TreeSet<Entry> pending = new TreeSet<>(
+            Comparator.<Entry>comparingLong(e -> e.availableAt).thenComparingLong(e -> e.seq));
+    // pending jobs per queue in claim order: highest priority, then earliest due
+    private final Map<String, TreeSet<Entry>> ready = new TreeMap<>();
+    private static final Comparator<Entry> READY_ORDER = Comparator.<Entry>comparingInt(e -> -e.priority)
+            .thenComparingLong(e -> e.availableAt).thenComparingLong(e -> e.seq);
+    private final TreeSet<Entry> leased = new TreeSet<>(
+            Comparator.<Entry>comparingLong(e -> e.leaseExpiresAt).thenComparingLong(e -> e.seq));
+    // finished jobs oldest first, for retention. Entries replayed from disk have no finishedAt yet; they
+    // wait in unsorted until archive() reads it from their JSON, which keeps recovery free of parsing.
+    private final TreeSet<Entry> finished = new TreeSet<>(
+            Comparator.<Entry>comparingLong(e -> e.finishedAt).thenComparingLong(e -> e.seq));
+    private final Set<Entry> unsorted = new LinkedHashSet<>();
+    // waiting jobs by the id of each dependency they still wait on. A completion or failure removes the
+    // dependency's set; jobs in it that stopped waiting some other way are skipped then.
+    private final HashMap<String, Set<Entry>> dependents = new HashMap<>();
+    // dedupe_key -> the job that took it, roughly in expiry order. A HashMap probe per keyed enqueue; the
+    // keys are also logged, and the snapshot carries the unexpired ones, so they survive a restart.
+    private final LinkedHashMap<String, DedupeKey> dedupeKeys = new LinkedHashMap<>();
+    // resource-limits state: processing jobs per resource_key, and each limited key's token bucket. The
+    // buckets are not logged; a restart starts them full.
+    private final HashMap<String, Integer> inFlight = new HashMap<>();
+    private final HashMap<String, ResourceLimiter.Bucket> buckets = new HashMap<>();
+    private ResourceLimiter limiter = new ResourceLimiter(""); // rebuilt when resource-limits changes
+    private Map<String, Job> archivedJobs; // read on demand while resolving dependencies, dropped after each call
+    private final int[] counts = new int[STATES.size()];
+    private long nextSeq;
+
+    private final FileChannel lockChannel;
+    private final FileLock fileLock; // null when opened read-only
+    private int segmentNo;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private int syncedTo; // position in the current segment up to which the map has been forced
+    private long bytesSinceSnapshot;
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private Thread background;
+    private volatile boolean closed;
+
+    public LogJobStore(String dirPath, Config cfg) throws SQLException {
+        this.dir = Path.of(dirPath);
+        this.cfg = cfg;
+        try {
+            Files.createDirectories(dir);
+            // settings saved with `config set` override the defaults, synchronous included
+            cfg.apply(readConfig());
+            lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            fileLock = lockChannel.tryLock();
+            int firstSegment = loadSnapshot();
+            int lastSegment = firstSegment - 1;
+            for (int no : segmentsOnDisk()) {
+                if (no < firstSegment) continue;
+                replay(segmentPath(no), 0);
+                lastSegment = no;
+            }
+            rebuildDependencies();
+            if (fileLock != null) {
+                openSegment(lastSegment + 1);
+                settleDependencies();
+                startBackground();
+                if (lastSegment - firstSegment + 1 > MAX_SEGMENTS_BEFORE_SNAPSHOT) maybeSnapshot(true);
+            }
+        } catch (IOException e) {
+            throw new SQLException("cannot open log store " + dir + ": " + e.getMessage(), e);
+        }
+    }
+
+    // host:pid:token, shown in list output. Leases here are told apart by Entry.mine, not by owner.
+    private static String ownerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + ":" + ProcessHandle.current().pid() + ":" + UUID.randomUUID();
+    }
+
+    // ---- recovery -------------------------------------------------------------------------------
+
+    // Loads snapshot.log if present and returns the first segment not covered by it.
+    private int loadSnapshot() throws IOException {
+        Path snap = dir.resolve("snapshot.log");
+        if (Files.exists(snap)) return replay(snap, 4);
+        List<Integer> segs = segmentsOnDisk();
+        return segs.isEmpty() ? 1 : segs.get(0);
+    }
+
+    private List<Integer> segmentsOnDisk() throws IOException {
+        List<Integer> out = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.startsWith("seg-") && n.endsWith(".log"))
+                 .forEach(n -> out.add(Integer.parseInt(n.substring(4, n.length() - 4))));
+        }
+        out.sort(null);
+        return out;
+    }
+
+    private Path segmentPath(int no) {
+        return dir.resolve(String.format("seg-%08d.log", no));
+    }
+
+    // Applies the records of a segment or snapshot, starting at offset. Returns the int stored before
+    // offset (the snapshot's next segment), or 0.
+    private int replay(Path file, int offset) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            int prefix = offset > 0 ? buf.getInt(0) : 0;
+            buf.position(offset);
+            CRC32C crc = new CRC32C();
+            while (buf.remaining() >= HEADER_BYTES) {
+                int len = buf.getInt();
+                int sum = buf.getInt();
+                if (len <= 0 || len > buf.remaining()) break; // end of written data (or a torn write)
+                crc.reset();
+                crc.update(buf.slice(buf.position(), len));
+                if ((int) crc.getValue() != sum) break; // torn write at the tail: everything after is lost
+                int end = buf.position() + len;
+                byte type = buf.get();
+                if (type == PUT || type == PUT_V2 || type == PUT_V1) apply(buf, end, type);
+                else if (type == DELETE) applyDelete(buf);
+                else if (type == DEDUPE) applyDedupe(buf);
+                buf.position(end);
+            }
+            return prefix;
+        }
+    }
+
+    // Installs one PUT record (positioned after its type byte) into the index.
+    private void apply(ByteBuffer buf, int end, byte type) {
+        boolean hasQueue = type != PUT_V1;
+        byte state = buf.get();
+        long availableAt = buf.getLong();
+        long leaseExpiresAt = buf.getLong();
+        int priority = hasQueue ? buf.getInt() : 0;
+        byte[] id = new byte[buf.getShort()];
+        buf.get(id);
+        String queue = "default";
+        if (hasQueue) {
+            byte[] q = new byte[buf.getShort()];
+            buf.get(q);
+            queue = new String(q, StandardCharsets.UTF_8).intern();
+        }
+        String resourceKey = null;
+        if (type == PUT) {
+            byte[] r = new byte[buf.getShort()];
+            buf.get(r);
+            if (r.length > 0) resourceKey = new String(r, StandardCharsets.UTF_8).intern();
+        }
+        byte[] json = new byte[end - buf.position()];
+        buf.get(json);
+        String key = new String(id, StandardCharsets.UTF_8);
+        Entry e = byId.get(key);
+        if (e == null) {
+            e = new Entry(key, nextSeq++);
+            byId.put(key, e);
+            bySeq.put(e.seq, e);
+        } else {
+            unindex(e);
+        }
+        e.state = state;
+        e.availableAt = availableAt;
+        e.leaseExpiresAt = leaseExpiresAt;
+        e.priority = priority;
+        e.queue = queue;
+        e.resourceKey = resourceKey;
+        e.mine = false; // a lease from an earlier run is never this process's
+        e.finishedAt = -1;
+        e.json = json;
+        index(e);
+    }
+
+    private void applyDelete(ByteBuffer buf) {
+        byte[] id = new byte[buf.getShort()];
+        buf.get(id);
+        Entry e = byId.remove(new String(id, StandardCharsets.UTF_8));
+        if (e != null) {
+            bySeq.remove(e.seq);
+            unindex(e);
+        }
+    }
+
+    private void applyDedupe(ByteBuffer buf) {
+        long expiresAt = buf.getLong();
+        byte[] key = new byte[buf.getShort()];
+        buf.get(key);
+        byte[] id = new byte[buf.getShort()];
+        buf.get(id);
+        String k = new String(key, StandardCharsets.UTF_8);
+        dedupeKeys.remove(k); // re-put at the end, keeping the map in expiry order
+        if (expiresAt > System.currentTimeMillis()) dedupeKeys.put(k, new DedupeKey(new String(id, StandardCharsets.UTF_8), expiresAt));
+    }
+
+    // Counts and edges of the waiting jobs, from their depends_on. A dependency no longer in the log was
+    // archived, which a job still waiting on it means it completed.
+    private void rebuildDependencies() throws IOException {
+        for (Entry e : bySeq.values()) {
+            if (e.state != WAITING) continue;
+            Job job = jobOf(e);
+            if (!job.hasDependencies()) continue;
+            for (String parent : job.dependsOn) {
+                Entry p = byId.get(parent);
+                if (p == null || "completed".equals(p.state())) continue;
+                e.depsPending++;
+                dependents.computeIfAbsent(parent, k -> new LinkedHashSet<>()).add(e);
+            }
+        }
+    }
+
+    // A crash between a completion's record and its dependents' leaves them waiting on nothing; release
+    // them. (A job waiting on a dead one is left waiting: that is also what a retry from the DLQ does.)
+    private void settleDependencies() throws IOException {
+        String now = Instant.now().toString();
+        boolean changed = false;
+        for (Entry e : new ArrayList<>(bySeq.values())) {
+            if (e.state != WAITING || e.depsPending > 0) continue;
+            unindex(e);
+            Job job = jobOf(e);
+            job.state = "pending";
+            job.updatedAt = now;
+            store(e, job, false, Long.MAX_VALUE);
+            changed = true;
+        }
+        if (changed) commit();
+    }
+
+    // ---- index maintenance ----------------------------------------------------------------------
+
+    private void unindex(Entry e) {
+        if (e.state == PENDING) {
+            pending.remove(e);
+            ready.get(e.queue).remove(e);
+        } else if (e.state == PROCESSING) {
+            leased.remove(e);
+            if (e.resourceKey != null) inFlight.merge(e.resourceKey, -1, (a, b) -> a + b == 0 ? null : a + b);
+        } else if (e.finishedAt < 0) unsorted.remove(e);
+        else finished.remove(e);
+        counts[e.state]--;
+    }
+
+    private void index(Entry e) {
+        if (e.state == PENDING) {
+            pending.add(e);
+            ready.computeIfAbsent(e.queue, q -> new TreeSet<>(READY_ORDER)).add(e);
+        } else if (e.state == PROCESSING) {
+            leased.add(e);
+            if (e.resourceKey != null) inFlight.merge(e.resourceKey, 1, Integer::sum);
+        } else if (FINISHED.contains(e.state())) {
+            if (e.finishedAt < 0) unsorted.add(e);
+            else finished.add(e);
+        }
+        counts[e.state]++;
+    }
+
+    // Re-keys an entry from the job's fields after a change and appends it to the log.
+    // Caller holds the lock and has unindexed the entry.
+    private void store(Entry e, Job job, boolean mine, long leaseExpiresAt) throws IOException {
+        e.state = (byte) STATES.indexOf(job.state);
+        e.availableAt = job.availableAtMillis();
+        e.leaseExpiresAt = leaseExpiresAt;
+        e.mine = mine;
+        e.cancelRequested = job.cancelRequested;
+        e.depsPending = e.state == WAITING ? job.depsPending : 0;
+        e.finishedAt = FINISHED.contains(job.state) ? System.currentTimeMillis() : -1;
+        e.priority = job.priority;
+        e.queue = job.queue == null ? "default" : job.queue.intern();
+        e.resourceKey = job.resourceKey == null ? null : job.resourceKey.intern();
+        e.json = Json.MAPPER.writeValueAsBytes(job);
+        index(e);
+        put(e);
+    }
+
+    private Job jobOf(Entry e) throws IOException {
+        Job job = Json.MAPPER.readValue(e.json, Job.class);
+        job.depsPending = e.depsPending;
+        return job;
+    }
+
+    // ---- dependencies ---------------------------------------------------------------------------
+
+    // State of a live or archived job, or null if there is no such job. Caller holds the lock.
+    private String stateOf(String id) throws SQLException {
+        Entry e = byId.get(id);
+        if (e != null) return e.state();
+        if (archivedJobs == null) archivedJobs = readArchive();
+        Job j = archivedJobs.get(id);
+        return j == null ? null : j.state;
+    }
+
+    // Set a new job's state and count from its dependencies: waiting on those not completed, or dead or
+    // cancelled at once if one of them failed. Returns false if a dependency doesn't exist.
+    private boolean resolveDependencies(Job job) throws SQLException {
+        job.depsPending = 0;
+        if (!job.hasDependencies()) return true;
+        String failed = null, failedState = null;
+        for (String parent : job.dependsOn) {
+            String state = stateOf(parent);
+            if (state == null) return false;
+            if ("completed".equals(state)) continue;
+            if (("dead".equals(state) || "cancelled".equals(state)) && failed == null) {
+                failed = parent;
+                failedState = state;
+            }
+            job.depsPending++;
+        }
+        if (failed != null) {
+            job.state = job.dependencyFailureState();
+            job.outputTail = JobStore.dependencyFailedNote(failed, failedState);
+            job.depsPending = 0;
+        } else {
+            job.state = job.depsPending == 0 ? "pending" : "waiting";
+        }
+        return true;
+    }
+
+    // Record a waiting entry under each dependency it still waits on.
+    private void addEdges(Entry e, Job job) {
+        if (e.state != WAITING) return;
+        for (String parent : job.dependsOn) {
+            Entry p = byId.get(parent);
+            if (p != null && !"completed".equals(p.state())) dependents.computeIfAbsent(parent, k -> new LinkedHashSet<>()).add(e);
+        }
+    }
+
+    // A completed job takes one off each waiting dependent's count; those reaching zero become pending.
+    // Returns whether any did. Caller holds the lock.
+    private boolean releaseDependents(String parentId, String now) throws IOException {
+        Set<Entry> children = dependents.remove(parentId);
+        if (children == null) return false;
+        boolean released = false;
+        for (Entry c : children) {
+            if (c.state != WAITING || --c.depsPending > 0) continue;
+            unindex(c);
+            Job job = jobOf(c);
+            job.state = "pending";
+            job.updatedAt = now;
+            store(c, job, false, Long.MAX_VALUE);
+            released = true;
+        }
+        return released;
+    }
+
+    // Breadth-first over the waiting jobs downstream of a dead or cancelled one, each moved to its own
+    // on_dependency_failure state. A job leaves waiting when first reached, so each is visited once.
+    private void failDependents(Entry failed, String now) throws IOException {
+        if (dependents.isEmpty()) return;
+        String note = JobStore.dependencyFailedNote(failed.id, failed.state());
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.add(failed.id);
+        while (!todo.isEmpty()) {
+            Set<Entry> children = dependents.remove(todo.poll());
+            if (children == null) continue;
+            for (Entry c : children) {
+                if (c.state != WAITING) continue;
+                unindex(c);
+                Job job = jobOf(c);
+                job.state = job.dependencyFailureState();
+                job.depsPending = 0;
+                job.updatedAt = now;
+                job.outputTail = note;
+                store(c, job, false, Long.MAX_VALUE);
+                todo.add(c.id);
+            }
+        }
+    }
+
+    // ---- log writing ----------------------------------------------------------------------------
+
+    private void openSegment(int no) throws IOException {
+        segmentNo = no;
+        segmentChannel = FileChannel.open(segmentPath(no), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        syncedTo = 0;
+    }
+
+    private void rollSegment() throws IOException {
+        if (!"OFF".equals(cfg.getSynchronous())) forceSegment();
+        segmentChannel.truncate(segment.position()); // drop the unused, zero-filled tail; the old map is never touched again
+        segmentChannel.close();
+        openSegment(segmentNo + 1);
+    }
+
+    private static int recordBytes(Entry e, byte[] id, byte[] queue, byte[] resource) {
+        return HEADER_BYTES + 1 + 1 + 8 + 8 + 4 + 2 + id.length + 2 + queue.length + 2 + resource.length + e.json.length;
+    }
+
+    private static byte[] resourceBytes(Entry e) {
+        return e.resourceKey == null ? new byte[0] : e.resourceKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Writes a PUT record of the entry's current state at the current position of dst.
+    private static void writeRecord(ByteBuffer dst, Entry e, byte[] id, byte[] queue, byte[] resource) {
+        int start = dst.position();
+        int len = recordBytes(e, id, queue, resource) - HEADER_BYTES;
+        // the length goes in last so a reader never sees a length whose payload isn't there yet
+        dst.position(start + HEADER_BYTES);
+        dst.put(PUT).put(e.state).putLong(e.availableAt).putLong(e.leaseExpiresAt).putInt(e.priority)
+           .putShort((short) id.length).put(id).putShort((short) queue.length).put(queue)
+           .putShort((short) resource.length).put(resource).put(e.json);
+        CRC32C crc = new CRC32C();
+        crc.update(dst.slice(start + HEADER_BYTES, len));
+        dst.putInt(start + 4, (int) crc.getValue());
+        dst.putInt(start, len);
+    }
+
+    // Appends the entry's current state. Caller holds the lock.
+    private void put(Entry e) throws IOException {
+        byte[] id = e.id.getBytes(StandardCharsets.UTF_8);
+        byte[] queue = e.queue.getBytes(StandardCharsets.UTF_8);
+        byte[] resource = resourceBytes(e);
+        if (resource.length > Short.MAX_VALUE) throw new IOException("resource_key of job " + e.id + " is too long");
+        int size = recordBytes(e, id, queue, resource);
+        if (size > SEGMENT_BYTES) throw new IOException("job " + e.id + " is too large for the log");
+        if (segment.remaining() < size) rollSegment();
+        writeRecord(segment, e, id, queue, resource);
+        bytesSinceSnapshot += size;
+    }
+
+    // Appends a DELETE record for an archived job. Caller holds the lock.
+    private void putDelete(String jobId) throws IOException {
+        byte[] id = jobId.getBytes(StandardCharsets.UTF_8);
+        int len = 1 + 2 + id.length;
+        if (segment.remaining() < HEADER_BYTES + len) rollSegment();
+        int start = segment.position();
+        segment.position(start + HEADER_BYTES);
+        segment.put(DELETE).putShort((short) id.length).put(id);
+        CRC32C crc = new CRC32C();
+        crc.update(segment.slice(start + HEADER_BYTES, len));
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, len);
+        bytesSinceSnapshot += HEADER_BYTES + len;
+    }
+
+    private static int dedupeRecordBytes(byte[] key, byte[] id) {
+        return HEADER_BYTES + 1 + 8 + 2 + key.length + 2 + id.length;
+    }
+
+    // Writes a DEDUPE record at the current position of dst.
+    private static void writeDedupe(ByteBuffer dst, byte[] key, byte[] id, long expiresAt) {
+        int start = dst.position();
+        int len = dedupeRecordBytes(key, id) - HEADER_BYTES;
+        dst.position(start + HEADER_BYTES);
+        dst.put(DEDUPE).putLong(expiresAt).putShort((short) key.length).put(key).putShort((short) id.length).put(id);
+        CRC32C crc = new CRC32C();
+        crc.update(dst.slice(start + HEADER_BYTES, len));
+        dst.putInt(start + 4, (int) crc.getValue());
+        dst.putInt(start, len);
+    }
+
+    // Records that jobId took key until expiresAt. Caller holds the lock.
+    private void putDedupe(String key, String jobId, long expiresAt) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] id = jobId.getBytes(StandardCharsets.UTF_8);
+        if (k.length > Short.MAX_VALUE) throw new IOException("dedupe_key of job " + jobId + " is too long");
+        int size = dedupeRecordBytes(k, id);
+        if (segment.remaining() < size) rollSegment();
+        writeDedupe(segment, k, id, expiresAt);
+        bytesSinceSnapshot += size;
+        dedupeKeys.remove(key);
+        dedupeKeys.put(key, new DedupeKey(jobId, expiresAt));
+    }
+
+    // The job holding key, or null if no job took it within dedupe-ttl-seconds. Caller holds the lock.
+    private DedupeKey liveDedupeKey(String key, long nowMillis) {
+        DedupeKey k = dedupeKeys.get(key);
+        return k == null || k.expiresAt() <= nowMillis ? null : k;
+    }
+
+    // End of a logical transaction: make the records durable according to synchronous.
+    private void commit() throws IOException {
+        String sync = cfg.getSynchronous();
+        if ("FULL".equals(sync) || "EXTRA".equals(sync)) forceSegment();
+        maybeSnapshot(false);
+    }
+
+    private void forceSegment() {
+        int pos = segment.position();
+        if (pos > syncedTo) {
+            segment.force(syncedTo, pos - syncedTo);
+            syncedTo = pos;
+        }
+    }
+
+    private void checkWritable() throws SQLException {
+        if (fileLock == null) throw new SQLException("log store " + dir + " is locked by another process; opened read-only");
+        if (closed) throw new SQLException("log store is closed");
+    }
+
+    // ---- snapshot / compaction ------------------------------------------------------------------
+
+    // Caller holds the lock. Rolls to a fresh segment so the snapshot covers exactly the older ones,
+    // copies every live entry's state, and writes the snapshot off the hot path. Returns the writing
+    // thread, or null if no snapshot was started.
+    private Thread maybeSnapshot(boolean force) throws IOException {
+        if (!force && bytesSinceSnapshot < cfg.getSnapshotEveryBytes()) return null;
+        if (!snapshotting.compareAndSet(false, true)) return null;
+        rollSegment();
+        int covers = segmentNo;
+        List<Entry> copies = new ArrayList<>(byId.size());
+        for (Entry e : bySeq.values()) {
+            Entry c = new Entry(e.id, e.seq);
+            c.state = e.state;
+            c.availableAt = e.availableAt;
+            c.leaseExpiresAt = e.leaseExpiresAt;
+            c.priority = e.priority;
+            c.queue = e.queue;
+            c.resourceKey = e.resourceKey;
+            c.json = e.json; // never mutated, only replaced
+            copies.add(c);
+        }
+        List<Map.Entry<String, DedupeKey>> keys = new ArrayList<>(dedupeKeys.size());
+        for (Map.Entry<String, DedupeKey> k : dedupeKeys.entrySet()) keys.add(Map.entry(k.getKey(), k.getValue()));
+        bytesSinceSnapshot = 0;
+        return Thread.ofPlatform().name("log-snapshot").daemon(true).start(() -> {
+            try {
+                writeSnapshot(covers, copies, keys);
+            } catch (IOException ex) {
+                System.err.println("log snapshot failed: " + ex.getMessage());
+            } finally {
+                snapshotting.set(false);
+            }
+        });
+    }
+
+    private void writeSnapshot(int nextSegment, List<Entry> entries, List<Map.Entry<String, DedupeKey>> keys) throws IOException {
+        Path tmp = dir.resolve("snapshot.log.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+            buf.putInt(nextSegment);
+            for (Entry e : entries) {
+                byte[] id = e.id.getBytes(StandardCharsets.UTF_8);
+                byte[] queue = e.queue.getBytes(StandardCharsets.UTF_8);
+                byte[] resource = resourceBytes(e);
+                int size = recordBytes(e, id, queue, resource);
+                if (buf.remaining() < size) {
+                    drain(ch, buf);
+                    if (buf.remaining() < size) buf = ByteBuffer.allocate(size);
+                }
+                writeRecord(buf, e, id, queue, resource);
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, DedupeKey> k : keys) {
+                if (k.getValue().expiresAt() <= now) continue;
+                byte[] key = k.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] id = k.getValue().jobId().getBytes(StandardCharsets.UTF_8);
+                if (buf.remaining() < dedupeRecordBytes(key, id)) drain(ch, buf);
+                writeDedupe(buf, key, id, k.getValue().expiresAt());
+            }
+            drain(ch, buf);
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve("snapshot.log"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (int no : segmentsOnDisk()) {
+            if (no < nextSegment) Files.deleteIfExists(segmentPath(no));
+        }
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    // NORMAL durability: force the current segment once a second.
+    private void startBackground() {
+        background = Thread.ofPlatform().name("log-flusher").daemon(true).start(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!"NORMAL".equals(cfg.getSynchronous())) continue;
+                lock.lock();
+                try {
+                    if (!closed) forceSegment();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    // ---- JobStore -------------------------------------------------------------------------------
+
+    @Override
+    public String enqueue(Job job) throws SQLException {
+        enqueueBatch(List.of(job));
+        if (UNKNOWN_DEPENDENCY.equals(job.state)) throw new SQLException("job " + job.id + " depends on unknown job(s) " + job.dependsOn);
+        if (!DUPLICATE_KEY.equals(job.state)) return job.id;
+        lock.lock();
+        try {
+            DedupeKey k = dedupeKeys.get(job.dedupeKey);
+            String holder = k == null ? job.id : k.jobId();
+            if (holder.equals(job.id)) job.state = DUPLICATE; // the same job again, since archived
+            return holder;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int enqueueBatch(List<Job> jobs) throws SQLException {
+        if (jobs.isEmpty()) return 0;
+        lock.lock();
+        try {
+            checkWritable();
+            long now = System.currentTimeMillis();
+            long expiresAt = now + cfg.getDedupeTtlSeconds() * 1000;
+            int inserted = 0;
+            for (Job job : jobs) {
+                if (byId.containsKey(job.id)) {
+                    job.state = DUPLICATE;
+                    continue;
+                }
+                if (job.dedupeKey != null && liveDedupeKey(job.dedupeKey, now) != null) {
+                    job.state = DUPLICATE_KEY;
+                    continue;
+                }
+                if (!resolveDependencies(job)) {
+                    job.state = UNKNOWN_DEPENDENCY;
+                    continue;
+                }
+                insert(job);
+                if (job.dedupeKey != null) putDedupe(job.dedupeKey, job.id, expiresAt);
+                inserted++;
+            }
+            commit();
+            if (inserted > 0) signal.signal();
+            return inserted;
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            archivedJobs = null;
+            lock.unlock();
+        }
+    }
+
+    private void insert(Job job) throws IOException {
+        // jobs parsed from JSON only carry what the user supplied
+        if (job.state == null) job.state = "pending";
+        if (job.createdAt == null) job.createdAt = Instant.now().toString();
+        if (job.updatedAt == null) job.updatedAt = job.createdAt;
+        if (job.availableAt == null) job.availableAt = job.createdAt;
+        Entry e = new Entry(job.id, nextSeq++);
+        byId.put(job.id, e);
+        bySeq.put(e.seq, e);
+        store(e, job, false, Long.MAX_VALUE);
+        addEdges(e, job);
+    }
+
+    @Override
+    public List<Job> reserveBatch(String queue, int n) throws SQLException {
+        lock.lock();
+        try {
+            checkWritable();
+            long nowMs = System.currentTimeMillis();
+            String now = Instant.ofEpochMilli(nowMs).toString();
+            long until = nowMs + cfg.getLeaseMs();
+            List<Entry> due = new ArrayList<>(n);
+            if (!limiter().isEmpty()) {
+                collectLimited(queue, nowMs, n, due);
+            } else if (queue != null) {
+                TreeSet<Entry> lane = ready.get(queue);
+                if (lane != null) collectDue(lane, nowMs, n, due);
+            } else {
+                // up to n candidates per queue, merged: n stays small, and so does the number of queues
+                for (TreeSet<Entry> lane : ready.values()) collectDue(lane, nowMs, n, due);
+                due.sort(READY_ORDER);
+                if (due.size() > n) due.subList(n, due.size()).clear();
+            }
+            List<Job> out = new ArrayList<>(due.size());
+            for (Entry e : due) {
+                unindex(e);
+                Job job = jobOf(e);
+                job.state = "processing";
+                job.attempts++;
+                job.updatedAt = now;
+                job.owner = owner;
+                job.leaseExpiresAt = Instant.ofEpochMilli(until).toString();
+                store(e, job, true, until);
+                out.add(job); // a fresh instance: callers may mutate it freely
+            }
+            if (!out.isEmpty()) commit();
+            return out;
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The limiter for the current resource-limits; under the daemon, `config set` changes it while workers run.
+    private ResourceLimiter limiter() {
+        String spec = cfg.getResourceLimits();
+        if (!spec.equals(limiter.spec())) limiter = new ResourceLimiter(spec);
+        return limiter;
+    }
+
+    // First n due entries in claim order whose resource_key has a token and room; the rest are stepped
+    // over. With no queue given the lanes are merged lazily, so a key's allowance goes to its best jobs
+    // whichever queue they are in.
+    private void collectLimited(String queue, long nowMs, int n, List<Entry> out) throws SQLException {
+        ResourceLimiter.Claim claim = limiter.begin(nowMs, new ResourceLimiter.State() {
+            @Override
+            public ResourceLimiter.Bucket bucket(String key) {
+                return buckets.get(key);
+            }
+
+            @Override
+            public int inFlight(String key) {
+                return inFlight.getOrDefault(key, 0);
+            }
+        });
+        PriorityQueue<Map.Entry<Entry, Iterator<Entry>>> heads = new PriorityQueue<>(Map.Entry.comparingByKey(READY_ORDER));
+        for (Map.Entry<String, TreeSet<Entry>> lane : ready.entrySet()) {
+            if (queue != null && !queue.equals(lane.getKey())) continue;
+            Iterator<Entry> it = lane.getValue().iterator();
+            if (it.hasNext()) heads.add(Map.entry(it.next(), it));
+        }
+        while (out.size() < n && !heads.isEmpty()) {
+            Map.Entry<Entry, Iterator<Entry>> head = heads.poll();
+            Entry e = head.getKey();
+            if (e.availableAt <= nowMs && claim.admit(e.resourceKey)) out.add(e);
+            if (head.getValue().hasNext()) heads.add(Map.entry(head.getValue().next(), head.getValue()));
+        }
+        buckets.putAll(claim.spent());
+    }
+
+    // First n due entries of a lane in claim order; entries that aren't due yet are stepped over.
+    private static void collectDue(TreeSet<Entry> lane, long nowMs, int n, List<Entry> out) {
+        int taken = 0;
+        for (Entry e : lane) {
+            if (taken == n) break;
+            if (e.availableAt > nowMs) continue;
+            out.add(e);
+            taken++;
+        }
+    }
+
+    @Override
+    public void completeJobs(List<String> ids) throws SQLException {
+        List<Job> jobs = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Job j = new Job();
+            j.id = id;
+            jobs.add(j);
+        }
+        applyTransitions(jobs, List.of(), cfg);
+    }
+
+    @Override
+    public void failJobs(List<Job> jobs, Config cfg) throws SQLException {
+        applyTransitions(List.of(), jobs, cfg);
+    }
+
+    // Records are appended one after another; a crash part-way through a batch keeps a prefix of it,
+    // and every transition on its own is valid, so a partial batch is never an inconsistent state.
+    @Override
+    public void applyTransitions(List<Job> completed, List<Job> failed, Config cfg) throws SQLException {
+        if (completed.isEmpty() && failed.isEmpty()) return;
+        lock.lock();
+        try {
+            checkWritable();
+            Instant now = Instant.now();
+            boolean released = false;
+            for (Job job : completed) {
+                Entry e = heldEntry(job.id);
+                if (e == null) {
+                    job.state = LEASE_LOST;
+                    continue;
+                }
+                unindex(e);
+                Job stored = jobOf(e);
+                stored.state = "completed";
+                stored.updatedAt = now.toString();
+                if (job.outputTail != null) stored.outputTail = job.outputTail;
+                stored.leaseExpiresAt = null;
+                store(e, stored, false, Long.MAX_VALUE);
+                job.state = "completed";
+                released |= releaseDependents(job.id, stored.updatedAt);
+            }
+            boolean retrying = false;
+            for (Job job : failed) {
+                Entry e = heldEntry(job.id);
+                if (e == null) {
+                    job.state = LEASE_LOST;
+                    continue;
+                }
+                unindex(e);
+                Job stored = jobOf(e);
+                stored.updatedAt = now.toString();
+                if (job.outputTail != null) stored.outputTail = job.outputTail;
+                stored.leaseExpiresAt = null;
+                if (job.cancelRequested || stored.cancelRequested) {
+                    stored.state = "cancelled";
+                } else if (stored.attempts > stored.maxRetries) {
+                    stored.state = "dead";
+                } else {
+                    stored.state = "pending";
+                    stored.owner = null;
+                    long delay = RetryPolicy.of(stored, cfg).delayMs(stored.attempts, stored.lastRetryDelayMs, cfg);
+                    stored.availableAt = now.plusMillis(delay).toString();
+                    stored.lastRetryDelayMs = delay;
+                    retrying = true;
+                }
+                store(e, stored, false, Long.MAX_VALUE);
+                job.state = stored.state;
+                job.availableAt = stored.availableAt;
+                if (!"pending".equals(stored.state)) failDependents(e, stored.updatedAt);
+            }
+            commit();
+            if (limiter.released()) released = true; // a key at its cap has room again
+            if (released) signal.signal();
+            if (retrying) {
+                for (Job job : failed) {
+                    if ("pending".equals(job.state)) signal.scheduleAt(job.availableAtMillis());
+                }
+            }
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The entry for a job this process is still processing under its lease, or null.
+    private Entry heldEntry(String id) {
+        Entry e = byId.get(id);
+        return e != null && e.state == PROCESSING && e.mine ? e : null;
+    }
+
+    @Override
+    public void releaseJobs(List<String> ids) throws SQLException {
+        if (ids.isEmpty()) return;
+        lock.lock();
+        try {
+            checkWritable();
+            String now = Instant.now().toString();
+            for (String id : ids) {
+                Entry e = heldEntry(id);
+                if (e == null) continue;
+                unindex(e);
+                Job job = jobOf(e);
+                job.state = "pending";
+                job.attempts--;
+                job.updatedAt = now;
+                job.owner = null;
+                job.leaseExpiresAt = null;
+                store(e, job, false, Long.MAX_VALUE);
+            }
+            commit();
+            signal.signal();
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int heartbeat() throws SQLException {
+        lock.lock();
+        try {
+            if (fileLock == null || closed) return 0;
+            long until = System.currentTimeMillis() + cfg.getLeaseMs();
+            List<Entry> mine = new ArrayList<>();
+            for (Entry e : leased) {
+                if (e.mine) mine.add(e);
+            }
+            for (Entry e : mine) {
+                unindex(e);
+                Job job = jobOf(e);
+                job.leaseExpiresAt = Instant.ofEpochMilli(until).toString();
+                store(e, job, true, until);
+            }
+            if (!mine.isEmpty()) commit();
+            return mine.size();
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int reapExpiredLeases() throws SQLException {
+        lock.lock();
+        try {
+            if (fileLock == null || closed) return 0;
+            long now = System.currentTimeMillis();
+            List<Entry> expired = new ArrayList<>();
+            for (Entry e : leased) {
+                if (e.leaseExpiresAt >= now) break;
+                expired.add(e);
+            }
+            return requeueLeased(expired);
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Only the holder of the lock file writes to the store, and a process holding it never lets it go
+    // before it exits, so every lease this process didn't take was left by one that is gone.
+    @Override
+    public int recoverOrphans() throws SQLException {
+        lock.lock();
+        try {
+            if (fileLock == null || closed) return 0;
+            List<Entry> orphans = new ArrayList<>();
+            for (Entry e : leased) {
+                if (!e.mine) orphans.add(e);
+            }
+            return requeueLeased(orphans);
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Return leased jobs to pending, or to cancelled or the DLQ as their flags and attempts say, in one commit. Caller holds the lock.
+    private int requeueLeased(List<Entry> entries) throws IOException {
+        String now = Instant.now().toString();
+        for (Entry e : entries) {
+            unindex(e);
+            Job job = jobOf(e);
+            job.state = job.cancelRequested ? "cancelled" : job.attempts > job.maxRetries ? "dead" : "pending";
+            job.updatedAt = now;
+            job.owner = null;
+            job.leaseExpiresAt = null;
+            store(e, job, false, Long.MAX_VALUE);
+            if (!"pending".equals(job.state)) failDependents(e, job.updatedAt);
+        }
+        if (!entries.isEmpty()) {
+            commit();
+            signal.signal();
+        }
+        return entries.size();
+    }
+
+    @Override
+    public boolean requeue(String id) throws SQLException {
+        lock.lock();
+        try {
+            checkWritable();
+            Entry e = byId.get(id);
+            if (e == null || !"dead".equals(e.state())) return false;
+            unindex(e);
+            Job job = jobOf(e);
+            String now = Instant.now().toString();
+            // re-count the dependencies: a job that died with an upstream failure waits for it to be
+            // retried. Archived dependencies can't change any more and count as done.
+            job.depsPending = 0;
+            if (job.hasDependencies()) {
+                for (String parent : job.dependsOn) {
+                    Entry p = byId.get(parent);
+                    if (p != null && !"completed".equals(p.state())) job.depsPending++;
+                }
+            }
+            job.state = job.depsPending == 0 ? "pending" : "waiting";
+            job.attempts = 0;
+            job.cancelRequested = false;
+            job.lastRetryDelayMs = 0; // backoff starts again from the base delay
+            job.updatedAt = now;
+            job.availableAt = now;
+            job.owner = null;
+            store(e, job, false, Long.MAX_VALUE);
+            addEdges(e, job);
+            commit();
+            signal.signal();
+            return true;
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Jobs of a resource_key out of tokens or at its cap are left out; the bucket's next token counts
+    // instead, and an acknowledgement signals for a capped key. Jobs of other queues are stepped over.
+    @Override
+    public Long nextDueAt(Collection<String> queues) {
+        if (queues != null && queues.isEmpty()) return null;
+        lock.lock();
+        try {
+            long nowMs = System.currentTimeMillis();
+            Set<String> blocked = limiter().blocked(nowMs);
+            if (blocked.isEmpty() && queues == null) return pending.isEmpty() ? null : pending.first().availableAt;
+            Long next = limiter.nextToken(nowMs);
+            for (Entry e : pending) {
+                if (queues != null && !queues.contains(e.queue)) continue;
+                if (e.resourceKey != null && blocked.contains(e.resourceKey)) continue;
+                if (next == null || e.availableAt < next) next = e.availableAt;
+                break;
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Pages in enqueue order. A cursor whose job is still here is a seek; one whose job has gone (archived
+    // since the last page) falls back to skipping everything up to its (created_at, id).
+    @Override
+    public List<Job> listPage(String state, String since, Cursor after, int limit) throws SQLException {
+        lock.lock();
+        try {
+            Collection<Entry> from = bySeq.values();
+            boolean skip = false;
+            if (after != null) {
+                Entry last = byId.get(after.id());
+                if (last != null) from = bySeq.tailMap(last.seq, false).values();
+                else skip = true;
+            }
+            List<Job> out = new ArrayList<>(Math.min(limit, 1024));
+            for (Entry e : from) {
+                if (out.size() == limit) break;
+                if (state != null && !state.equals(e.state())) continue;
+                Job j = jobOf(e);
+                if (since != null && (j.createdAt == null || j.createdAt.compareTo(since) < 0)) continue;
+                if (skip && !after.isBefore(j)) continue;
+                out.add(j);
+            }
+            return out;
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Job getJob(String id) throws SQLException {
+        lock.lock();
+        try {
+            Entry e = byId.get(id);
+            return e == null ? null : jobOf(e);
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<QueueDepth> queueDepths() throws SQLException {
+        lock.lock();
+        try {
+            Map<String, int[]> processing = new TreeMap<>();
+            for (Entry e : leased) processing.computeIfAbsent(e.queue, q -> new int[1])[0]++;
+            Map<String, QueueDepth> out = new TreeMap<>();
+            for (Map.Entry<String, TreeSet<Entry>> lane : ready.entrySet()) {
+                if (lane.getValue().isEmpty()) continue;
+                Entry oldest = null; // lowest seq is the earliest created
+                for (Entry e : lane.getValue()) {
+                    if (oldest == null || e.seq < oldest.seq) oldest = e;
+                }
+                int[] p = processing.getOrDefault(lane.getKey(), new int[1]);
+                out.put(lane.getKey(), new QueueDepth(lane.getKey(), lane.getValue().size(), p[0], jobOf(oldest).createdAt));
+            }
+            for (Map.Entry<String, int[]> p : processing.entrySet()) {
+                out.putIfAbsent(p.getKey(), new QueueDepth(p.getKey(), 0, p.getValue()[0], null));
+            }
+            return new ArrayList<>(out.values());
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String cancel(String id) throws SQLException {
+        lock.lock();
+        try {
+            Entry e = byId.get(id);
+            if (e == null) return null;
+            if (e.state != PENDING && e.state != WAITING && e.state != PROCESSING) return e.state();
+            checkWritable();
+            unindex(e);
+            Job job = jobOf(e);
+            job.updatedAt = Instant.now().toString();
+            if (e.state == PROCESSING) job.cancelRequested = true;
+            else job.state = "cancelled";
+            store(e, job, e.mine, e.leaseExpiresAt);
+            if (e.state != PROCESSING) failDependents(e, job.updatedAt);
+            commit();
+            return job.state;
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> cancelRequested() {
+        lock.lock();
+        try {
+            List<String> out = new ArrayList<>();
+            for (Entry e : leased) {
+                if (e.mine && e.cancelRequested) out.add(e.id);
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The jobs are appended to archive.ndjson.gz and forced before their DELETE records are written. A
+     * crash in between archives them again on the next call; readers keep the last copy of each id.
+     */
+    @Override
+    public int archive(long cutoffMillis, int n) throws SQLException {
+        lock.lock();
+        try {
+            checkWritable();
+            for (Entry e : new ArrayList<>(unsorted)) {
+                unsorted.remove(e);
+                e.finishedAt = Instant.parse(jobOf(e).updatedAt).toEpochMilli();
+                finished.add(e);
+            }
+            List<Entry> due = new ArrayList<>(Math.min(n, finished.size()));
+            for (Entry e : finished) {
+                if (e.finishedAt >= cutoffMillis || due.size() == n) break;
+                due.add(e);
+            }
+            if (due.isEmpty()) return 0;
+            Path file = dir.resolve("archive.ndjson.gz");
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                GZIPOutputStream gz = new GZIPOutputStream(Channels.newOutputStream(ch), 64 * 1024);
+                for (Entry e : due) {
+                    gz.write(e.json);
+                    gz.write('\n');
+                }
+                gz.finish();
+                gz.flush();
+                ch.force(true);
+            }
+            String now = Instant.now().toString();
+            for (Entry e : due) {
+                // dependents requeued after it failed would otherwise wait on it forever
+                if (!"completed".equals(e.state())) failDependents(e, now);
+                unindex(e);
+                byId.remove(e.id);
+                bySeq.remove(e.seq);
+                putDelete(e.id);
+            }
+            commit();
+            return due.size();
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The archive file has no index, so every page reads it whole; it is only for occasional lookups.
+    @Override
+    public List<Job> listArchived(String state, String since, Cursor after, int limit) throws SQLException {
+        List<Job> matching = new ArrayList<>();
+        for (Job j : readArchive().values()) {
+            if (state != null && !state.equals(j.state)) continue;
+            if (since != null && (j.createdAt == null || j.createdAt.compareTo(since) < 0)) continue;
+            if (after != null && !after.isBefore(j)) continue;
+            matching.add(j);
+        }
+        matching.sort(Comparator.comparing((Job j) -> j.createdAt == null ? "" : j.createdAt).thenComparing(j -> j.id));
+        return new ArrayList<>(matching.subList(0, Math.min(limit, matching.size())));
+    }
+
+    @Override
+    public Job getArchivedJob(String id) throws SQLException {
+        return readArchive().get(id);
+    }
+
+    // Drops expired keys from the front of the map. Nothing is logged: replay and the snapshot skip them too.
+    @Override
+    public int expireDedupeKeys(long nowMillis) throws SQLException {
+        lock.lock();
+        try {
+            int expired = 0;
+            for (var it = dedupeKeys.values().iterator(); it.hasNext() && it.next().expiresAt() <= nowMillis; expired++) it.remove();
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Every archived job by id, last copy wins. Read without the store lock: the file is only appended
+    // to, and a member still being written (or torn by a crash) just ends the read early.
+    private Map<String, Job> readArchive() throws SQLException {
+        Map<String, Job> out = new LinkedHashMap<>();
+        Path file = dir.resolve("archive.ndjson.gz");
+        if (!Files.exists(file)) return out;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), 64 * 1024), StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                Job j = Json.MAPPER.readValue(line, Job.class);
+                out.put(j.id, j);
+            }
+        } catch (EOFException | ZipException torn) {
+            // the tail is incomplete; those jobs are still in the log and will be archived again
+        } catch (IOException ex) {
+            throw new SQLException("cannot read " + file + ": " + ex.getMessage(), ex);
+        }
+        return out;
+    }
+
+    // Archived jobs leave the disk with the segments holding them, at the next snapshot; full takes one
+    // now and waits for it, so the space is back when `archive --vacuum` returns.
+    @Override
+    public void compact(boolean full) throws SQLException {
+        if (!full) return;
+        Thread writer;
+        lock.lock();
+        try {
+            checkWritable();
+            writer = maybeSnapshot(true);
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Settings live beside the log in config.properties, replaced atomically on every change. They are
+    // read at open and by the workers' reload, never on a hot path, so they stay out of the log.
+    @Override
+    public Map<String, String> loadConfig() throws SQLException {
+        return readConfig();
+    }
+
+    private Map<String, String> readConfig() throws SQLException {
+        Path file = dir.resolve("config.properties");
+        Properties props = new Properties();
+        if (Files.exists(file)) {
+            try (var in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                props.load(in);
+            } catch (IOException ex) {
+                throw new SQLException("cannot read " + file + ": " + ex.getMessage(), ex);
+            }
+        }
+        Map<String, String> out = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) out.put(key, props.getProperty(key));
+        return out;
+    }
+
+    @Override
+    public void saveConfig(String key, String value) throws SQLException {
+        lock.lock();
+        try {
+            checkWritable();
+            Properties props = new Properties();
+            props.putAll(loadConfig());
+            props.setProperty(key, value);
+            Path tmp = dir.resolve("config.properties.tmp");
+            try (var out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                props.store(out, null);
+            }
+            Files.move(tmp, dir.resolve("config.properties"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int countByState(String state) {
+        int i = STATES.indexOf(state);
+        if (i < 0) return 0;
+        lock.lock();
+        try {
+            return counts[i];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> countsByState() {
+        lock.lock();
+        try {
+            Map<String, Integer> out = new TreeMap<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) out.put(STATES.get(i), counts[i]);
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public JobSignal signal() {
+        return signal;
+    }
+
+    @Override
+    public String owner() {
+        return owner;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            if (fileLock != null) {
+                if (!"OFF".equals(cfg.getSynchronous())) forceSegment();
+                segmentChannel.truncate(segment.position());
+                segmentChannel.close();
+                if (segment.position() == 0) Files.deleteIfExists(segmentPath(segmentNo)); // nothing was written
+                fileLock.release();
+            }
+            lockChannel.close();
+        } catch (IOException ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            lock.unlock();
+        }
+        if (background != null) background.interrupt();
+    }
+}
@@ -0,0 +1,103 @@
+package com.queuectl;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics. Hot paths only touch LongAdders and lock-free histograms; everything is
+ * rendered on demand in Prometheus text format by {@link #prometheus}.
+ */
+public final class Metrics {
+    private Metrics() {}
+
+    // time from a job becoming due to it being claimed
+    public static final Histogram QUEUE_WAIT = new Histogram();
+    // one reserveBatch call
+    public static final Histogram CLAIM = new Histogram();
+    // one job's process, from start to exit
+    public static final Histogram EXECUTION = new Histogram();
+    // one group commit (applyTransitions)
+    public static final Histogram COMMIT = new Histogram();
+
+    public static final LongAdder COMPLETED = new LongAdder();
+    public static final LongAdder RETRIED = new LongAdder();
+    public static final LongAdder DEAD = new LongAdder();
+    public static final LongAdder LEASE_LOST = new LongAdder();
+    public static final LongAdder CANCELLED = new LongAdder();
+    public static final LongAdder TIMED_OUT = new LongAdder(); // also counted as retried or dead
+    public static final LongAdder ARCHIVED = new LongAdder(); // moved to the archive by retention
+
+    // where worker time goes
+    public enum Phase { IDLE, CLAIMING, RUNNING, ACKNOWLEDGING }
+
+    private static final LongAdder[] PHASE_NANOS = new LongAdder[Phase.values().length];
+    static {
+        for (int i = 0; i < PHASE_NANOS.length; i++) PHASE_NANOS[i] = new LongAdder();
+    }
+
+    public static void addPhase(Phase phase, long nanos) {
+        PHASE_NANOS[phase.ordinal()].add(nanos);
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // Prometheus text exposition (version 0.0.4). Durations are in seconds, as Prometheus expects.
+    public static String prometheus(Map<String, Integer> jobsByState, int workers) {
+        StringBuilder b = new StringBuilder(4096);
+        summary(b, "queuectl_queue_wait_seconds", "Time from a job becoming due to being claimed.", QUEUE_WAIT);
+        summary(b, "queuectl_claim_seconds", "Duration of one claim (reserveBatch) call.", CLAIM);
+        summary(b, "queuectl_execution_seconds", "Duration of one job's process.", EXECUTION);
+        summary(b, "queuectl_commit_seconds", "Duration of one group commit of acknowledgements.", COMMIT);
+
+        b.append("# HELP queuectl_jobs_finished_total Acknowledged job outcomes in this process.\n");
+        b.append("# TYPE queuectl_jobs_finished_total counter\n");
+        counter(b, "completed", COMPLETED);
+        counter(b, "retried", RETRIED);
+        counter(b, "dead", DEAD);
+        counter(b, "lease_lost", LEASE_LOST);
+        counter(b, "cancelled", CANCELLED);
+        b.append("# HELP queuectl_jobs_timed_out_total Job processes killed for exceeding their timeout.\n");
+        b.append("# TYPE queuectl_jobs_timed_out_total counter\n");
+        b.append("queuectl_jobs_timed_out_total ").append(TIMED_OUT.sum()).append('\n');
+        b.append("# HELP queuectl_jobs_archived_total Finished jobs moved out of the live store by retention.\n");
+        b.append("# TYPE queuectl_jobs_archived_total counter\n");
+        b.append("queuectl_jobs_archived_total ").append(ARCHIVED.sum()).append('\n');
+
+        b.append("# HELP queuectl_worker_seconds_total Worker time by phase.\n");
+        b.append("# TYPE queuectl_worker_seconds_total counter\n");
+        for (Phase p : Phase.values()) {
+            b.append("queuectl_worker_seconds_total{phase=\"").append(p.name().toLowerCase(Locale.ROOT)).append("\"} ")
+             .append(seconds(PHASE_NANOS[p.ordinal()].sum())).append('\n');
+        }
+
+        b.append("# HELP queuectl_jobs Jobs in the store by state.\n");
+        b.append("# TYPE queuectl_jobs gauge\n");
+        for (Map.Entry<String, Integer> e : jobsByState.entrySet()) {
+            b.append("queuectl_jobs{state=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+        }
+        b.append("# HELP queuectl_workers Running worker threads in this process.\n");
+        b.append("# TYPE queuectl_workers gauge\n");
+        b.append("queuectl_workers ").append(workers).append('\n');
+        return b.toString();
+    }
+
+    private static void summary(StringBuilder b, String name, String help, Histogram h) {
+        b.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        b.append("# TYPE ").append(name).append(" summary\n");
+        long[] values = h.quantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            b.append(name).append("{quantile=\"").append(QUANTILES[i]).append("\"} ").append(seconds(values[i])).append('\n');
+        }
+        b.append(name).append("_sum ").append(seconds(h.sum())).append('\n');
+        b.append(name).append("_count ").append(h.count()).append('\n');
+    }
+
+    private static void counter(StringBuilder b, String outcome, LongAdder a) {
+        b.append("queuectl_jobs_finished_total{outcome=\"").append(outcome).append("\"} ").append(a.sum()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
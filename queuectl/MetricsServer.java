@@ -0,0 +1,53 @@
+package com.queuectl;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Serves {@link Metrics} at http://127.0.0.1:&lt;metrics-port&gt;/metrics in Prometheus text format.
+ * Loopback only: it is meant for a local Prometheus agent and `queuectl stats`.
+ */
+public class MetricsServer {
+    private final HttpServer server;
+
+    private MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    public static MetricsServer start(int port, JobStore store, IntSupplier workers) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body;
+            int status = 200;
+            try {
+                Map<String, Integer> states = store.countsByState();
+                body = Metrics.prometheus(states, workers.getAsInt()).getBytes(StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                status = 500;
+                body = ("metrics unavailable: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start(); // one dispatcher thread; scrapes are rare and cheap
+        return new MetricsServer(server);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,176 @@
+package com.queuectl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Drains a job's combined stdout/stderr on its own (virtual) thread into the job's log file.
+ * The pipe is always read to EOF so the child can never block on a full pipe; once the log reaches
+ * logMaxBytes further output is discarded. The last outputTailBytes are kept in memory for the DB.
+ * An in-process handler writes through {@link #direct} instead: the same log, cap and tail, written on
+ * the handler's own thread with no pipe or pump.
+ */
+public class OutputCapture implements Runnable {
+    private final InputStream in;
+    private final Path logFile;
+    private final long maxBytes;
+    private final byte[] tail;
+    private long total; // bytes seen, including discarded ones
+    private long written;
+    private FileChannel dst;
+    private boolean truncated;
+    private boolean opened; // direct: the log is opened on the first write
+    private boolean finished; // direct: writes after finish() are dropped
+    private volatile boolean abandoned;
+    private Thread thread; // null for direct
+
+    private OutputCapture(InputStream in, Path logFile, long maxBytes, int tailBytes) {
+        this.in = in;
+        this.logFile = logFile;
+        this.maxBytes = maxBytes;
+        this.tail = new byte[tailBytes];
+    }
+
+    public static OutputCapture start(Process p, Path logFile, Config cfg) {
+        OutputCapture c = new OutputCapture(p.getInputStream(), logFile, cfg.getLogMaxBytes(), cfg.getOutputTailBytes());
+        c.thread = Thread.ofVirtual().name("output-" + logFile.getFileName()).start(c);
+        return c;
+    }
+
+    // Output written to stream() goes to the job's log and tail as it is written. A handler that prints
+    // nothing never creates the log file.
+    public static OutputCapture direct(Path logFile, Config cfg) {
+        return new OutputCapture(null, logFile, cfg.getLogMaxBytes(), cfg.getOutputTailBytes());
+    }
+
+    public OutputStream stream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                synchronized (OutputCapture.this) {
+                    if (finished) return; // a handler that handed the stream to a thread of its own
+                    // a FileChannel closes itself under an interrupted thread, and a handler still printing
+                    // after its timeout is one; keep the interrupt pending across the write instead
+                    boolean interrupted = Thread.interrupted();
+                    try {
+                        if (!opened) {
+                            opened = true;
+                            dst = openLog();
+                            truncated = dst == null || written >= maxBytes;
+                        }
+                        accept(ByteBuffer.wrap(b, off, len));
+                    } finally {
+                        if (interrupted) Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    // Log file for a job id; ids are sanitised so they can't escape the log directory.
+    public static Path logPath(Config cfg, String jobId) {
+        return Path.of(cfg.getLogDir(), jobId.replaceAll("[^A-Za-z0-9._-]", "_") + ".log");
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        dst = openLog();
+        truncated = dst == null || written >= maxBytes;
+        try (ReadableByteChannel src = Channels.newChannel(in)) {
+            while (src.read(buf) != -1) {
+                buf.flip();
+                accept(buf);
+                buf.clear();
+            }
+        } catch (IOException e) {
+            if (!abandoned) System.err.println("reading output for " + logFile + " failed: " + e.getMessage());
+        } finally {
+            if (dst != null) try { dst.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // One chunk of output: into the tail, and into the log up to the cap.
+    private void accept(ByteBuffer buf) {
+        remember(buf);
+        if (truncated) return;
+        try {
+            int n = (int) Math.min(buf.remaining(), maxBytes - written);
+            ByteBuffer slice = buf.slice(buf.position(), n);
+            while (slice.hasRemaining()) written += dst.write(slice);
+            if (written >= maxBytes) {
+                truncated = true;
+                dst.write(ByteBuffer.wrap(("\n[queuectl: log truncated at " + maxBytes + " bytes]\n").getBytes(StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            // keep draining even if the log can't be written, or the child blocks on a full pipe
+            System.err.println("writing " + logFile + " failed: " + e.getMessage());
+            truncated = true;
+        }
+    }
+
+    private FileChannel openLog() {
+        try {
+            Files.createDirectories(logFile.toAbsolutePath().getParent());
+            FileChannel ch = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            written = ch.size(); // retries append to the same log; the cap covers all attempts
+            return ch;
+        } catch (IOException e) {
+            System.err.println("cannot open " + logFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Only the last tail.length bytes of a chunk can end up in the tail, so skip the rest.
+    private void remember(ByteBuffer buf) {
+        int from = Math.max(buf.position(), buf.limit() - tail.length);
+        total += from - buf.position();
+        for (int i = from; i < buf.limit(); i++) {
+            tail[(int) (total++ % tail.length)] = buf.get(i);
+        }
+    }
+
+    /**
+     * Wait for the pump after the process has exited. A background grandchild may keep the pipe open,
+     * so after graceMs the stream is closed and the (virtual) pump thread is left to die with the pipe
+     * rather than holding the worker hostage. For direct output, close the log; later writes are dropped.
+     */
+    public void finish(long graceMs) throws InterruptedException {
+        if (thread == null) {
+            synchronized (this) {
+                finished = true;
+                if (dst != null) try { dst.close(); } catch (IOException ignored) {}
+            }
+            return;
+        }
+        if (!thread.join(Duration.ofMillis(graceMs))) {
+            abandoned = true;
+            try { in.close(); } catch (IOException ignored) {}
+            thread.join(Duration.ofMillis(graceMs));
+        }
+    }
+
+    // Last outputTailBytes of output, decoded as UTF-8 (a split multi-byte char at the start is replaced).
+    public synchronized String tail() {
+        int n = (int) Math.min(total, tail.length);
+        byte[] out = new byte[n];
+        long start = total - n;
+        for (int i = 0; i < n; i++) out[i] = tail[(int) ((start + i) % tail.length)];
+        return new String(out, StandardCharsets.UTF_8);
+    }
+}
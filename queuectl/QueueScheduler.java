@@ -0,0 +1,135 @@
+package com.queuectl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Weighted fair choice between named queues for the workers of one process, from a spec such as
+ * {@code critical:10,default:3,bulk:1:4} (name:weight[:cap]).
+ *
+ * Each claim attempt asks for {@link #order()}: the lane picked by smooth weighted round-robin comes
+ * first, so over time lanes are tried in proportion to their weight without bursts, followed by the
+ * rest as fallbacks so a worker never idles while any lane has work. A lane's cap bounds how many of
+ * its jobs this process holds (claimed and not yet finished) at once.
+ */
+public class QueueScheduler {
+    public static final class Lane {
+        public final String name;
+        public final int weight;
+        public final int cap; // 0 = no cap
+        private int current; // smooth weighted round-robin credit
+        private int inFlight;
+
+        Lane(String name, int weight, int cap) {
+            this.name = name;
+            this.weight = weight;
+            this.cap = cap;
+        }
+    }
+
+    private final List<Lane> lanes;
+    private final int totalWeight;
+    private final JobSignal signal;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public QueueScheduler(List<Lane> lanes, JobSignal signal) {
+        if (lanes.isEmpty()) throw new IllegalArgumentException("at least one queue is required");
+        this.lanes = lanes;
+        this.totalWeight = lanes.stream().mapToInt(l -> l.weight).sum();
+        this.signal = signal;
+    }
+
+    public static QueueScheduler parse(String spec, JobSignal signal) {
+        List<Lane> lanes = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] f = part.trim().split(":");
+            if (f[0].isEmpty() || f.length > 3) throw new IllegalArgumentException("bad queue spec '" + part + "', expected name:weight[:cap]");
+            int weight = f.length > 1 ? Integer.parseInt(f[1]) : 1;
+            int cap = f.length > 2 ? Integer.parseInt(f[2]) : 0;
+            if (weight < 1 || cap < 0) throw new IllegalArgumentException("queue " + f[0] + ": weight must be >= 1 and cap >= 0");
+            lanes.add(new Lane(f[0], weight, cap));
+        }
+        return new QueueScheduler(lanes, signal);
+    }
+
+    public List<Lane> lanes() {
+        return lanes;
+    }
+
+    // Lanes to try for the next claim, the weighted round-robin pick first.
+    public List<Lane> order() {
+        lock.lock();
+        try {
+            Lane best = null;
+            for (Lane l : lanes) {
+                l.current += l.weight;
+                if (best == null || l.current > best.current) best = l;
+            }
+            best.current -= totalWeight;
+            Lane first = best;
+            List<Lane> out = new ArrayList<>(lanes.size());
+            out.add(first);
+            lanes.stream().filter(l -> l != first).sorted(Comparator.comparingInt((Lane l) -> -l.weight)).forEach(out::add);
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lanes below their cap, the only ones a claim can take from; finished() signals when a full one frees up.
+    public List<String> open() {
+        lock.lock();
+        try {
+            List<String> out = new ArrayList<>(lanes.size());
+            for (Lane l : lanes) {
+                if (l.cap == 0 || l.inFlight < l.cap) out.add(l.name);
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Reserve room for up to want jobs of a lane; returns how many may be claimed (0 if at its cap).
+    public int acquire(Lane lane, int want) {
+        lock.lock();
+        try {
+            int granted = lane.cap == 0 ? want : Math.min(want, lane.cap - lane.inFlight);
+            if (granted <= 0) return 0;
+            lane.inFlight += granted;
+            return granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Give back room reserved by acquire() but not used because fewer jobs were due.
+    public void release(Lane lane, int n) {
+        if (n <= 0) return;
+        lock.lock();
+        try {
+            lane.inFlight -= n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A job of this queue finished (or was handed back) and no longer counts against its cap.
+    public void finished(String queue) {
+        boolean wasFull = false;
+        lock.lock();
+        try {
+            for (Lane l : lanes) {
+                if (!l.name.equals(queue) || l.inFlight == 0) continue;
+                wasFull = l.cap > 0 && l.inFlight >= l.cap;
+                l.inFlight--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // a worker may be idle only because this lane was at its cap
+        if (wasFull) signal.signal();
+    }
+}
@@ -0,0 +1,182 @@
+package com.queuectl;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Limits on jobs that share a resource_key, applied when jobs are claimed. Parsed from resource-limits,
+ * e.g. {@code payments:10:4,smtp:0:2,search:0.5:0:3} (name:rate[:max[:burst]]). rate is jobs per second
+ * drawn from a token bucket holding up to burst tokens (default: one second's worth, at least 1); max
+ * caps how many of the key's jobs may be processing at once. 0 means no limit. Jobs without a key, or
+ * whose key isn't listed, are never held back.
+ *
+ * A job whose key has no token or no room is skipped, not claimed, and the claim moves on to the next
+ * job. The stores keep the shared state (SQLite: a bucket row per key plus the processing jobs
+ * themselves, read and written in the claim's transaction, so processes sharing the file draw from
+ * the same bucket). This class does the arithmetic and remembers, per process, when a drained bucket
+ * can next have a token and which keys were at their cap, so claims skip those keys without reading
+ * anything and idle workers don't wake for jobs they can't take. It is guarded by the store's lock.
+ */
+public class ResourceLimiter {
+    public record Limit(String key, double rate, int max, double burst) {}
+
+    // A key's bucket as last written: tokens left at refilledAt (epoch millis).
+    public record Bucket(double tokens, long refilledAt) {}
+
+    // Where a claim reads a key's shared state the first time it meets the key.
+    public interface State {
+        // null if the key has no bucket yet (a full one)
+        Bucket bucket(String key) throws SQLException;
+
+        int inFlight(String key) throws SQLException;
+    }
+
+    private final String spec;
+    private final Map<String, Limit> limits;
+    private final Map<String, Long> noTokenBefore = new HashMap<>(); // drained buckets: epoch millis of the next token
+    private final Set<String> atCap = new HashSet<>(); // keys last seen with max jobs processing
+
+    public ResourceLimiter(String spec) {
+        this.spec = spec;
+        this.limits = parse(spec);
+    }
+
+    // Throws IllegalArgumentException on a malformed spec; an empty spec means no limits.
+    public static Map<String, Limit> parse(String spec) {
+        Map<String, Limit> out = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) return out;
+        for (String part : spec.split(",")) {
+            String[] f = part.trim().split(":");
+            if (f[0].isEmpty() || f.length < 2 || f.length > 4) {
+                throw new IllegalArgumentException("bad resource limit '" + part + "', expected name:rate[:max[:burst]]");
+            }
+            double rate, burst;
+            int max;
+            try {
+                rate = Double.parseDouble(f[1]);
+                max = f.length > 2 ? Integer.parseInt(f[2]) : 0;
+                burst = f.length > 3 ? Double.parseDouble(f[3]) : Math.max(1, rate);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad resource limit '" + part + "': " + e.getMessage());
+            }
+            if (!(rate >= 0) || max < 0 || !(burst >= 1)) {
+                throw new IllegalArgumentException("resource " + f[0] + ": rate and max must be >= 0 and burst >= 1");
+            }
+            if (rate == 0 && max == 0) throw new IllegalArgumentException("resource " + f[0] + " limits nothing");
+            out.put(f[0], new Limit(f[0], rate, max, burst));
+        }
+        return out;
+    }
+
+    public String spec() {
+        return spec;
+    }
+
+    public boolean isEmpty() {
+        return limits.isEmpty();
+    }
+
+    public Limit limit(String key) {
+        return key == null ? null : limits.get(key);
+    }
+
+    // Tokens in a bucket at nowMs, refilled since it was written.
+    public static double refill(Limit l, Bucket b, long nowMs) {
+        if (b == null) return l.burst;
+        return Math.min(l.burst, b.tokens + Math.max(0, nowMs - b.refilledAt) * l.rate / 1000);
+    }
+
+    // Keys a claim can't take a job of before some later time or an acknowledgement; nextDueAt leaves their jobs out.
+    public Set<String> blocked(long nowMs) {
+        Set<String> out = new HashSet<>(atCap);
+        noTokenBefore.values().removeIf(t -> t <= nowMs);
+        out.addAll(noTokenBefore.keySet());
+        return out;
+    }
+
+    // Earliest time a drained bucket has a token again, or null.
+    public Long nextToken(long nowMs) {
+        Long next = null;
+        for (long t : noTokenBefore.values()) {
+            if (t > nowMs && (next == null || t < next)) next = t;
+        }
+        return next;
+    }
+
+    // A job left processing. True if some key was at its cap, so an idle worker may now have work.
+    public boolean released() {
+        if (atCap.isEmpty()) return false;
+        atCap.clear();
+        return true;
+    }
+
+    public Claim begin(long nowMs, State state) {
+        return new Claim(nowMs, state);
+    }
+
+    // One claim's view: each key's tokens and room are read once and then counted down locally.
+    public final class Claim {
+        private final long now;
+        private final State state;
+        private final Map<String, double[]> tokens = new HashMap<>(); // rate-limited keys met so far
+        private final Map<String, int[]> room = new HashMap<>(); // capped keys met so far
+        private final Set<String> spent = new LinkedHashSet<>();
+        private final Set<String> refused = new LinkedHashSet<>();
+
+        private Claim(long now, State state) {
+            this.now = now;
+            this.state = state;
+            // buckets known to be empty are refused up front, without reading them
+            for (Map.Entry<String, Long> e : noTokenBefore.entrySet()) {
+                if (e.getValue() > now) refused.add(e.getKey());
+            }
+        }
+
+        // Whether a job with this key may be claimed; if so it takes a token and a slot.
+        public boolean admit(String key) throws SQLException {
+            Limit l = limit(key);
+            if (l == null) return true;
+            if (refused.contains(key)) return false;
+            if (l.rate > 0 && !tokens.containsKey(key)) tokens.put(key, new double[] {refill(l, state.bucket(key), now)});
+            if (l.max > 0 && !room.containsKey(key)) room.put(key, new int[] {l.max - state.inFlight(key)});
+            double[] t = tokens.get(key);
+            int[] r = room.get(key);
+            if (t != null && t[0] < 1) {
+                refused.add(key);
+                noTokenBefore.put(key, now + (long) Math.ceil((1 - t[0]) * 1000 / l.rate));
+                return false;
+            }
+            if (r != null && r[0] <= 0) {
+                refused.add(key);
+                atCap.add(key);
+                return false;
+            }
+            if (t != null) {
+                t[0]--;
+                spent.add(key);
+            }
+            if (r != null) r[0]--;
+            atCap.remove(key);
+            noTokenBefore.remove(key);
+            return true;
+        }
+
+        // Keys this claim turned jobs away for: later candidate reads can leave them out.
+        public Collection<String> refused() {
+            return refused;
+        }
+
+        // Buckets this claim took tokens from, to be written back with the claim.
+        public Map<String, Bucket> spent() {
+            Map<String, Bucket> out = new LinkedHashMap<>();
+            for (String key : spent) out.put(key, new Bucket(tokens.get(key)[0], now));
+            return out;
+        }
+    }
+}
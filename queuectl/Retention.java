@@ -0,0 +1,64 @@
+package com.queuectl;
+
+import java.sql.SQLException;
+
+/**
+ * Background archival. Every PERIOD_MS, completed, dead and cancelled jobs last updated more than
+ * retention-seconds ago are moved to the store's archive in batches of archive-batch-size, each its
+ * own short write, and the space they leave is handed back with a compact step. The live jobs then
+ * grow with in-flight work rather than with history. retention-seconds = 0 turns it off. Each pass
+ * also drops dedupe keys older than dedupe-ttl-seconds, whatever the retention.
+ */
+public class Retention {
+    private static final long PERIOD_MS = 10_000;
+    private static final long BATCH_PAUSE_MS = 5; // between batches, so other processes' writers get the lock
+
+    private final JobStore store;
+    private final Config cfg;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public Retention(JobStore store, Config cfg) {
+        this.store = store;
+        this.cfg = cfg;
+        this.thread = new Thread(this::loop, "retention");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                Thread.sleep(PERIOD_MS);
+                store.expireDedupeKeys(System.currentTimeMillis());
+                long retention = cfg.getRetentionSeconds();
+                if (retention == 0) continue;
+                int moved = archiveOlderThan(store, System.currentTimeMillis() - retention * 1000, cfg.getArchiveBatchSize());
+                if (moved > 0) System.out.println("Archived " + moved + " finished job(s)");
+                store.compact(false);
+            } catch (InterruptedException e) {
+                return;
+            } catch (SQLException e) {
+                System.err.println("retention failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Archive every finished job last updated before cutoffMillis, batch by batch. Returns how many moved.
+    public static int archiveOlderThan(JobStore store, long cutoffMillis, int batchSize) throws SQLException, InterruptedException {
+        int total = 0;
+        for (int moved; (moved = store.archive(cutoffMillis, batchSize)) > 0; ) {
+            total += moved;
+            Metrics.ARCHIVED.add(moved);
+            if (moved < batchSize) break;
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+        return total;
+    }
+
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try { thread.join(); } catch (InterruptedException ignored) {}
+    }
+}
@@ -0,0 +1,110 @@
+package com.queuectl;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How long a failed job waits before its next attempt. Written as kind[:key=value,...]:
+ *
+ *   exponential[:base=2,cap=3600,jitter=0.5]   min(cap, base ^ attempts) seconds
+ *   decorrelated[:base=1,cap=3600]             min(cap, random(base, 3 * previous delay)) seconds
+ *   fixed:delay=30[,jitter=0.1]                delay seconds
+ *
+ * jitter is the fraction of the delay that is randomised downwards: 0.5 gives a delay anywhere in
+ * [d/2, d]. Without it, jobs that fail together retry together, so one outage turns into a spike of
+ * claims at every backoff step. exponential defaults its base to backoff-base and every cap to
+ * backoff-max-seconds; decorrelated is random by construction and takes no jitter.
+ */
+public final class RetryPolicy {
+    public enum Kind { EXPONENTIAL, DECORRELATED, FIXED }
+
+    private static final Map<String, RetryPolicy> PARSED = new ConcurrentHashMap<>();
+
+    public final Kind kind;
+    private final double base; // seconds; NaN means backoff-base (exponential) or 1 (decorrelated)
+    private final double cap; // seconds; NaN means backoff-max-seconds
+    private final double delay; // fixed only
+    private final double jitter;
+
+    private RetryPolicy(Kind kind, double base, double cap, double delay, double jitter) {
+        this.kind = kind;
+        this.base = base;
+        this.cap = cap;
+        this.delay = delay;
+        this.jitter = jitter;
+    }
+
+    // Parse a policy spec; throws IllegalArgumentException naming what is wrong.
+    public static RetryPolicy parse(String spec) {
+        RetryPolicy cached = PARSED.get(spec);
+        if (cached != null) return cached;
+        int colon = spec.indexOf(':');
+        String name = (colon < 0 ? spec : spec.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+        Kind kind = switch (name) {
+            case "exponential" -> Kind.EXPONENTIAL;
+            case "decorrelated" -> Kind.DECORRELATED;
+            case "fixed" -> Kind.FIXED;
+            default -> throw new IllegalArgumentException("unknown retry policy '" + name + "' (exponential, decorrelated or fixed)");
+        };
+        double base = Double.NaN, cap = Double.NaN, delay = Double.NaN;
+        double jitter = kind == Kind.FIXED ? 0.1 : 0.5;
+        if (colon >= 0) {
+            for (String param : spec.substring(colon + 1).split(",")) {
+                String[] kv = param.split("=", 2);
+                if (kv.length != 2) throw new IllegalArgumentException("retry policy parameter '" + param + "' is not key=value");
+                double v;
+                try {
+                    v = Double.parseDouble(kv[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("retry policy parameter '" + param + "' is not a number");
+                }
+                if (v < 0 || Double.isNaN(v) || Double.isInfinite(v)) throw new IllegalArgumentException("retry policy parameter '" + param + "' must be >= 0");
+                switch (kv[0].trim()) {
+                    case "base" -> base = v;
+                    case "cap" -> cap = v;
+                    case "delay" -> delay = v;
+                    case "jitter" -> {
+                        if (v > 1) throw new IllegalArgumentException("jitter must be between 0 and 1");
+                        jitter = v;
+                    }
+                    default -> throw new IllegalArgumentException("unknown retry policy parameter '" + kv[0].trim() + "'");
+                }
+            }
+        }
+        if (kind == Kind.FIXED && Double.isNaN(delay)) throw new IllegalArgumentException("fixed retry policy needs delay=<seconds>");
+        if (kind == Kind.DECORRELATED && Double.isNaN(base)) base = 1;
+        RetryPolicy p = new RetryPolicy(kind, base, cap, delay, jitter);
+        if (PARSED.size() < 1024) PARSED.put(spec, p); // specs come from jobs; don't let odd ones grow this without bound
+        return p;
+    }
+
+    // The job's own policy, or the configured retry-policy.
+    public static RetryPolicy of(Job job, Config cfg) {
+        return parse(job.retryPolicy != null ? job.retryPolicy : cfg.getRetryPolicy());
+    }
+
+    // Delay before the next attempt, given the attempts made so far and the previous retry delay (0 if none).
+    public long delayMs(int attempts, long previousDelayMs, Config cfg) {
+        double capSec = Double.isNaN(cap) ? cfg.getBackoffMaxSeconds() : cap;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        double sec = switch (kind) {
+            case EXPONENTIAL -> {
+                double b = Double.isNaN(base) ? cfg.getBackoffBase() : base;
+                yield jittered(Math.min(capSec, Math.pow(b, attempts)), rnd);
+            }
+            case DECORRELATED -> {
+                double prev = previousDelayMs > 0 ? previousDelayMs / 1000.0 : base;
+                double hi = Math.max(base, prev * 3);
+                yield Math.min(capSec, hi > base ? rnd.nextDouble(base, hi) : base);
+            }
+            case FIXED -> jittered(Math.min(capSec, delay), rnd);
+        };
+        return Math.round(sec * 1000);
+    }
+
+    private double jittered(double d, ThreadLocalRandom rnd) {
+        return jitter == 0 ? d : d * (1 - jitter * rnd.nextDouble());
+    }
+}
@@ -0,0 +1,71 @@
+package com.queuectl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a job's command with /bin/sh -c, capturing output to its log file and the tail into
+ * job.outputTail. A job that outlives its timeout, or is cancelled while it runs, has its whole process
+ * tree killed and counts as failed (cancelled jobs are then marked cancelled by the store). If the
+ * worker is interrupted by stop, the tree is killed too.
+ */
+public class ShellExecutor implements JobExecutor {
+    private final String worker;
+    private final JobProcesses processes;
+    private final Config cfg;
+
+    public ShellExecutor(String worker, JobProcesses processes, Config cfg) {
+        this.worker = worker;
+        this.processes = processes;
+        this.cfg = cfg;
+    }
+
+    @Override
+    public int execute(Job job) throws InterruptedException {
+        Process p;
+        OutputCapture output;
+        try {
+            // Execute using shell for composite commands
+            String[] cmd = {"/bin/sh", "-c", job.command};
+            ProcessBuilder pb = new ProcessBuilder(cmd).redirectErrorStream(true);
+            p = pb.start();
+            p.getOutputStream().close(); // jobs get no stdin
+            output = OutputCapture.start(p, OutputCapture.logPath(cfg, job.id), cfg);
+        } catch (Exception e) {
+            System.err.println("executeCommand error: " + e.getMessage());
+            return 1;
+        }
+        processes.register(job.id, p);
+        long timeout = job.timeoutSeconds > 0 ? job.timeoutSeconds : cfg.getJobTimeoutSeconds();
+        String killed = null;
+        try {
+            // onExit() parks rather than Object.wait()s, so a virtual thread unmounts while the process runs
+            if (timeout > 0) p.onExit().get(timeout, TimeUnit.SECONDS);
+            else p.onExit().get();
+        } catch (TimeoutException e) {
+            Metrics.TIMED_OUT.increment();
+            killed = "timed out after " + timeout + "s";
+            JobProcesses.killTree(p, cfg.getKillGraceMs());
+        } catch (InterruptedException e) {
+            JobProcesses.killTree(p, cfg.getKillGraceMs());
+            processes.unregister(job.id);
+            output.finish(1000);
+            throw e;
+        } catch (ExecutionException e) {
+            System.err.println("executeCommand error: " + e.getMessage());
+        }
+        if (processes.unregister(job.id)) {
+            job.cancelRequested = true;
+            killed = "cancelled";
+        }
+        output.finish(1000);
+        job.outputTail = output.tail();
+        if (killed != null) {
+            System.err.println("[" + worker + "] job " + job.id + " " + killed + "; process tree killed");
+            job.outputTail = (job.outputTail == null ? "" : job.outputTail) + "\n[queuectl] " + killed + "; process tree killed\n";
+            return 1;
+        }
+        return p.isAlive() ? 1 : p.exitValue();
+    }
+}
@@ -0,0 +1,1549 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.sqlite.SQLiteJDBCLoader;
+import org.sqlite.util.LibraryLoaderUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SqliteJobStore implements JobStore {
+    private static final int VACUUM_STEP_PAGES = 1024; // pages (4 MiB by default) given back per compact step
+    private static final int DEDUPE_EXPIRE_BATCH = 5000; // expired dedupe keys deleted per write
+    // kept in PRAGMA user_version. Bump it with any change to init(), so files already at the old version run init() once more.
+    private static final int SCHEMA_VERSION = 1;
+    private final Connection conn;
+    private final JobSignal signal = new JobSignal();
+    // a ReentrantLock rather than synchronized: virtual-thread workers waiting here unmount instead of pinning a carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private static final String OWNER = ownerId();
+    private final String owner = OWNER;
+    private final Config cfg;
+    private PreparedStatement insertIgnore, claimKey, anyWaiting, bucketRead, inFlightCount; // prepared on first use and kept for the connection's life
+    private ResourceLimiter limiter = new ResourceLimiter(""); // rebuilt when resource-limits changes
+    private final String archivePath;
+    private String archiveColumns; // set once the archive is attached
+
+    public SqliteJobStore(String dbPath) throws SQLException {
+        this(dbPath, new Config());
+    }
+
+    public SqliteJobStore(String dbPath, Config cfg) throws SQLException {
+        String url = "jdbc:sqlite:" + dbPath;
+        Properties props = new Properties();
+        // several worker processes may share the file: take the write lock at BEGIN so a transaction
+        // never has to upgrade a read lock (which fails with SQLITE_BUSY instead of waiting)
+        props.setProperty("transaction_mode", "IMMEDIATE");
+        useCachedNativeLibrary();
+        conn = DriverManager.getConnection(url, props);
+        this.cfg = cfg;
+        this.archivePath = archivePath(dbPath);
+        try (Statement s = conn.createStatement()) {
+            s.execute("PRAGMA busy_timeout=" + cfg.getBusyTimeoutMs());
+            // every command opens the store, so the DDL runs only for a file not yet at SCHEMA_VERSION
+            int version;
+            try (ResultSet r = s.executeQuery("PRAGMA user_version")) {
+                version = r.next() ? r.getInt(1) : 0;
+            }
+            if (version > SCHEMA_VERSION) {
+                conn.close();
+                throw new SQLException(dbPath + " has schema version " + version + "; this queuectl knows up to " + SCHEMA_VERSION);
+            }
+            if (version < SCHEMA_VERSION) {
+                // lets compact() give freed pages back a step at a time. Only takes effect on a new file, and
+                // before WAL is switched on; older files need one `archive --vacuum`.
+                if (columnType(s, "jobs", "id") == null) s.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                // idempotent: if the process dies before user_version is written, the next open runs it again
+                init();
+                // WAL: a commit appends to the log instead of rewriting pages, and readers don't block the
+                // writer. The mode is stored in the file, so later opens are in WAL without asking.
+                s.execute("PRAGMA journal_mode=WAL");
+                s.execute("PRAGMA user_version=" + SCHEMA_VERSION);
+            }
+            // settings saved with `config set` override the defaults, synchronous included
+            cfg.apply(readConfig());
+            s.execute("PRAGMA synchronous=" + cfg.getSynchronous());
+        }
+    }
+
+    // sqlite-jdbc copies its native library out of the jar to a new temp file in every process, which
+    // took longer than opening a 10M-job database. Keep one copy per driver version and platform in
+    // the user's cache directory and have the driver load that. Nothing changes if org.sqlite.lib.path
+    // is already set or the copy can't be made: the driver then extracts as before.
+    private static synchronized void useCachedNativeLibrary() {
+        if (System.getProperty("org.sqlite.lib.path") != null) return;
+        try {
+            String folder = LibraryLoaderUtil.getNativeLibResourcePath(), name = LibraryLoaderUtil.getNativeLibName();
+            URL resource = SQLiteJDBCLoader.class.getResource(folder + "/" + name);
+            if (resource == null) return;
+            String xdg = System.getenv("XDG_CACHE_HOME");
+            Path cache = xdg != null && !xdg.isEmpty() ? Path.of(xdg) : Path.of(System.getProperty("user.home"), ".cache");
+            Path dir = cache.resolve("queuectl").resolve("sqlite-jdbc-" + SQLiteJDBCLoader.getVersion() + folder.replace("/org/sqlite/native", ""));
+            Path lib = dir.resolve(name);
+            long size = resource.openConnection().getContentLengthLong();
+            if (!Files.isRegularFile(lib) || Files.size(lib) != size) {
+                // written beside it and renamed, so another process never loads a half-written copy
+                Files.createDirectories(dir);
+                Path tmp = Files.createTempFile(dir, name, ".tmp");
+                try (InputStream in = resource.openStream()) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tmp, lib, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            System.setProperty("org.sqlite.lib.path", dir.toString());
+        } catch (IOException | RuntimeException ignored) {
+            // e.g. a read-only home directory: the driver extracts its own copy
+        }
+    }
+
+    // Identifies this process in the owner column; leases are held and heartbeated per process. host:pid
+    // alone is not unique (containers sharing a hostname often run their worker as PID 1), and the owner
+    // guards on every acknowledgement trust it, so a random token is added: host:pid:pidns:token.
+    private static String ownerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        String ns = pidNamespace();
+        return host + ":" + ProcessHandle.current().pid() + ":" + (ns == null ? "?" : ns) + ":" + UUID.randomUUID();
+    }
+
+    // The PID namespace our PIDs are numbered in, so recoverOrphans() only looks up PIDs that mean the
+    // same process to us. Containers that share a hostname (hostNetwork pods, docker --hostname) each
+    // have their own. On Linux it is the boot id plus the namespace inode: the host's namespace has the
+    // same inode on every machine. Other systems have one PID space per host. null if it can't be read.
+    private static String pidNamespace() {
+        if (!System.getProperty("os.name").startsWith("Linux")) return "host";
+        try {
+            String boot = Files.readString(Path.of("/proc/sys/kernel/random/boot_id")).strip();
+            String ns = Files.readSymbolicLink(Path.of("/proc/self/ns/pid")).toString(); // pid:[4026531836]
+            return boot + "-" + ns.replaceAll("\\D", "");
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String owner() {
+        return owner;
+    }
+
+    // Archived jobs live in a file of their own beside the database, so archiving shrinks queue.db.
+    private static String archivePath(String dbPath) {
+        return dbPath.endsWith(".db") ? dbPath.substring(0, dbPath.length() - 3) + "-archive.db" : dbPath + "-archive";
+    }
+
+    private void init() throws SQLException {
+        try (Statement s = conn.createStatement()) {
+            s.execute("""
+                CREATE TABLE IF NOT EXISTS jobs (
+                  id TEXT PRIMARY KEY,
+                  command TEXT NOT NULL,
+                  state TEXT NOT NULL,
+                  attempts INTEGER NOT NULL,
+                  max_retries INTEGER NOT NULL,
+                  created_at TEXT,
+                  updated_at TEXT,
+                  available_at INTEGER
+                );
+            """);
+            migrateAvailableAtToMillis(s);
+            addColumnIfMissing(s, "jobs", "output_tail", "TEXT");
+            addColumnIfMissing(s, "jobs", "owner", "TEXT");
+            addColumnIfMissing(s, "jobs", "lease_expires_at", "INTEGER");
+            addColumnIfMissing(s, "jobs", "queue", "TEXT NOT NULL DEFAULT 'default'");
+            addColumnIfMissing(s, "jobs", "priority", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(s, "jobs", "retry_policy", "TEXT");
+            addColumnIfMissing(s, "jobs", "last_retry_delay_ms", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(s, "jobs", "timeout_seconds", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(s, "jobs", "cancel_requested", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(s, "jobs", "depends_on", "TEXT");
+            addColumnIfMissing(s, "jobs", "on_dependency_failure", "TEXT");
+            addColumnIfMissing(s, "jobs", "dedupe_key", "TEXT");
+            addColumnIfMissing(s, "jobs", "handler", "TEXT");
+            addColumnIfMissing(s, "jobs", "payload", "TEXT");
+            addColumnIfMissing(s, "jobs", "resource_key", "TEXT");
+            s.execute("CREATE TABLE IF NOT EXISTS config (key TEXT PRIMARY KEY, value TEXT NOT NULL) WITHOUT ROWID");
+            // dependency edges still to be satisfied, looked up by parent when it completes or fails
+            s.execute("CREATE TABLE IF NOT EXISTS job_deps (parent TEXT NOT NULL, child TEXT NOT NULL, PRIMARY KEY (parent, child)) WITHOUT ROWID");
+            // a row per waiting job: how many dependencies it still waits on. Kept out of jobs so each
+            // decrement rewrites a few bytes, not a job row carrying a depends_on list of any length.
+            s.execute("CREATE TABLE IF NOT EXISTS job_waits (id TEXT PRIMARY KEY, pending INTEGER NOT NULL) WITHOUT ROWID");
+            // dedupe_key -> the job that took it, until expires_at (epoch millis). Apart from jobs so a key
+            // outlives its job's archiving and expires on its own schedule.
+            s.execute("CREATE TABLE IF NOT EXISTS dedupe_keys (key TEXT PRIMARY KEY, job_id TEXT NOT NULL, expires_at INTEGER NOT NULL) WITHOUT ROWID");
+            s.execute("CREATE INDEX IF NOT EXISTS idx_dedupe_expires ON dedupe_keys(expires_at)");
+            // token bucket per limited resource_key, shared by every process claiming from this file
+            s.execute("CREATE TABLE IF NOT EXISTS resource_buckets (key TEXT PRIMARY KEY, tokens REAL NOT NULL, refilled_at INTEGER NOT NULL) WITHOUT ROWID");
+            // next due time: equality on state, MIN(available_at)
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_claim ON jobs(state, available_at, created_at)");
+            // claim paths: highest priority first, then oldest due, across all queues or within one.
+            // Not-yet-due rows of a higher priority are stepped over, so that cost is bounded by the retry backlog.
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_ready ON jobs(state, priority DESC, available_at, created_at)");
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_queue ON jobs(queue, state, priority DESC, available_at, created_at)");
+            // reaper: expired leases among processing jobs
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_lease ON jobs(state, lease_expires_at)");
+            // in-flight count per resource_key. Partial, so jobs without a key never maintain it.
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_resource ON jobs(resource_key, state) WHERE resource_key IS NOT NULL");
+            // list paging; written on insert and delete only
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_created ON jobs(created_at, id)");
+            // retention: finished rows by age. Partial, so claims and acks on live rows never maintain it.
+            s.execute("CREATE INDEX IF NOT EXISTS idx_jobs_finished ON jobs(updated_at) WHERE state IN ('completed', 'dead', 'cancelled')");
+            createStateCounters(s);
+        }
+    }
+
+    // job_counts holds the number of jobs per state, kept exact by triggers in the same transaction
+    // as every insert, state change and delete, so counting is a lookup instead of a scan.
+    private void createStateCounters(Statement s) throws SQLException {
+        boolean exists;
+        try (ResultSet r = s.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'job_counts'")) {
+            exists = r.next();
+        }
+        if (exists) return;
+        inTransaction(() -> {
+            s.execute("CREATE TABLE job_counts (state TEXT PRIMARY KEY, n INTEGER NOT NULL) WITHOUT ROWID");
+            s.execute("INSERT INTO job_counts (state, n) SELECT state, COUNT(*) FROM jobs GROUP BY state");
+            s.execute("""
+                CREATE TRIGGER jobs_count_insert AFTER INSERT ON jobs BEGIN
+                  INSERT INTO job_counts (state, n) VALUES (NEW.state, 1) ON CONFLICT (state) DO UPDATE SET n = n + 1;
+                END
+            """);
+            s.execute("""
+                CREATE TRIGGER jobs_count_update AFTER UPDATE OF state ON jobs WHEN OLD.state <> NEW.state BEGIN
+                  UPDATE job_counts SET n = n - 1 WHERE state = OLD.state;
+                  INSERT INTO job_counts (state, n) VALUES (NEW.state, 1) ON CONFLICT (state) DO UPDATE SET n = n + 1;
+                END
+            """);
+            s.execute("""
+                CREATE TRIGGER jobs_count_delete AFTER DELETE ON jobs BEGIN
+                  UPDATE job_counts SET n = n - 1 WHERE state = OLD.state;
+                END
+            """);
+        });
+    }
+
+    // Older databases stored available_at as ISO-8601 TEXT. A TEXT-affinity column would coerce
+    // epoch-millis back to text, so the table is rebuilt once with an INTEGER column.
+    private void migrateAvailableAtToMillis(Statement s) throws SQLException {
+        if (!"TEXT".equalsIgnoreCase(columnType(s, "jobs", "available_at"))) return;
+        inTransaction(() -> {
+            s.execute("ALTER TABLE jobs RENAME TO jobs_old");
+            s.execute("""
+                CREATE TABLE jobs (
+                  id TEXT PRIMARY KEY,
+                  command TEXT NOT NULL,
+                  state TEXT NOT NULL,
+                  attempts INTEGER NOT NULL,
+                  max_retries INTEGER NOT NULL,
+                  created_at TEXT,
+                  updated_at TEXT,
+                  available_at INTEGER
+                );
+            """);
+            s.execute("""
+                INSERT INTO jobs (id, command, state, attempts, max_retries, created_at, updated_at, available_at)
+                SELECT id, command, state, attempts, max_retries, created_at, updated_at,
+                       CAST(ROUND((julianday(available_at) - 2440587.5) * 86400000.0) AS INTEGER)
+                FROM jobs_old
+            """);
+            s.execute("DROP TABLE jobs_old");
+        });
+    }
+
+    // Declared type of a column, or null if the table has no such column.
+    private static String columnType(Statement s, String table, String column) throws SQLException {
+        try (ResultSet r = s.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (r.next()) {
+                if (column.equals(r.getString("name"))) return r.getString("type");
+            }
+        }
+        return null;
+    }
+
+    private static void addColumnIfMissing(Statement s, String table, String column, String type) throws SQLException {
+        if (columnType(s, table, column) == null) s.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+    }
+
+    // Attach the archive database on first use, creating it or adding any jobs columns it lacks. Its
+    // columns mirror jobs, so archived rows are read back with readJobFromResult. Caller holds the lock.
+    // Returns false if there is no archive yet and create is false.
+    private boolean attachArchive(boolean create) throws SQLException {
+        if (archiveColumns != null) return true;
+        if (!create && !Files.exists(Path.of(archivePath))) return false;
+        try (PreparedStatement p = conn.prepareStatement("ATTACH DATABASE ? AS archive");
+             Statement s = conn.createStatement()) {
+            p.setString(1, archivePath);
+            p.execute();
+            s.execute("PRAGMA archive.journal_mode=WAL");
+            // rows are deleted from jobs once copied here, so this copy must be durable whatever synchronous says
+            s.execute("PRAGMA archive.synchronous=FULL");
+            s.execute("CREATE TABLE IF NOT EXISTS archive.archived_jobs AS SELECT * FROM jobs WHERE 0");
+            List<String> columns = new ArrayList<>();
+            try (ResultSet r = s.executeQuery("PRAGMA main.table_info(jobs)")) {
+                while (r.next()) columns.add(r.getString("name") + " " + r.getString("type"));
+            }
+            Set<String> have = new HashSet<>();
+            try (ResultSet r = s.executeQuery("PRAGMA archive.table_info(archived_jobs)")) {
+                while (r.next()) have.add(r.getString("name"));
+            }
+            StringBuilder names = new StringBuilder();
+            for (String column : columns) {
+                String name = column.substring(0, column.indexOf(' '));
+                if (!have.contains(name)) s.execute("ALTER TABLE archive.archived_jobs ADD COLUMN " + column);
+                names.append(names.length() == 0 ? "" : ", ").append(name);
+            }
+            if (!have.contains("archived_at")) s.execute("ALTER TABLE archive.archived_jobs ADD COLUMN archived_at TEXT");
+            s.execute("CREATE UNIQUE INDEX IF NOT EXISTS archive.idx_archived_id ON archived_jobs(id)");
+            s.execute("CREATE INDEX IF NOT EXISTS archive.idx_archived_created ON archived_jobs(created_at, id)");
+            archiveColumns = names.toString();
+        }
+        return true;
+    }
+
+    private interface SqlAction { void run() throws SQLException; }
+
+    private void inTransaction(SqlAction action) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            action.run();
+            conn.commit();
+        } catch (SQLException | RuntimeException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public String enqueue(Job job) throws SQLException {
+        if (!job.hasDependencies() && job.dedupeKey == null) {
+            // one autocommit statement: an explicit transaction around it would double the cost of the common case
+            lock.lock();
+            try {
+                if (insertIgnore == null) insertIgnore = conn.prepareStatement("INSERT OR IGNORE INTO jobs " + INSERT_COLUMNS);
+                bindInsert(insertIgnore, job);
+                if (insertIgnore.executeUpdate() == 0) job.state = DUPLICATE;
+                else if ("pending".equals(job.state)) signal.signal();
+                return job.id;
+            } finally {
+                lock.unlock();
+            }
+        }
+        enqueueBatch(List.of(job));
+        if (UNKNOWN_DEPENDENCY.equals(job.state)) throw new SQLException("job " + job.id + " depends on unknown job(s) " + job.dependsOn);
+        if (!DUPLICATE_KEY.equals(job.state)) return job.id;
+        lock.lock();
+        try (PreparedStatement p = conn.prepareStatement("SELECT job_id FROM dedupe_keys WHERE key = ?")) {
+            p.setString(1, job.dedupeKey);
+            try (ResultSet r = p.executeQuery()) {
+                String holder = r.next() ? r.getString(1) : job.id;
+                if (holder.equals(job.id)) job.state = DUPLICATE; // the same job again, key and all
+                return holder;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One reused statement, one executeBatch and one transaction per chunk. INSERT OR IGNORE leaves
+    // an update count of 0 for a duplicate id instead of aborting the whole batch. A job with
+    // dependencies or a dedupe_key flushes the batch before it and is inserted on its own: it may
+    // depend on those, and its key is only kept if its insert goes through.
+    @Override
+    public int enqueueBatch(List<Job> jobs) throws SQLException {
+        if (jobs.isEmpty()) return 0;
+        lock.lock();
+        try {
+            if (insertIgnore == null) insertIgnore = conn.prepareStatement("INSERT OR IGNORE INTO jobs " + INSERT_COLUMNS);
+            int[] inserted = {0};
+            for (Job job : jobs) {
+                if (job.hasDependencies()) {
+                    attachArchive(false);
+                    break;
+                }
+            }
+            long now = System.currentTimeMillis();
+            long expiresAt = now + cfg.getDedupeTtlSeconds() * 1000;
+            inTransaction(() -> {
+                List<Job> batched = new ArrayList<>();
+                for (Job job : jobs) {
+                    if (!job.hasDependencies() && job.dedupeKey == null) {
+                        bindInsert(insertIgnore, job);
+                        insertIgnore.addBatch();
+                        batched.add(job);
+                        continue;
+                    }
+                    inserted[0] += flushInserts(batched);
+                    if (job.dedupeKey != null && !claimDedupeKey(job, now, expiresAt)) {
+                        job.state = DUPLICATE_KEY;
+                        continue;
+                    }
+                    int rows;
+                    if (job.hasDependencies()) {
+                        rows = insertDependent(insertIgnore, job);
+                    } else {
+                        bindInsert(insertIgnore, job);
+                        rows = insertIgnore.executeUpdate();
+                    }
+                    if (rows > 0) {
+                        inserted[0]++;
+                        continue;
+                    }
+                    job.state = rows < 0 ? UNKNOWN_DEPENDENCY : DUPLICATE;
+                    if (job.dedupeKey != null) releaseDedupeKey(job);
+                }
+                inserted[0] += flushInserts(batched);
+            });
+            if (inserted[0] > 0) signal.signal();
+            return inserted[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the job's dedupe_key until expiresAt. The upsert only overwrites a key that has expired, so
+     * a live one leaves an update count of 0 and false is returned. The check is the insert itself,
+     * through the primary key it maintains anyway: a new key costs no lookup ahead of it, and only a
+     * duplicate reads anything back (in enqueue, to name the job holding it).
+     */
+    private boolean claimDedupeKey(Job job, long now, long expiresAt) throws SQLException {
+        if (claimKey == null) {
+            claimKey = conn.prepareStatement("""
+                INSERT INTO dedupe_keys (key, job_id, expires_at) VALUES (?, ?, ?)
+                ON CONFLICT (key) DO UPDATE SET job_id = excluded.job_id, expires_at = excluded.expires_at
+                WHERE dedupe_keys.expires_at <= ?""");
+        }
+        claimKey.setString(1, job.dedupeKey);
+        claimKey.setString(2, job.id);
+        claimKey.setLong(3, expiresAt);
+        claimKey.setLong(4, now);
+        return claimKey.executeUpdate() > 0;
+    }
+
+    // Give back a key taken by a job that was not inserted after all.
+    private void releaseDedupeKey(Job job) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("DELETE FROM dedupe_keys WHERE key = ? AND job_id = ?")) {
+            p.setString(1, job.dedupeKey);
+            p.setString(2, job.id);
+            p.executeUpdate();
+        }
+    }
+
+    private int flushInserts(List<Job> batched) throws SQLException {
+        if (batched.isEmpty()) return 0;
+        int inserted = 0;
+        int[] rows = insertIgnore.executeBatch();
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == 0) batched.get(i).state = DUPLICATE;
+            else inserted++;
+        }
+        batched.clear();
+        return inserted;
+    }
+
+    /**
+     * Insert a job with depends_on: waiting on the dependencies not completed yet, with an edge from each,
+     * or straight to dead/cancelled if one of them already failed. Dependencies are looked up in the live
+     * jobs, then in the archive. Caller holds the lock inside a transaction. Returns the insert's update
+     * count (0 for a duplicate id), or -1 without inserting if a dependency doesn't exist.
+     */
+    private int insertDependent(PreparedStatement ins, Job job) throws SQLException {
+        List<String> unfinished = new ArrayList<>();
+        String failed = null, failedState = null;
+        for (String parent : job.dependsOn) {
+            String state = stateOf(parent, true);
+            if (state == null) return -1;
+            if ("completed".equals(state)) continue;
+            if (("dead".equals(state) || "cancelled".equals(state)) && failed == null) {
+                failed = parent;
+                failedState = state;
+            }
+            unfinished.add(parent);
+        }
+        if (failed != null) {
+            job.state = job.dependencyFailureState();
+            job.outputTail = JobStore.dependencyFailedNote(failed, failedState);
+            job.depsPending = 0;
+        } else {
+            job.state = unfinished.isEmpty() ? "pending" : "waiting";
+            job.depsPending = unfinished.size();
+        }
+        bindInsert(ins, job);
+        int rows = ins.executeUpdate();
+        if (rows > 0 && failed == null && !unfinished.isEmpty()) addEdges(unfinished, job.id);
+        return rows;
+    }
+
+    // State of a live (or, with archived, archived) job, or null if there is no such job.
+    private String stateOf(String id, boolean archived) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT state FROM jobs WHERE id = ?")) {
+            p.setString(1, id);
+            try (ResultSet r = p.executeQuery()) {
+                if (r.next()) return r.getString(1);
+            }
+        }
+        if (!archived || archiveColumns == null) return null;
+        try (PreparedStatement p = conn.prepareStatement("SELECT state FROM archive.archived_jobs WHERE id = ?")) {
+            p.setString(1, id);
+            try (ResultSet r = p.executeQuery()) {
+                return r.next() ? r.getString(1) : null;
+            }
+        }
+    }
+
+    // Make child wait on parents: an edge from each and a count of them.
+    private void addEdges(List<String> parents, String child) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("INSERT OR IGNORE INTO job_deps (parent, child) VALUES (?, ?)");
+             PreparedStatement w = conn.prepareStatement("INSERT OR REPLACE INTO job_waits (id, pending) VALUES (?, ?)")) {
+            for (String parent : parents) {
+                p.setString(1, parent);
+                p.setString(2, child);
+                p.addBatch();
+            }
+            p.executeBatch();
+            w.setString(1, child);
+            w.setInt(2, parents.size());
+            w.executeUpdate();
+        }
+    }
+
+    // deps_pending of the waiting jobs among these, from job_waits.
+    private void readDepsPending(List<Job> jobs) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT pending FROM job_waits WHERE id = ?")) {
+            for (Job j : jobs) {
+                if (!"waiting".equals(j.state)) continue;
+                p.setString(1, j.id);
+                try (ResultSet r = p.executeQuery()) {
+                    if (r.next()) j.depsPending = r.getInt(1);
+                }
+            }
+        }
+    }
+
+    private static final String INSERT_COLUMNS =
+            "(id, command, state, attempts, max_retries, created_at, updated_at, available_at, queue, priority, retry_policy, timeout_seconds, "
+            + "output_tail, depends_on, on_dependency_failure, dedupe_key, handler, payload, resource_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private void bindInsert(PreparedStatement p, Job job) throws SQLException {
+        // jobs parsed from JSON only carry what the user supplied
+        if (job.state == null) job.state = "pending";
+        if (job.createdAt == null) job.createdAt = Instant.now().toString();
+        if (job.updatedAt == null) job.updatedAt = job.createdAt;
+        p.setString(1, job.id);
+        p.setString(2, job.command == null ? "" : job.command); // the column predates handlers and is NOT NULL
+        p.setString(3, job.state);
+        p.setInt(4, job.attempts);
+        p.setInt(5, job.maxRetries);
+        p.setString(6, job.createdAt);
+        p.setString(7, job.updatedAt);
+        p.setLong(8, job.availableAtMillis());
+        p.setString(9, job.queue == null ? "default" : job.queue);
+        p.setInt(10, job.priority);
+        p.setString(11, job.retryPolicy);
+        p.setInt(12, job.timeoutSeconds);
+        p.setString(13, job.outputTail);
+        try {
+            p.setString(14, job.hasDependencies() ? Json.MAPPER.writeValueAsString(job.dependsOn) : null);
+            p.setString(18, job.payload == null ? null : Json.MAPPER.writeValueAsString(job.payload));
+        } catch (JsonProcessingException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+        p.setString(15, job.onDependencyFailure);
+        p.setString(16, job.dedupeKey);
+        p.setString(17, job.handler);
+        p.setString(19, job.resourceKey);
+    }
+
+    // Claim up to n due pending jobs in a single statement (and therefore a single transaction).
+    // The subquery walks idx_jobs_ready (or idx_jobs_queue for one queue) in (priority, available_at,
+    // created_at) order, so the due rows are found without a sort. The index is named: left to itself
+    // the planner picks idx_jobs_claim and sorts every due row, milliseconds per claim once thousands
+    // are pending. Each claim is leased to this process for lease-ms and must be kept alive with
+    // heartbeat(). Jobs are returned highest priority first, then oldest first.
+    @Override
+    public List<Job> reserveBatch(String queue, int n) throws SQLException {
+        lock.lock();
+        try {
+            if (!limiter().isEmpty()) return reserveLimited(queue, n);
+            String sql = """
+                UPDATE jobs SET state='processing', attempts = attempts + 1, updated_at = ?, owner = ?, lease_expires_at = ?
+                WHERE id IN (SELECT id FROM %s state = 'pending' AND available_at <= ?
+                             ORDER BY priority DESC, available_at, created_at LIMIT ?)
+                RETURNING *
+            """.formatted(readyRows(queue));
+            Instant now = Instant.now();
+            List<Job> out = new ArrayList<>(n);
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                int i = 1;
+                p.setString(i++, now.toString());
+                p.setString(i++, owner);
+                p.setLong(i++, now.toEpochMilli() + cfg.getLeaseMs());
+                if (queue != null) p.setString(i++, queue);
+                p.setLong(i++, now.toEpochMilli());
+                p.setInt(i, n);
+                try (ResultSet r = p.executeQuery()) {
+                    while (r.next()) out.add(readJobFromResult(r));
+                }
+            }
+            // RETURNING gives no ordering guarantee
+            out.sort(CLAIM_ORDER);
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // FROM/WHERE prefix of a claim's candidate read, for one queue or all.
+    private static String readyRows(String queue) {
+        return queue == null ? "jobs INDEXED BY idx_jobs_ready WHERE" : "jobs INDEXED BY idx_jobs_queue WHERE queue = ? AND";
+    }
+
+    // The limiter for the current resource-limits; under the daemon, `config set` changes it while workers run.
+    private ResourceLimiter limiter() {
+        String spec = cfg.getResourceLimits();
+        if (!spec.equals(limiter.spec())) limiter = new ResourceLimiter(spec);
+        return limiter;
+    }
+
+    // Claim with resource-limits in force, in one transaction so processes sharing the file see each
+    // other's tokens and in-flight jobs. Candidates are read in claim order; a job whose key has no
+    // token or room is stepped over, and once a key turns one away its jobs are left out of the next
+    // read, so a round either fills the batch, runs out of candidates, or excludes another key.
+    private List<Job> reserveLimited(String queue, int n) throws SQLException {
+        Instant now = Instant.now();
+        long nowMs = now.toEpochMilli();
+        List<Job> out = new ArrayList<>(n);
+        inTransaction(() -> {
+            ResourceLimiter.Claim claim = limiter.begin(nowMs, new ResourceLimiter.State() {
+                @Override
+                public ResourceLimiter.Bucket bucket(String key) throws SQLException {
+                    if (bucketRead == null) bucketRead = conn.prepareStatement("SELECT tokens, refilled_at FROM resource_buckets WHERE key = ?");
+                    bucketRead.setString(1, key);
+                    try (ResultSet r = bucketRead.executeQuery()) {
+                        return r.next() ? new ResourceLimiter.Bucket(r.getDouble(1), r.getLong(2)) : null;
+                    }
+                }
+
+                @Override
+                public int inFlight(String key) throws SQLException {
+                    if (inFlightCount == null) inFlightCount = conn.prepareStatement("SELECT COUNT(*) FROM jobs WHERE resource_key = ? AND state = 'processing'");
+                    inFlightCount.setString(1, key);
+                    try (ResultSet r = inFlightCount.executeQuery()) {
+                        return r.next() ? r.getInt(1) : 0;
+                    }
+                }
+            });
+            while (out.size() < n) {
+                int want = n - out.size();
+                List<String> refused = new ArrayList<>(claim.refused());
+                String candidates = """
+                    SELECT id, resource_key FROM %s state = 'pending' AND available_at <= ? %s
+                    ORDER BY priority DESC, available_at, created_at LIMIT ?
+                """.formatted(readyRows(queue),
+                        refused.isEmpty() ? "" : "AND (resource_key IS NULL OR resource_key NOT IN (" + placeholders(refused.size()) + "))");
+                List<String> ids = new ArrayList<>(want);
+                int seen = 0;
+                try (PreparedStatement p = conn.prepareStatement(candidates)) {
+                    int i = 1;
+                    if (queue != null) p.setString(i++, queue);
+                    p.setLong(i++, nowMs);
+                    for (String key : refused) p.setString(i++, key);
+                    p.setInt(i, want);
+                    try (ResultSet r = p.executeQuery()) {
+                        while (r.next()) {
+                            seen++;
+                            if (claim.admit(r.getString(2))) ids.add(r.getString(1));
+                        }
+                    }
+                }
+                // by primary key only: the rows were read as pending in this transaction, and a state term
+                // would lead the planner to walk every pending row instead
+                if (!ids.isEmpty()) {
+                    String update = """
+                        UPDATE jobs SET state='processing', attempts = attempts + 1, updated_at = ?, owner = ?, lease_expires_at = ?
+                        WHERE id IN (%s)
+                        RETURNING *
+                    """.formatted(placeholders(ids.size()));
+                    try (PreparedStatement p = conn.prepareStatement(update)) {
+                        int i = 1;
+                        p.setString(i++, now.toString());
+                        p.setString(i++, owner);
+                        p.setLong(i++, nowMs + cfg.getLeaseMs());
+                        for (String id : ids) p.setString(i++, id);
+                        try (ResultSet r = p.executeQuery()) {
+                            while (r.next()) out.add(readJobFromResult(r));
+                        }
+                    }
+                }
+                if (seen < want || ids.size() == seen) break;
+            }
+            Map<String, ResourceLimiter.Bucket> spent = claim.spent();
+            if (spent.isEmpty()) return;
+            String upsert = "INSERT INTO resource_buckets (key, tokens, refilled_at) VALUES (?, ?, ?) "
+                    + "ON CONFLICT (key) DO UPDATE SET tokens = excluded.tokens, refilled_at = excluded.refilled_at";
+            try (PreparedStatement p = conn.prepareStatement(upsert)) {
+                for (Map.Entry<String, ResourceLimiter.Bucket> e : spent.entrySet()) {
+                    p.setString(1, e.getKey());
+                    p.setDouble(2, e.getValue().tokens());
+                    p.setLong(3, e.getValue().refilledAt());
+                    p.addBatch();
+                }
+                p.executeBatch();
+            }
+        });
+        out.sort(CLAIM_ORDER);
+        return out;
+    }
+
+    private static String placeholders(int n) {
+        return String.join(", ", Collections.nCopies(n, "?"));
+    }
+
+    private Job readJobFromResult(ResultSet r) throws SQLException {
+        Job j = new Job();
+        j.id = r.getString("id");
+        j.command = r.getString("command");
+        j.state = r.getString("state");
+        j.queue = r.getString("queue");
+        j.priority = r.getInt("priority");
+        j.attempts = r.getInt("attempts");
+        j.maxRetries = r.getInt("max_retries");
+        j.createdAt = r.getString("created_at");
+        j.updatedAt = r.getString("updated_at");
+        j.availableAt = Instant.ofEpochMilli(r.getLong("available_at")).toString();
+        j.outputTail = r.getString("output_tail");
+        j.owner = r.getString("owner");
+        long lease = r.getLong("lease_expires_at");
+        j.leaseExpiresAt = r.wasNull() ? null : Instant.ofEpochMilli(lease).toString();
+        j.retryPolicy = r.getString("retry_policy");
+        j.lastRetryDelayMs = r.getLong("last_retry_delay_ms");
+        j.timeoutSeconds = r.getInt("timeout_seconds");
+        j.cancelRequested = r.getInt("cancel_requested") != 0;
+        String deps = r.getString("depends_on");
+        if (deps != null) {
+            try {
+                j.dependsOn = new ArrayList<>(List.of(Json.MAPPER.readValue(deps, String[].class)));
+            } catch (JsonProcessingException e) {
+                throw new SQLException("job " + j.id + " has malformed depends_on: " + e.getMessage(), e);
+            }
+        }
+        j.onDependencyFailure = r.getString("on_dependency_failure");
+        j.dedupeKey = r.getString("dedupe_key");
+        j.handler = r.getString("handler");
+        j.resourceKey = r.getString("resource_key");
+        if (j.handler != null && j.command.isEmpty()) j.command = null;
+        String payload = r.getString("payload");
+        if (payload != null) {
+            try {
+                j.payload = Json.MAPPER.readTree(payload);
+            } catch (JsonProcessingException e) {
+                throw new SQLException("job " + j.id + " has malformed payload: " + e.getMessage(), e);
+            }
+        }
+        return j;
+    }
+
+    @Override
+    public void completeJobs(List<String> ids) throws SQLException {
+        lock.lock();
+        try {
+            if (ids.isEmpty()) return;
+            List<Job> jobs = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                Job j = new Job();
+                j.id = id;
+                jobs.add(j);
+            }
+            inTransaction(() -> writeCompletions(jobs));
+            if (limiter.released()) signal.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void failJobs(List<Job> jobs, Config cfg) throws SQLException {
+        lock.lock();
+        try {
+            if (jobs.isEmpty()) return;
+            inTransaction(() -> writeFailures(jobs, cfg));
+            scheduleRetries(jobs);
+            if (limiter.released()) signal.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void applyTransitions(List<Job> completed, List<Job> failed, Config cfg) throws SQLException {
+        lock.lock();
+        try {
+            if (completed.isEmpty() && failed.isEmpty()) return;
+            inTransaction(() -> {
+                if (!completed.isEmpty()) writeCompletions(completed);
+                if (!failed.isEmpty()) writeFailures(failed, cfg);
+            });
+            scheduleRetries(failed);
+            if (limiter.released()) signal.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Let the delay queue wake a worker exactly when each committed retry becomes due.
+    private void scheduleRetries(List<Job> failed) {
+        for (Job job : failed) {
+            if ("pending".equals(job.state)) signal.scheduleAt(job.availableAtMillis());
+        }
+    }
+
+    // Acknowledgements only apply while this process still holds the lease. If the lease expired and
+    // the job was handed to someone else, the job's state is set to LEASE_LOST and nothing is written.
+    // output_tail is only overwritten when the worker captured one.
+    private void writeCompletions(List<Job> jobs) throws SQLException {
+        String sql = "UPDATE jobs SET state='completed', updated_at = ?, output_tail = COALESCE(?, output_tail), lease_expires_at = NULL WHERE id = ? AND state='processing' AND owner = ?";
+        try (PreparedStatement p = conn.prepareStatement(sql)) {
+            String now = Instant.now().toString();
+            for (Job job : jobs) {
+                p.setString(1, now);
+                p.setString(2, job.outputTail);
+                p.setString(3, job.id);
+                p.setString(4, owner);
+                p.addBatch();
+            }
+            int[] counts = p.executeBatch();
+            for (int i = 0; i < jobs.size(); i++) jobs.get(i).state = counts[i] == 0 ? LEASE_LOST : "completed";
+        }
+        releaseDependents(jobs);
+    }
+
+    // True if any job is waiting on another; lets the ack paths skip the dependency statements entirely.
+    private boolean hasWaitingJobs() throws SQLException {
+        if (anyWaiting == null) anyWaiting = conn.prepareStatement("SELECT EXISTS (SELECT 1 FROM job_waits)");
+        try (ResultSet r = anyWaiting.executeQuery()) {
+            return r.next() && r.getInt(1) == 1;
+        }
+    }
+
+    // Each completed job takes one off its waiting dependents' counts, and those reaching zero become
+    // pending, in the acknowledging transaction. The edges are consumed: one lookup by parent per job.
+    private void releaseDependents(List<Job> jobs) throws SQLException {
+        if (!hasWaitingJobs()) return;
+        List<String> ready = new ArrayList<>();
+        try (PreparedStatement dec = conn.prepareStatement("UPDATE job_waits SET pending = pending - 1 WHERE id IN (SELECT child FROM job_deps WHERE parent = ?) RETURNING id, pending");
+             PreparedStatement del = conn.prepareStatement("DELETE FROM job_deps WHERE parent = ?")) {
+            for (Job job : jobs) {
+                if (!"completed".equals(job.state)) continue;
+                dec.setString(1, job.id);
+                try (ResultSet r = dec.executeQuery()) {
+                    while (r.next()) {
+                        if (r.getInt("pending") == 0) ready.add(r.getString("id"));
+                    }
+                }
+                del.setString(1, job.id);
+                del.addBatch();
+            }
+            del.executeBatch();
+        }
+        if (ready.isEmpty()) return;
+        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET state = 'pending', updated_at = ? WHERE id = ? AND state = 'waiting'");
+             PreparedStatement del = conn.prepareStatement("DELETE FROM job_waits WHERE id = ?")) {
+            String now = Instant.now().toString();
+            for (String id : ready) {
+                p.setString(1, now);
+                p.setString(2, id);
+                p.addBatch();
+                del.setString(1, id);
+                del.addBatch();
+            }
+            p.executeBatch();
+            del.executeBatch();
+        }
+        signal.signal();
+    }
+
+    /**
+     * Move every waiting job downstream of the given dead or cancelled jobs to its own
+     * on_dependency_failure state. The walk only continues through jobs that are still waiting, and
+     * those stop waiting here, so over any sequence of failures each job is visited once. The edges
+     * stay: a dead job retried from the DLQ still releases the dependents requeued after it.
+     */
+    private void failDependents(List<Job> failed) throws SQLException {
+        if (failed.isEmpty() || !hasWaitingJobs()) return;
+        String walk = """
+            WITH RECURSIVE doomed(id) AS (
+              SELECT d.child FROM job_deps d JOIN job_waits w ON w.id = d.child WHERE d.parent = ?
+              UNION
+              SELECT d.child FROM doomed JOIN job_deps d ON d.parent = doomed.id JOIN job_waits w ON w.id = d.child
+            )
+            SELECT id FROM doomed
+        """;
+        String fail = """
+            UPDATE jobs SET state = CASE WHEN on_dependency_failure = 'cancel' THEN 'cancelled' ELSE 'dead' END,
+                            updated_at = ?, output_tail = ?
+            WHERE id = ? AND state = 'waiting'
+        """;
+        try (PreparedStatement w = conn.prepareStatement(walk);
+             PreparedStatement p = conn.prepareStatement(fail);
+             PreparedStatement del = conn.prepareStatement("DELETE FROM job_waits WHERE id = ?")) {
+            String now = Instant.now().toString();
+            for (Job job : failed) {
+                w.setString(1, job.id);
+                String note = JobStore.dependencyFailedNote(job.id, job.state);
+                try (ResultSet r = w.executeQuery()) {
+                    while (r.next()) {
+                        p.setString(1, now);
+                        p.setString(2, note);
+                        p.setString(3, r.getString(1));
+                        p.addBatch();
+                        del.setString(1, r.getString(1));
+                        del.addBatch();
+                    }
+                }
+                // before the next walk, which must not go through these again
+                p.executeBatch();
+                del.executeBatch();
+            }
+        }
+    }
+
+    private void writeFailures(List<Job> jobs, Config cfg) throws SQLException {
+        String deadSql = "UPDATE jobs SET state='dead', updated_at = ?, output_tail = COALESCE(?, output_tail), lease_expires_at = NULL WHERE id = ? AND state='processing' AND owner = ?";
+        String cancelSql = "UPDATE jobs SET state='cancelled', updated_at = ?, output_tail = COALESCE(?, output_tail), lease_expires_at = NULL WHERE id = ? AND state='processing' AND owner = ?";
+        String retrySql = "UPDATE jobs SET state='pending', updated_at = ?, available_at = ?, last_retry_delay_ms = ?, output_tail = COALESCE(?, output_tail), owner = NULL, lease_expires_at = NULL WHERE id = ? AND state='processing' AND owner = ?";
+        try (PreparedStatement flag = conn.prepareStatement("SELECT cancel_requested FROM jobs WHERE id = ? AND state='processing' AND owner = ?");
+             PreparedStatement dead = conn.prepareStatement(deadSql);
+             PreparedStatement cancel = conn.prepareStatement(cancelSql);
+             PreparedStatement retry = conn.prepareStatement(retrySql)) {
+            Instant now = Instant.now();
+            List<Job> deadJobs = new ArrayList<>();
+            List<Job> cancelledJobs = new ArrayList<>();
+            List<Job> retryJobs = new ArrayList<>();
+            for (Job job : jobs) {
+                // a cancel that arrives after the worker's last look still wins over the retry and the DLQ
+                if (!job.cancelRequested) {
+                    flag.setString(1, job.id);
+                    flag.setString(2, owner);
+                    try (ResultSet r = flag.executeQuery()) {
+                        job.cancelRequested = r.next() && r.getInt(1) != 0;
+                    }
+                }
+                if (job.cancelRequested) {
+                    cancel.setString(1, now.toString());
+                    cancel.setString(2, job.outputTail);
+                    cancel.setString(3, job.id);
+                    cancel.setString(4, owner);
+                    cancel.addBatch();
+                    cancelledJobs.add(job);
+                    continue;
+                }
+                int attempts = job.attempts; // note: attempts was incremented when reserved
+                if (attempts > job.maxRetries) {
+                    // move to dead
+                    dead.setString(1, now.toString());
+                    dead.setString(2, job.outputTail);
+                    dead.setString(3, job.id);
+                    dead.setString(4, owner);
+                    dead.addBatch();
+                    deadJobs.add(job);
+                    continue;
+                }
+                long delay = RetryPolicy.of(job, cfg).delayMs(attempts, job.lastRetryDelayMs, cfg);
+                Instant next = now.plusMillis(delay);
+                retry.setString(1, now.toString());
+                retry.setLong(2, next.toEpochMilli());
+                retry.setLong(3, delay);
+                retry.setString(4, job.outputTail);
+                retry.setString(5, job.id);
+                retry.setString(6, owner);
+                retry.addBatch();
+                job.availableAt = next.toString();
+                job.lastRetryDelayMs = delay;
+                retryJobs.add(job);
+            }
+            int[] deadCounts = dead.executeBatch();
+            for (int i = 0; i < deadJobs.size(); i++) deadJobs.get(i).state = deadCounts[i] == 0 ? LEASE_LOST : "dead";
+            int[] cancelCounts = cancel.executeBatch();
+            for (int i = 0; i < cancelledJobs.size(); i++) cancelledJobs.get(i).state = cancelCounts[i] == 0 ? LEASE_LOST : "cancelled";
+            int[] retryCounts = retry.executeBatch();
+            for (int i = 0; i < retryJobs.size(); i++) retryJobs.get(i).state = retryCounts[i] == 0 ? LEASE_LOST : "pending";
+            deadJobs.addAll(cancelledJobs);
+            deadJobs.removeIf(j -> LEASE_LOST.equals(j.state));
+            failDependents(deadJobs);
+        }
+    }
+
+    @Override
+    public void releaseJobs(List<String> ids) throws SQLException {
+        lock.lock();
+        try {
+            if (ids.isEmpty()) return;
+            String sql = "UPDATE jobs SET state='pending', attempts = attempts - 1, updated_at = ?, owner = NULL, lease_expires_at = NULL WHERE id = ? AND state='processing' AND owner = ?";
+            inTransaction(() -> {
+                try (PreparedStatement p = conn.prepareStatement(sql)) {
+                    Instant now = Instant.now();
+                    for (String id : ids) {
+                        p.setString(1, now.toString());
+                        p.setString(2, id);
+                        p.setString(3, owner);
+                        p.addBatch();
+                    }
+                    p.executeBatch();
+                }
+            });
+            signal.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Extend the lease of every job this process holds, in one statement. Returns how many were extended.
+    @Override
+    public int heartbeat() throws SQLException {
+        lock.lock();
+        try {
+            String sql = "UPDATE jobs SET lease_expires_at = ? WHERE state='processing' AND owner = ?";
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setLong(1, System.currentTimeMillis() + cfg.getLeaseMs());
+                p.setString(2, owner);
+                return p.executeUpdate();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Return jobs whose lease ran out (their worker process died or hung) to the queue. The attempt
+    // counted at claim time stands, so a job that keeps killing its worker ends up in the DLQ.
+    @Override
+    public int reapExpiredLeases() throws SQLException {
+        lock.lock();
+        try {
+            return requeueProcessing("lease_expires_at < ?", List.of(System.currentTimeMillis()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The owners of processing jobs are few, so they are read first and their liveness checked here;
+    // the jobs of the dead ones are then requeued as the reaper would, in one write.
+    @Override
+    public int recoverOrphans() throws SQLException {
+        lock.lock();
+        try {
+            List<Object> dead = new ArrayList<>();
+            try (Statement s = conn.createStatement();
+                 ResultSet r = s.executeQuery("SELECT DISTINCT owner FROM jobs WHERE state='processing' AND owner IS NOT NULL")) {
+                while (r.next()) {
+                    if (exited(r.getString(1))) dead.add(r.getString(1));
+                }
+            }
+            if (dead.isEmpty()) return 0;
+            return requeueProcessing("owner IN (" + placeholders(dead.size()) + ")", dead);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether owner (host:pid:pidns:token) is a process on this host, in our PID namespace, that is no
+    // longer running. A live PID may belong to another program by now, and a process on another host or
+    // in another container can't be asked: all are left for their leases to run out, as are owners
+    // written by older versions and every owner when our own namespace is unknown.
+    private boolean exited(String other) {
+        String[] ours = owner.split(":"), theirs = other.split(":");
+        if (other.equals(owner) || theirs.length != ours.length || ours[2].equals("?")) return false;
+        if (!theirs[0].equals(ours[0]) || !theirs[2].equals(ours[2])) return false;
+        try {
+            return ProcessHandle.of(Long.parseLong(theirs[1])).isEmpty();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Move processing jobs matching condition (bound from args) back to pending, or to cancelled or the
+    // DLQ as their flags and attempts say, failing the dependents of those that end there. Caller holds the lock.
+    private int requeueProcessing(String condition, List<Object> args) throws SQLException {
+        String sql = """
+            UPDATE jobs SET state = CASE WHEN cancel_requested = 1 THEN 'cancelled' WHEN attempts > max_retries THEN 'dead' ELSE 'pending' END,
+                            updated_at = ?, owner = NULL, lease_expires_at = NULL
+            WHERE state='processing' AND %s
+            RETURNING id, state
+        """.formatted(condition);
+        int[] n = {0};
+        inTransaction(() -> {
+            List<Job> failed = new ArrayList<>();
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setString(1, Instant.now().toString());
+                for (int i = 0; i < args.size(); i++) p.setObject(i + 2, args.get(i));
+                try (ResultSet r = p.executeQuery()) {
+                    while (r.next()) {
+                        n[0]++;
+                        if ("pending".equals(r.getString("state"))) continue;
+                        Job j = new Job();
+                        j.id = r.getString("id");
+                        j.state = r.getString("state");
+                        failed.add(j);
+                    }
+                }
+            }
+            failDependents(failed);
+        });
+        if (n[0] > 0) signal.signal();
+        return n[0];
+    }
+
+    @Override
+    public boolean requeue(String id) throws SQLException {
+        lock.lock();
+        try {
+            Job job = getJob(id);
+            if (job == null || !"dead".equals(job.state)) return false;
+            // re-count the dependencies: a job that died with an upstream failure waits for it to be
+            // retried. Archived dependencies can't change any more and count as done.
+            String sql = "UPDATE jobs SET state=?, attempts=0, cancel_requested=0, last_retry_delay_ms=0, updated_at=?, available_at=? WHERE id=? AND state='dead'";
+            Instant now = Instant.now();
+            boolean[] requeued = {false};
+            inTransaction(() -> {
+                List<String> unfinished = new ArrayList<>();
+                if (job.hasDependencies()) {
+                    for (String parent : job.dependsOn) {
+                        String state = stateOf(parent, false);
+                        if (state != null && !"completed".equals(state)) unfinished.add(parent);
+                    }
+                }
+                try (PreparedStatement p = conn.prepareStatement(sql)) {
+                    p.setString(1, unfinished.isEmpty() ? "pending" : "waiting");
+                    p.setString(2, now.toString());
+                    p.setLong(3, now.toEpochMilli());
+                    p.setString(4, id);
+                    requeued[0] = p.executeUpdate() > 0;
+                }
+                if (requeued[0] && !unfinished.isEmpty()) addEdges(unfinished, id);
+            });
+            if (requeued[0]) signal.signal();
+            return requeued[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Served from idx_jobs_claim, so it is cheap enough to call whenever a worker goes idle. Jobs of a
+    // resource_key out of tokens or at its cap are left out; the bucket's next token counts instead,
+    // and an acknowledgement signals for a capped key.
+    @Override
+    public Long nextDueAt(Collection<String> queues) throws SQLException {
+        if (queues != null && queues.isEmpty()) return null;
+        lock.lock();
+        try {
+            long nowMs = System.currentTimeMillis();
+            List<String> blocked = new ArrayList<>(limiter().blocked(nowMs));
+            List<String> params = new ArrayList<>(blocked);
+            String sql = "SELECT MIN(available_at) AS m FROM jobs WHERE state = 'pending'"
+                    + (blocked.isEmpty() ? "" : " AND (resource_key IS NULL OR resource_key NOT IN (" + placeholders(blocked.size()) + "))");
+            if (queues != null) {
+                sql += " AND queue IN (" + placeholders(queues.size()) + ")";
+                params.addAll(queues);
+            }
+            Long next = limiter.nextToken(nowMs);
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                for (int i = 0; i < params.size(); i++) p.setString(i + 1, params.get(i));
+                try (ResultSet r = p.executeQuery()) {
+                    if (r.next()) {
+                        long m = r.getLong("m");
+                        if (!r.wasNull() && (next == null || m < next)) next = m;
+                    }
+                }
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public JobSignal signal() {
+        return signal;
+    }
+
+    @Override
+    public List<Job> listPage(String state, String since, Cursor after, int limit) throws SQLException {
+        lock.lock();
+        try {
+            List<Job> jobs = page("jobs INDEXED BY idx_jobs_created", state, since, after, limit);
+            readDepsPending(jobs);
+            return jobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Keyset pagination: the (created_at, id) row-value comparison is a range seek on the index, so a
+    // page costs the same at the millionth row as at the first. The index is walked in order with the
+    // state as a filter, because (created_at, id) never changes and so costs nothing on transitions;
+    // pinned, as the planner would rather seek idx_jobs_claim by state and sort every matching row.
+    private List<Job> page(String from, String state, String since, Cursor after, int limit) throws SQLException {
+        List<String> where = new ArrayList<>();
+        if (state != null) where.add("state = ?");
+        if (since != null) where.add("created_at >= ?");
+        if (after != null) where.add("(created_at, id) > (?, ?)");
+        String sql = "SELECT * FROM " + from + (where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where))
+                + " ORDER BY created_at, id LIMIT ?";
+        List<Job> out = new ArrayList<>(Math.min(limit, 1024));
+        try (PreparedStatement p = conn.prepareStatement(sql)) {
+            int i = 1;
+            if (state != null) p.setString(i++, state);
+            if (since != null) p.setString(i++, since);
+            if (after != null) {
+                p.setString(i++, after.createdAt());
+                p.setString(i++, after.id());
+            }
+            p.setInt(i, limit);
+            try (ResultSet r = p.executeQuery()) {
+                while (r.next()) out.add(readJobFromResult(r));
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public Job getJob(String id) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "SELECT * FROM jobs WHERE id = ?";
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setString(1, id);
+                try (ResultSet r = p.executeQuery()) {
+                    if (!r.next()) return null;
+                    Job j = readJobFromResult(r);
+                    readDepsPending(List.of(j));
+                    return j;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<QueueDepth> queueDepths() throws SQLException {
+        lock.lock();
+        try {
+            String sql = """
+                SELECT queue, SUM(state = 'pending') AS pending, SUM(state = 'processing') AS processing,
+                       MIN(CASE WHEN state = 'pending' THEN created_at END) AS oldest
+                FROM jobs WHERE state IN ('pending', 'processing') GROUP BY queue ORDER BY queue
+            """;
+            List<QueueDepth> out = new ArrayList<>();
+            try (Statement s = conn.createStatement(); ResultSet r = s.executeQuery(sql)) {
+                while (r.next()) {
+                    out.add(new QueueDepth(r.getString("queue"), r.getInt("pending"), r.getInt("processing"), r.getString("oldest")));
+                }
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String cancel(String id) throws SQLException {
+        lock.lock();
+        try {
+            // SET expressions see the row as it was, so each CASE tests the state before this update
+            String sql = """
+                UPDATE jobs SET state = CASE WHEN state IN ('pending', 'waiting') THEN 'cancelled' ELSE state END,
+                                cancel_requested = CASE WHEN state = 'processing' THEN 1 ELSE cancel_requested END,
+                                updated_at = ?
+                WHERE id = ? AND state IN ('pending', 'waiting', 'processing')
+                RETURNING state
+            """;
+            String[] state = {null};
+            inTransaction(() -> {
+                try (PreparedStatement p = conn.prepareStatement(sql)) {
+                    p.setString(1, Instant.now().toString());
+                    p.setString(2, id);
+                    try (ResultSet r = p.executeQuery()) {
+                        if (r.next()) state[0] = r.getString("state");
+                    }
+                }
+                if ("cancelled".equals(state[0])) {
+                    try (PreparedStatement p = conn.prepareStatement("DELETE FROM job_waits WHERE id = ?")) {
+                        p.setString(1, id);
+                        p.executeUpdate();
+                    }
+                    Job j = new Job();
+                    j.id = id;
+                    j.state = state[0];
+                    failDependents(List.of(j));
+                }
+            });
+            if (state[0] != null) return state[0];
+        } finally {
+            lock.unlock();
+        }
+        Job j = getJob(id);
+        return j == null ? null : j.state;
+    }
+
+    @Override
+    public List<String> cancelRequested() throws SQLException {
+        lock.lock();
+        try {
+            // idx_jobs_lease narrows this to processing rows, which are few
+            String sql = "SELECT id FROM jobs WHERE state = 'processing' AND cancel_requested = 1 AND owner = ?";
+            List<String> out = new ArrayList<>();
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setString(1, owner);
+                try (ResultSet r = p.executeQuery()) {
+                    while (r.next()) out.add(r.getString("id"));
+                }
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Two transactions rather than one: with WAL a transaction spanning two database files is atomic in
+     * each file but not across them. Copying first means a crash in between leaves a job in both places,
+     * and the next pass copies it again (INSERT OR REPLACE) and deletes it; it is never lost.
+     */
+    @Override
+    public int archive(long cutoffMillis, int n) throws SQLException {
+        lock.lock();
+        try {
+            List<String> ids = new ArrayList<>();
+            // pinned to the partial index: the planner otherwise prefers idx_jobs_lease for the state terms and sorts
+            String sql = """
+                SELECT id FROM jobs INDEXED BY idx_jobs_finished
+                WHERE state IN ('completed', 'dead', 'cancelled') AND updated_at < ? ORDER BY updated_at LIMIT ?
+            """;
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setString(1, Instant.ofEpochMilli(cutoffMillis).toString());
+                p.setInt(2, n);
+                try (ResultSet r = p.executeQuery()) {
+                    while (r.next()) ids.add(r.getString("id"));
+                }
+            }
+            if (ids.isEmpty()) return 0;
+            attachArchive(true);
+            String now = Instant.now().toString();
+            inTransaction(() -> {
+                String copy = "INSERT OR REPLACE INTO archive.archived_jobs (" + archiveColumns + ", archived_at) SELECT "
+                        + archiveColumns + ", ? FROM jobs WHERE id = ?";
+                try (PreparedStatement p = conn.prepareStatement(copy)) {
+                    for (String id : ids) {
+                        p.setString(1, now);
+                        p.setString(2, id);
+                        p.addBatch();
+                    }
+                    p.executeBatch();
+                }
+            });
+            int[] moved = {0};
+            inTransaction(() -> {
+                try (PreparedStatement del = conn.prepareStatement("DELETE FROM jobs WHERE id = ? AND state IN ('completed', 'dead', 'cancelled') RETURNING state");
+                     PreparedStatement undo = conn.prepareStatement("DELETE FROM archive.archived_jobs WHERE id = ?");
+                     PreparedStatement edges = conn.prepareStatement("DELETE FROM job_deps WHERE parent = ?")) {
+                    List<Job> failed = new ArrayList<>();
+                    for (String id : ids) {
+                        del.setString(1, id);
+                        try (ResultSet r = del.executeQuery()) {
+                            if (!r.next()) {
+                                // retried from the DLQ by another process in between: it is live again
+                                undo.setString(1, id);
+                                undo.addBatch();
+                                continue;
+                            }
+                            moved[0]++;
+                            edges.setString(1, id);
+                            edges.addBatch();
+                            if ("completed".equals(r.getString("state"))) continue;
+                            // dependents requeued after it failed would otherwise wait on it forever
+                            Job j = new Job();
+                            j.id = id;
+                            j.state = r.getString("state");
+                            failed.add(j);
+                        }
+                    }
+                    undo.executeBatch();
+                    failDependents(failed);
+                    edges.executeBatch();
+                }
+            });
+            return moved[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Job> listArchived(String state, String since, Cursor after, int limit) throws SQLException {
+        lock.lock();
+        try {
+            if (!attachArchive(false)) return new ArrayList<>();
+            return page("archive.archived_jobs INDEXED BY idx_archived_created", state, since, after, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Job getArchivedJob(String id) throws SQLException {
+        lock.lock();
+        try {
+            if (!attachArchive(false)) return null;
+            try (PreparedStatement p = conn.prepareStatement("SELECT * FROM archive.archived_jobs WHERE id = ?")) {
+                p.setString(1, id);
+                try (ResultSet r = p.executeQuery()) {
+                    return r.next() ? readJobFromResult(r) : null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A few thousand keys per delete, each its own short write, through idx_dedupe_expires.
+    @Override
+    public int expireDedupeKeys(long nowMillis) throws SQLException {
+        int total = 0;
+        for (int deleted = DEDUPE_EXPIRE_BATCH; deleted == DEDUPE_EXPIRE_BATCH; total += deleted) {
+            lock.lock();
+            try (PreparedStatement p = conn.prepareStatement(
+                    "DELETE FROM dedupe_keys WHERE key IN (SELECT key FROM dedupe_keys WHERE expires_at <= ? LIMIT ?)")) {
+                p.setLong(1, nowMillis);
+                p.setInt(2, DEDUPE_EXPIRE_BATCH);
+                deleted = p.executeUpdate();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    // Pages freed by deletes go to the freelist; with auto_vacuum=INCREMENTAL they can be cut off the
+    // end of the file a step at a time, each step a short write like any other.
+    @Override
+    public void compact(boolean full) throws SQLException {
+        lock.lock();
+        try (Statement s = conn.createStatement()) {
+            if (full) {
+                s.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                s.execute("VACUUM");
+            } else {
+                int free;
+                try (ResultSet r = s.executeQuery("PRAGMA freelist_count")) {
+                    free = r.next() ? r.getInt(1) : 0;
+                }
+                if (free == 0) return;
+                // the driver steps a statement once and the pragma frees one page per step, so it is
+                // re-executed, inside one transaction so the step costs a single commit
+                int pages = Math.min(free, VACUUM_STEP_PAGES);
+                inTransaction(() -> {
+                    try (PreparedStatement p = conn.prepareStatement("PRAGMA incremental_vacuum")) {
+                        for (int i = 0; i < pages; i++) p.execute();
+                    }
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, String> loadConfig() throws SQLException {
+        return readConfig();
+    }
+
+    private Map<String, String> readConfig() throws SQLException {
+        lock.lock();
+        try {
+            Map<String, String> out = new TreeMap<>();
+            try (Statement s = conn.createStatement(); ResultSet r = s.executeQuery("SELECT key, value FROM config")) {
+                while (r.next()) out.put(r.getString("key"), r.getString("value"));
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveConfig(String key, String value) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "INSERT INTO config (key, value) VALUES (?, ?) ON CONFLICT (key) DO UPDATE SET value = excluded.value";
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setString(1, key);
+                p.setString(2, value);
+                p.executeUpdate();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int countByState(String state) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "SELECT n FROM job_counts WHERE state = ?";
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                p.setString(1, state);
+                try (ResultSet r = p.executeQuery()) {
+                    if (r.next()) return r.getInt("n");
+                }
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> countsByState() throws SQLException {
+        lock.lock();
+        try {
+            Map<String, Integer> out = new TreeMap<>();
+            try (Statement s = conn.createStatement(); ResultSet r = s.executeQuery("SELECT state, n FROM job_counts")) {
+                while (r.next()) out.put(r.getString("state"), r.getInt("n"));
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        conn.close(); // also closes the cached statements
+    }
+}
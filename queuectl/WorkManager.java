@@ -1,13 +1,31 @@
 package com.queuectl;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class WorkerManager {
+    private static final long LEASE_TICK_MS = 50; // how soon a lowered lease-ms shortens the heartbeat period
     private final List<Thread> threads = new ArrayList<>();
     private final List<Worker> workers = new ArrayList<>();
     private final JobStore store;
     private final Config cfg;
+    private GroupCommitter committer;
+    private ScheduledExecutorService leaseKeeper;
+    private Retention retention;
+    private final JobProcesses processes = new JobProcesses();
+    // settings of the last start, reused by scale()
+    private boolean virtual;
+    private int concurrency;
+    private Semaphore permits;
+    private QueueScheduler queues;
+    private int nextId;
 
     public WorkerManager(JobStore store, Config cfg) {
         this.store = store;
@@ -15,25 +33,154 @@ public class WorkerManager {
     }
 
     public synchronized void start(int count) {
+        start(count, false, 0);
+    }
+
+    /**
+     * Start count workers. With virtual=true each worker is a virtual thread, so thousands of workers
+     * blocked on long-running processes cost heap rather than OS threads. concurrency > 0 caps how many
+     * job processes run at once across all workers.
+     */
+    public synchronized void start(int count, boolean virtual, int concurrency) {
+        start(count, virtual, concurrency, null);
+    }
+
+    // As above, claiming only from the scheduler's queues in weighted order (any queue if null).
+    public synchronized void start(int count, boolean virtual, int concurrency, QueueScheduler queues) {
         stop(); // stop existing
-        for (int i = 0; i < count; i++) {
-            Worker w = new Worker("w-" + i, store, cfg);
-            Thread t = new Thread(w);
-            t.setName("worker-" + i);
-            threads.add(t);
-            workers.add(w);
-            t.start();
+        // jobs held by workers that died with their process go back now, not when their leases run out
+        try {
+            int recovered = store.recoverOrphans();
+            if (recovered > 0) System.out.println("Requeued " + recovered + " job(s) left processing by exited workers");
+        } catch (SQLException e) {
+            System.err.println("orphan recovery failed: " + e.getMessage());
         }
+        committer = new GroupCommitter(store, cfg);
+        startLeaseKeeper();
+        retention = new Retention(store, cfg);
+        this.virtual = virtual;
+        this.concurrency = concurrency;
+        this.permits = concurrency > 0 ? new Semaphore(concurrency) : null;
+        this.queues = queues;
+        nextId = 0;
+        for (int i = 0; i < count; i++) addWorker();
+    }
+
+    /**
+     * Grow or shrink to count workers without touching the others, keeping the settings of the last
+     * start (or platform threads, no concurrency cap and any queue if there was none). Removed workers
+     * are stopped the way stop() stops them.
+     */
+    public synchronized void scale(int count) {
+        if (committer == null) {
+            start(count, virtual, concurrency, queues);
+            return;
+        }
+        while (workers.size() < count) addWorker();
+        List<Worker> removed = new ArrayList<>();
+        List<Thread> removedThreads = new ArrayList<>();
+        while (workers.size() > Math.max(0, count)) {
+            removed.add(workers.remove(workers.size() - 1));
+            removedThreads.add(threads.remove(threads.size() - 1));
+        }
+        stopWorkers(removed, removedThreads);
+    }
+
+    private void addWorker() {
+        int i = nextId++;
+        Worker w = new Worker("w-" + i, store, committer, permits, queues, processes, cfg);
+        Thread t = virtual
+                ? Thread.ofVirtual().name("worker-" + i).unstarted(w)
+                : Thread.ofPlatform().name("worker-" + i).unstarted(w);
+        threads.add(t);
+        workers.add(w);
+        t.start();
+    }
+
+    // Heartbeat our leases well inside the lease window and reap anyone else's that expired. lease-ms
+    // can be lowered by `config set` while we run, so a short tick re-reads it rather than fixing the
+    // period at start: a beat every lease-ms / 3 keeps our leases alive by the other processes' clock.
+    private void startLeaseKeeper() {
+        leaseKeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-keeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] lastBeat = {0};
+        leaseKeeper.scheduleWithFixedDelay(() -> {
+            long now = System.currentTimeMillis();
+            if (now - lastBeat[0] < Math.max(1, cfg.getLeaseMs() / 3)) return;
+            lastBeat[0] = now;
+            try {
+                store.heartbeat();
+                int reaped = store.reapExpiredLeases();
+                if (reaped > 0) System.out.println("Requeued " + reaped + " job(s) with expired leases");
+            } catch (SQLException e) {
+                System.err.println("lease heartbeat failed: " + e.getMessage());
+            }
+        }, 0, LEASE_TICK_MS, TimeUnit.MILLISECONDS);
+        // `queuectl cancel` from any process: kill the tree of jobs we are running that were cancelled
+        leaseKeeper.scheduleWithFixedDelay(() -> {
+            try {
+                for (String id : store.cancelRequested()) processes.cancel(id, cfg.getKillGraceMs());
+            } catch (SQLException e) {
+                System.err.println("cancel check failed: " + e.getMessage());
+            }
+        }, 500, 500, TimeUnit.MILLISECONDS);
+        // settings saved with `config set` by any process take effect here within a second. Only keys
+        // saved since the last look are applied, so options given to `worker start` are not overridden.
+        Map<String, String> seen = new HashMap<>();
+        try { seen.putAll(store.loadConfig()); } catch (SQLException ignored) {}
+        leaseKeeper.scheduleWithFixedDelay(() -> {
+            try {
+                Map<String, String> saved = store.loadConfig();
+                Map<String, String> changed = new HashMap<>();
+                for (Map.Entry<String, String> e : saved.entrySet()) {
+                    if (!e.getValue().equals(seen.get(e.getKey()))) changed.put(e.getKey(), e.getValue());
+                }
+                seen.clear();
+                seen.putAll(saved);
+                for (String key : cfg.apply(changed)) {
+                    System.out.println("Config reloaded: " + key + "=" + cfg.get(key));
+                }
+            } catch (SQLException e) {
+                System.err.println("config reload failed: " + e.getMessage());
+            }
+        }, 1000, 1000, TimeUnit.MILLISECONDS);
     }
 
     public synchronized void stop() {
+        stopWorkers(workers, threads);
+        if (committer != null) {
+            committer.close();
+            committer = null;
+        }
+        if (leaseKeeper != null) {
+            leaseKeeper.shutdownNow();
+            leaseKeeper = null;
+        }
+        if (retention != null) {
+            retention.close();
+            retention = null;
+        }
+        threads.clear();
+        workers.clear();
+    }
+
+    private void stopWorkers(List<Worker> workers, List<Thread> threads) {
         for (Worker w : workers) w.shutdown();
         for (Thread t : threads) t.interrupt();
+        // a worker running a job kills its process tree first, which can take kill-grace-ms
+        long deadline = System.currentTimeMillis() + cfg.getKillGraceMs() + 2000;
         for (Thread t : threads) {
-            try { t.join(2000); } catch (InterruptedException ignored) {}
+            try { t.join(Math.max(1, deadline - System.currentTimeMillis())); } catch (InterruptedException ignored) {}
+        }
+        // workers release their own buffers on exit; this covers any that did not finish in time
+        for (Worker w : workers) {
+            try { w.releaseBuffered(); } catch (SQLException e) {
+                System.err.println("failed to release buffered jobs: " + e.getMessage());
+            }
         }
-        threads.clear();
-        workers.clear();
     }
 
     public synchronized int activeCount() {
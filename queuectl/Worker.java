@@ -1,18 +1,40 @@
 package com.queuectl;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
 
 public class Worker implements Runnable {
     private final String name;
     private final JobStore store;
+    private final GroupCommitter committer;
+    private final Semaphore permits; // caps concurrently running jobs (processes or handlers); null means unlimited
+    private final QueueScheduler queues; // weighted lanes to claim from; null means any queue, by priority
+    private final JobExecutor shell; // jobs with a command
+    private final JobExecutor handlers; // jobs with a handler, run in this process
     private final Config cfg;
     private volatile boolean running = true;
 
-    public Worker(String name, JobStore store, Config cfg) {
+    // reserved but not yet started jobs; drained by the worker, or released by WorkerManager on stop
+    private final ConcurrentLinkedDeque<Job> buffer = new ConcurrentLinkedDeque<>();
+    // finished jobs waiting to be acknowledged in bulk
+    private final List<Job> completed = new ArrayList<>();
+    private final List<Job> failed = new ArrayList<>();
+    private long lastFlush = System.currentTimeMillis();
+    private boolean stalled; // the last idle pass found a job due that the claim before it didn't take
+
+    public Worker(String name, JobStore store, GroupCommitter committer, Semaphore permits, QueueScheduler queues,
+                  JobProcesses processes, Config cfg) {
         this.name = name;
         this.store = store;
+        this.committer = committer;
+        this.permits = permits;
+        this.queues = queues;
+        this.shell = new ShellExecutor(name, processes, cfg);
+        this.handlers = new HandlerExecutor(name, processes, cfg);
         this.cfg = cfg;
     }
 
@@ -25,35 +47,70 @@ public class Worker implements Runnable {
         System.out.println("Worker " + name + " started");
         while (running) {
             try {
-                JobStore.JobHolder holder = new JobStore.JobHolder();
-                boolean got = store.markProcessingAndReserveNext(cfg, holder);
-                if (!got) {
-                    // no job, sleep a bit
-                    Thread.sleep(500);
+                Job job = buffer.poll();
+                if (job == null) {
+                    // acknowledge what we have before asking for more work
+                    flush();
+                    JobSignal signal = store.signal();
+                    long ticket = signal.ticket();
+                    long t0 = System.nanoTime();
+                    List<Job> batch = claim();
+                    Metrics.addPhase(Metrics.Phase.CLAIMING, System.nanoTime() - t0);
+                    if (batch.isEmpty()) {
+                        // no job: sleep until an enqueue/retry signals us or the next job our lanes can take is due
+                        t0 = System.nanoTime();
+                        Long next = store.nextDueAt(queues == null ? null : queues.open());
+                        boolean due = next != null && next <= System.currentTimeMillis();
+                        if (due && !stalled) {
+                            // it came due after the claim looked: look once more, right away
+                            stalled = true;
+                            continue;
+                        }
+                        // a time already past would wake us at once, over and over; a job we still can't
+                        // take waits for a signal (an enqueue, or a capped lane or key freeing up) instead
+                        if (next != null && !due) signal.scheduleAt(next);
+                        signal.await(ticket, cfg.getIdlePollMs());
+                        Metrics.addPhase(Metrics.Phase.IDLE, System.nanoTime() - t0);
+                        continue;
+                    }
+                    stalled = false;
+                    // a full batch means there may be more: let another idle worker look too
+                    if (batch.size() == cfg.getBatchSize()) signal.signal();
+                    buffer.addAll(batch);
                     continue;
                 }
-                Job job = holder.job;
                 System.out.println("[" + name + "] picked job " + job.id + " (attempt " + job.attempts + ")");
-                int exit = executeCommand(job.command);
-                if (exit == 0) {
-                    store.completeJob(job.id);
-                    System.out.println("[" + name + "] completed job " + job.id);
-                } else {
-                    // on failure, schedule retry or dead
-                    // refresh job from db to use updated attempts
-                    Job fresh = store.getJob(job.id);
-                    if (fresh != null) {
-                        store.failAndScheduleRetry(fresh, cfg);
-                        Job after = store.getJob(job.id);
-                        if ("dead".equals(after.state)) {
-                            System.out.println("[" + name + "] job moved to DLQ: " + job.id);
-                        } else {
-                            System.out.println("[" + name + "] job will retry at " + after.availableAt + " attempts=" + after.attempts);
-                        }
-                    } else {
-                        System.err.println("[" + name + "] job disappeared: " + job.id);
+                int exit;
+                long t0 = System.nanoTime();
+                if (permits != null) {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        // stopped before it started: releaseBuffered hands it back to the store and its lane
+                        buffer.addFirst(job);
+                        throw e;
                     }
                 }
+                long started = System.nanoTime();
+                Metrics.addPhase(Metrics.Phase.IDLE, started - t0);
+                try {
+                    exit = (job.handler != null ? handlers : shell).execute(job);
+                } catch (InterruptedException e) {
+                    buffer.addFirst(job); // stopped mid-run: released with the unstarted ones, no attempt used
+                    throw e;
+                } finally {
+                    if (permits != null) permits.release();
+                }
+                long ran = System.nanoTime() - started;
+                Metrics.EXECUTION.record(ran);
+                Metrics.addPhase(Metrics.Phase.RUNNING, ran);
+                if (queues != null) queues.finished(job.queue);
+                if (exit == 0) completed.add(job);
+                else failed.add(job);
+                if (completed.size() + failed.size() >= cfg.getBatchSize()
+                        || System.currentTimeMillis() - lastFlush >= cfg.getFlushIntervalMs()) {
+                    flush();
+                }
             } catch (SQLException e) {
                 System.err.println("[" + name + "] SQL error: " + e.getMessage());
                 try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
@@ -66,29 +123,87 @@ public class Worker implements Runnable {
                 try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
             }
         }
+        try {
+            flush();
+            releaseBuffered();
+        } catch (SQLException e) {
+            System.err.println("[" + name + "] SQL error on shutdown: " + e.getMessage());
+        }
         System.out.println("Worker " + name + " stopped");
     }
 
-    private int executeCommand(String command) {
-        try {
-            // Execute using shell for composite commands
-            String[] cmd = {"/bin/sh", "-c", command};
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            Process p = pb.start();
+    // Claim the next batch: from any queue, or lane by lane in the scheduler's weighted order.
+    private List<Job> claim() throws SQLException {
+        if (queues == null) return reserve(null, cfg.getBatchSize());
+        for (QueueScheduler.Lane lane : queues.order()) {
+            int room = queues.acquire(lane, cfg.getBatchSize());
+            if (room == 0) continue;
+            List<Job> batch = reserve(lane.name, room);
+            queues.release(lane, room - batch.size());
+            if (!batch.isEmpty()) return batch;
+        }
+        return List.of();
+    }
+
+    private List<Job> reserve(String queue, int n) throws SQLException {
+        long t0 = System.nanoTime();
+        List<Job> batch = store.reserveBatch(queue, n);
+        Metrics.CLAIM.record(System.nanoTime() - t0);
+        long now = System.currentTimeMillis();
+        for (Job j : batch) Metrics.QUEUE_WAIT.record((now - j.availableAtMillis()) * 1_000_000);
+        return batch;
+    }
 
-            // stream output to console
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                 BufferedReader err = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
-                String line;
-                while (in.ready() && (line = in.readLine()) != null) { System.out.println("OUT: " + line); }
-                while (err.ready() && (line = err.readLine()) != null) { System.err.println("ERR: " + line); }
-            } catch (Exception ignore) {}
+    // Hand pending acknowledgements to the group committer and wait until they are durable.
+    private void flush() throws SQLException {
+        lastFlush = System.currentTimeMillis();
+        if (completed.isEmpty() && failed.isEmpty()) return;
+        long t0 = System.nanoTime();
+        try {
+            committer.submit(completed, failed).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException se) throw se;
+            throw e;
+        } finally {
+            Metrics.addPhase(Metrics.Phase.ACKNOWLEDGING, System.nanoTime() - t0);
+        }
+        for (Job job : completed) {
+            if (JobStore.LEASE_LOST.equals(job.state)) {
+                Metrics.LEASE_LOST.increment();
+                System.err.println("[" + name + "] lease on job " + job.id + " expired before completion; result discarded");
+            } else {
+                Metrics.COMPLETED.increment();
+                System.out.println("[" + name + "] completed job " + job.id);
+            }
+        }
+        for (Job job : failed) {
+            if (JobStore.LEASE_LOST.equals(job.state)) {
+                Metrics.LEASE_LOST.increment();
+                System.err.println("[" + name + "] lease on job " + job.id + " expired before failure was recorded");
+            } else if ("cancelled".equals(job.state)) {
+                Metrics.CANCELLED.increment();
+                System.out.println("[" + name + "] job " + job.id + " cancelled");
+            } else if ("dead".equals(job.state)) {
+                Metrics.DEAD.increment();
+                System.out.println("[" + name + "] job moved to DLQ: " + job.id);
+            } else {
+                Metrics.RETRIED.increment();
+                System.out.println("[" + name + "] job " + job.id + " will retry at " + job.availableAt + " attempts=" + job.attempts);
+            }
+        }
+        completed.clear();
+        failed.clear();
+    }
 
-            int exit = p.waitFor();
-            return exit;
-        } catch (Exception e) {
-            System.err.println("executeCommand error: " + e.getMessage());
-            return 1;
+    // Return reserved jobs that were never started to the queue.
+    void releaseBuffered() throws SQLException {
+        List<String> ids = new ArrayList<>();
+        for (Job j; (j = buffer.poll()) != null; ) {
+            ids.add(j.id);
+            if (queues != null) queues.finished(j.queue);
         }
+        if (ids.isEmpty()) return;
+        store.releaseJobs(ids);
+        System.out.println("[" + name + "] released " + ids.size() + " unstarted job(s)");
     }
 }
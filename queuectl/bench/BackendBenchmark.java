@@ -0,0 +1,94 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Compares the storage backends: push rate (N threads enqueueing) and drain rate (N threads
+ * claiming batch-size jobs and completing them), then reopens the store to time index recovery.
+ *
+ * Usage: BackendBenchmark [sqlite|log|both] [threads] [jobs] [synchronous] [batch-size]
+ *        (default both 8 200000 NORMAL 64)
+ */
+public class BackendBenchmark {
+    public static void main(String[] args) throws Exception {
+        String which = args.length > 0 ? args[0] : "both";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int jobs = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        String sync = args.length > 3 ? args[3] : "NORMAL";
+        int batch = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        System.out.printf("threads=%d jobs=%d synchronous=%s batch-size=%d%n", threads, jobs, sync, batch);
+        for (String backend : List.of("sqlite", "log")) {
+            if (which.equals("both") || which.equals(backend)) run(backend, threads, jobs, sync, batch);
+        }
+    }
+
+    private static void run(String backend, int threads, int jobs, String sync, int batch) throws Exception {
+        Path dir = Files.createTempDirectory("backend-bench");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve(backend.equals("log") ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous(sync);
+        try {
+            JobStore store = JobStore.open(cfg);
+            long t0 = System.nanoTime();
+            parallel(threads, t -> {
+                for (int i = t; i < jobs; i += threads) store.enqueue(new Job("job-" + i, "true", 3));
+            });
+            double push = jobs / ((System.nanoTime() - t0) / 1e9);
+
+            t0 = System.nanoTime();
+            parallel(threads, t -> {
+                List<Job> claimed;
+                while (!(claimed = store.reserveBatch(batch)).isEmpty()) {
+                    store.applyTransitions(claimed, List.of(), cfg);
+                }
+            });
+            double drain = jobs / ((System.nanoTime() - t0) / 1e9);
+            store.close();
+
+            t0 = System.nanoTime();
+            JobStore reopened = JobStore.open(cfg);
+            double reopenMs = (System.nanoTime() - t0) / 1e6;
+            int completed = reopened.countByState("completed");
+            reopened.close();
+
+            System.out.printf("%-6s push: %10.0f jobs/sec  drain: %10.0f jobs/sec  reopen: %8.1f ms (%d completed)%n",
+                    backend, push, drain, reopenMs, completed);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    private static void parallel(int threads, Task task) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            new Thread(() -> {
+                try {
+                    task.run(id);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    finished.countDown();
+                }
+            }).start();
+        }
+        finished.await();
+    }
+}
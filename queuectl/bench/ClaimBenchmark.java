@@ -0,0 +1,84 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+import com.queuectl.SqliteJobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Measures claim latency of {@link JobStore#markProcessingAndReserveNext} as the jobs table grows.
+ * The table is padded with completed rows (the usual shape of a long-lived queue.db), then a fixed
+ * number of pending jobs is enqueued and claimed one by one.
+ *
+ * Usage: ClaimBenchmark [rows,...]   (default 10000,100000,1000000,10000000)
+ */
+public class ClaimBenchmark {
+    private static final int CLAIMS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        long[] sizes = {10_000, 100_000, 1_000_000, 10_000_000};
+        if (args.length > 0) sizes = Arrays.stream(args[0].split(",")).mapToLong(Long::parseLong).toArray();
+
+        System.out.printf("%12s %10s %10s %10s%n", "rows", "avg_us", "p50_us", "p99_us");
+        for (long rows : sizes) {
+            Path db = Files.createTempFile("claim-bench", ".db");
+            try {
+                run(db, rows);
+            } finally {
+                Files.deleteIfExists(db);
+            }
+        }
+    }
+
+    private static void run(Path db, long rows) throws Exception {
+        JobStore store = new SqliteJobStore(db.toString());
+        fillCompleted(db, rows);
+        Config cfg = new Config();
+        for (int i = 0; i < CLAIMS; i++) store.enqueue(new Job("pending-" + i, "true", 3));
+
+        long[] lat = new long[CLAIMS];
+        JobStore.JobHolder holder = new JobStore.JobHolder();
+        for (int i = 0; i < CLAIMS; i++) {
+            long t0 = System.nanoTime();
+            if (!store.markProcessingAndReserveNext(cfg, holder)) throw new IllegalStateException("nothing to claim");
+            lat[i] = System.nanoTime() - t0;
+        }
+        store.close();
+
+        Arrays.sort(lat);
+        double avg = Arrays.stream(lat).average().orElse(0) / 1000.0;
+        System.out.printf("%12d %10.1f %10.1f %10.1f%n", rows, avg, lat[CLAIMS / 2] / 1000.0, lat[CLAIMS * 99 / 100] / 1000.0);
+    }
+
+    private static void fillCompleted(Path db, long rows) throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + db)) {
+            try (Statement s = c.createStatement()) {
+                s.execute("PRAGMA synchronous=OFF");
+            }
+            c.setAutoCommit(false);
+            String sql = "INSERT INTO jobs (id, command, state, attempts, max_retries, created_at, updated_at, available_at) VALUES (?, 'true', 'completed', 1, 3, ?, ?, ?)";
+            long base = System.currentTimeMillis() - rows;
+            try (PreparedStatement p = c.prepareStatement(sql)) {
+                for (long i = 0; i < rows; i++) {
+                    String ts = java.time.Instant.ofEpochMilli(base + i).toString();
+                    p.setString(1, "done-" + i);
+                    p.setString(2, ts);
+                    p.setString(3, ts);
+                    p.setLong(4, base + i);
+                    p.addBatch();
+                    if (i % 10_000 == 9_999) { p.executeBatch(); c.commit(); }
+                }
+                p.executeBatch();
+            }
+            c.commit();
+        }
+    }
+}
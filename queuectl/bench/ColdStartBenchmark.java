@@ -0,0 +1,184 @@
+package com.queuectl.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Time to the first claimed job in a fresh process, on a large SQLite store. The store gets --jobs
+ * rows: --pending due pending jobs, --orphans jobs left processing by a process that has exited
+ * (holding year-long leases, so only startup recovery frees them) and completed jobs for the rest.
+ * Each run puts the orphans back, then launches a JVM with this class path that opens the store,
+ * recovers the orphans and claims one job, as `worker start` does, and reports each step and the
+ * time since its JVM started. The claimed job is released again, so every run sees the same store.
+ * The page cache is warm after the build; drop it between runs to measure a cold disk. --jvm-opts
+ * are passed to the launched JVMs, e.g. "-XX:TieredStopAtLevel=1 -XX:SharedArchiveFile=q.jsa".
+ *
+ * Usage: ColdStartBenchmark [--jobs 10000000] [--pending 2000000] [--orphans 100] [--runs 5]
+ *                           [--db queue.db (built if missing, kept)] [--jvm-opts "..."] [--out result.json]
+ */
+public class ColdStartBenchmark {
+    private static final long YEAR_MS = 365L * 24 * 3600 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            child(args[1]);
+            return;
+        }
+        long jobs = 10_000_000, pending = 2_000_000;
+        int orphans = 100, runs = 5;
+        Path db = null, out = null;
+        List<String> jvmOpts = List.of();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--jobs" -> jobs = Long.parseLong(args[i + 1]);
+                case "--pending" -> pending = Long.parseLong(args[i + 1]);
+                case "--orphans" -> orphans = Integer.parseInt(args[i + 1]);
+                case "--runs" -> runs = Integer.parseInt(args[i + 1]);
+                case "--db" -> db = Path.of(args[i + 1]);
+                case "--jvm-opts" -> jvmOpts = List.of(args[i + 1].trim().split("\\s+"));
+                case "--out" -> out = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        boolean temporary = db == null;
+        if (temporary) db = Files.createTempDirectory("cold-bench").resolve("queue.db");
+        Map<String, Object> res = new LinkedHashMap<>();
+        try {
+            if (!Files.exists(db)) {
+                long t0 = System.nanoTime();
+                build(db, jobs, pending, orphans);
+                res.put("build_secs", Math.round((System.nanoTime() - t0) / 1e8) / 10.0);
+            }
+            res.put("jobs", jobs);
+            res.put("pending", pending);
+            res.put("orphans", orphans);
+            res.put("runs", runs);
+            res.put("jvm_opts", String.join(" ", jvmOpts));
+            String dead = deadOwner(db);
+            long[][] samples = new long[4][runs];
+            for (int r = 0; r < runs; r++) {
+                orphan(db, jobs, orphans, dead);
+                String[] f = launch(db, jvmOpts).split(" ");
+                for (int k = 0; k < 4; k++) samples[k][r] = Long.parseLong(f[k]);
+                if (Long.parseLong(f[4]) != orphans) throw new IllegalStateException("recovered " + f[4] + " of " + orphans + " orphans");
+            }
+            res.put("open_ms", Percentiles.of(samples[0], runs, 1e6));
+            res.put("recover_ms", Percentiles.of(samples[1], runs, 1e6));
+            res.put("first_claim_ms", Percentiles.of(samples[2], runs, 1e6));
+            res.put("since_jvm_start_ms", Percentiles.of(samples[3], runs, 1e6));
+        } finally {
+            if (temporary) {
+                for (String suffix : List.of("", "-wal", "-shm")) Files.deleteIfExists(Path.of(db + suffix));
+                Files.deleteIfExists(db.getParent());
+            }
+        }
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (out != null) mapper.writeValue(out.toFile(), res);
+        else System.out.println(mapper.writeValueAsString(res));
+    }
+
+    // One fresh process: open, recover, claim. Prints nanoseconds for each step and since JVM start, then how many were recovered.
+    private static void child(String db) throws Exception {
+        long t0 = System.nanoTime();
+        Config cfg = new Config();
+        cfg.setStorePath(db);
+        try (JobStore store = JobStore.open(cfg)) {
+            long t1 = System.nanoTime();
+            int recovered = store.recoverOrphans();
+            long t2 = System.nanoTime();
+            List<Job> claimed = store.reserveBatch(1);
+            long t3 = System.nanoTime();
+            long sinceStart = (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) * 1_000_000;
+            if (claimed.isEmpty()) throw new IllegalStateException("nothing to claim");
+            store.releaseJobs(List.of(claimed.get(0).id));
+            System.out.println((t1 - t0) + " " + (t2 - t1) + " " + (t3 - t2) + " " + sinceStart + " " + recovered);
+        }
+    }
+
+    private static String launch(Path db, List<String> jvmOpts) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String opt : jvmOpts) {
+            if (!opt.isEmpty()) cmd.add(opt);
+        }
+        cmd.addAll(List.of("-cp", System.getProperty("java.class.path"), ColdStartBenchmark.class.getName(), "--child", db.toString()));
+        Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String line = new String(p.getInputStream().readAllBytes()).strip();
+        if (p.waitFor() != 0) throw new IllegalStateException("child exited " + p.exitValue());
+        return line;
+    }
+
+    // Schema from the store itself, rows from one INSERT ... SELECT: the last jobs are the orphans, then the pending ones.
+    private static void build(Path db, long jobs, long pending, int orphans) throws Exception {
+        Config cfg = new Config();
+        cfg.setStorePath(db.toString());
+        JobStore.open(cfg).close();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+             Statement s = conn.createStatement()) {
+            s.execute("PRAGMA synchronous=OFF");
+            conn.setAutoCommit(false);
+            try (PreparedStatement p = conn.prepareStatement("""
+                    WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i < ? - 1)
+                    INSERT INTO jobs (id, command, state, attempts, max_retries, created_at, updated_at, available_at)
+                    SELECT printf('job-%09d', i), 'true', CASE WHEN i < ? THEN 'completed' ELSE 'pending' END,
+                           CASE WHEN i < ? THEN 1 ELSE 0 END, 3,
+                           strftime('%Y-%m-%dT%H:%M:%fZ', ? / 1000 + i / 1000, 'unixepoch'),
+                           strftime('%Y-%m-%dT%H:%M:%fZ', ? / 1000 + i / 1000, 'unixepoch'), ? + i
+                    FROM n
+                    """)) {
+                long done = jobs - pending - orphans, since = System.currentTimeMillis() - jobs;
+                p.setLong(1, jobs);
+                p.setLong(2, done);
+                p.setLong(3, done);
+                p.setLong(4, since);
+                p.setLong(5, since);
+                p.setLong(6, since);
+                p.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    // Owner of a process that has exited: ours with the pid of a `true` that was waited for, and another token.
+    private static String deadOwner(Path db) throws Exception {
+        Config cfg = new Config();
+        cfg.setStorePath(db.toString());
+        String[] f;
+        try (JobStore store = JobStore.open(cfg)) {
+            f = store.owner().split(":");
+        }
+        Process p = new ProcessBuilder("true").start();
+        p.waitFor();
+        f[1] = String.valueOf(p.pid());
+        f[f.length - 1] = UUID.randomUUID().toString();
+        return String.join(":", f);
+    }
+
+    // Put the last orphans jobs back in processing under dead, with a lease a year out.
+    private static void orphan(Path db, long jobs, int orphans, String dead) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+             PreparedStatement p = conn.prepareStatement(
+                     "UPDATE jobs SET state='processing', attempts=1, owner=?, lease_expires_at=? WHERE id >= ?")) {
+            p.setString(1, dead);
+            p.setLong(2, System.currentTimeMillis() + YEAR_MS);
+            p.setString(3, String.format("job-%09d", jobs - orphans));
+            p.executeUpdate();
+        }
+    }
+}
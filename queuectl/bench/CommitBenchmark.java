@@ -0,0 +1,78 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.GroupCommitter;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+import com.queuectl.SqliteJobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares acknowledgement throughput of per-row autocommit (JobStore.completeJob) against the
+ * GroupCommitter, with N threads claiming (batch-size jobs at a time) and completing no-op jobs
+ * as fast as they can.
+ *
+ * Usage: CommitBenchmark [threads] [jobs] [synchronous] [commit-interval-ms] [batch-size]
+ *        (default 16 20000 FULL 1 8)
+ */
+public class CommitBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int jobs = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Config cfg = new Config();
+        if (args.length > 2) cfg.setSynchronous(args[2]);
+        if (args.length > 3) cfg.setCommitIntervalMs(Long.parseLong(args[3]));
+        cfg.setBatchSize(args.length > 4 ? Integer.parseInt(args[4]) : 8);
+
+        System.out.printf("threads=%d jobs=%d synchronous=%s commit-interval-ms=%d batch-size=%d%n",
+                threads, jobs, cfg.getSynchronous(), cfg.getCommitIntervalMs(), cfg.getBatchSize());
+        System.out.printf("per-row commit: %10.0f jobs/sec%n", run(threads, jobs, cfg, false));
+        System.out.printf("group commit:   %10.0f jobs/sec%n", run(threads, jobs, cfg, true));
+    }
+
+    private static double run(int threads, int jobs, Config cfg, boolean group) throws Exception {
+        Path db = Files.createTempFile("commit-bench", ".db");
+        try {
+            JobStore store = new SqliteJobStore(db.toString(), cfg);
+            for (int i = 0; i < jobs; i++) store.enqueue(new Job("job-" + i, "true", 3));
+            GroupCommitter committer = group ? new GroupCommitter(store, cfg) : null;
+
+            AtomicInteger done = new AtomicInteger();
+            CountDownLatch finished = new CountDownLatch(threads);
+            long t0 = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    try {
+                        while (true) {
+                            List<Job> batch = store.reserveBatch(cfg.getBatchSize());
+                            if (batch.isEmpty()) break;
+                            for (Job j : batch) {
+                                if (group) committer.submit(List.of(j), List.of()).join();
+                                else store.completeJob(j.id);
+                                done.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        finished.countDown();
+                    }
+                }).start();
+            }
+            finished.await();
+            double secs = (System.nanoTime() - t0) / 1e9;
+            if (committer != null) committer.close();
+            store.close();
+            return done.get() / secs;
+        } finally {
+            Files.deleteIfExists(db);
+            Files.deleteIfExists(Path.of(db + "-wal"));
+            Files.deleteIfExists(Path.of(db + "-shm"));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.queuectl.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.queuectl.Config;
+import com.queuectl.Daemon;
+import com.queuectl.DaemonClient;
+import com.queuectl.JobStore;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Cost of one CLI command sent to a running daemon versus a fresh `queuectl` process. The daemon runs
+ * in this JVM on a temporary socket and store; each request opens its own connection, as the CLI
+ * does, and is timed from connect to the exit frame. The cold-start runs launch Main with this JVM's
+ * class path against a separate temporary store, so they include JVM startup and the store open.
+ *
+ * Usage: DaemonBenchmark [--requests 2000] [--cold-runs 5] [--synchronous NORMAL] [--out result.json]
+ */
+public class DaemonBenchmark {
+    public static void main(String[] args) throws Exception {
+        int requests = 2000, coldRuns = 5;
+        String sync = "NORMAL";
+        Path out = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--requests" -> requests = Integer.parseInt(args[i + 1]);
+                case "--cold-runs" -> coldRuns = Integer.parseInt(args[i + 1]);
+                case "--synchronous" -> sync = args[i + 1];
+                case "--out" -> out = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("daemon-bench");
+        Map<String, Object> res = new LinkedHashMap<>();
+        try {
+            Config cfg = new Config();
+            cfg.setStorePath(dir.resolve("queue.db").toString());
+            cfg.setSynchronous(sync);
+            cfg.setMetricsPort(0);
+            Path socket = dir.resolve("queuectl.sock");
+            Daemon daemon = new Daemon(cfg, JobStore.open(cfg), socket);
+            Thread server = new Thread(() -> {
+                try { daemon.serve(); } catch (Exception e) { e.printStackTrace(); }
+            });
+            server.start();
+
+            PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+            for (int i = 0; i < 500; i++) send(socket, cfg, "warm-" + i, discard); // JIT warm-up, discarded
+            long[] lat = new long[requests];
+            long t0 = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                long s = System.nanoTime();
+                send(socket, cfg, "job-" + i, discard);
+                lat[i] = System.nanoTime() - s;
+            }
+            double secs = (System.nanoTime() - t0) / 1e9;
+            daemon.close();
+            server.join();
+
+            res.put("requests", requests);
+            res.put("synchronous", sync);
+            res.put("daemon_enqueues_per_sec", Math.round(requests / secs * 10) / 10.0);
+            res.put("daemon_enqueue_ms", Percentiles.of(lat, requests, 1e6));
+            if (coldRuns > 0) res.put("cold_process_enqueue_ms", coldStart(dir.resolve("cold"), coldRuns));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (out != null) mapper.writeValue(out.toFile(), res);
+        else System.out.println(mapper.writeValueAsString(res));
+    }
+
+    private static void send(Path socket, Config cfg, String id, PrintStream discard) throws Exception {
+        String[] args = {"enqueue", "{\"id\":\"" + id + "\",\"command\":\"true\"}"};
+        int exit = DaemonClient.run(DaemonClient.connect(socket), args, cfg, InputStream.nullInputStream(), discard, discard);
+        if (exit != 0) throw new IllegalStateException("enqueue " + id + " failed");
+    }
+
+    // `java com.queuectl.Main enqueue ...` from scratch, as a shell script calling the CLI pays it.
+    private static Map<String, Double> coldStart(Path dir, int runs) throws Exception {
+        Files.createDirectories(dir);
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        long[] lat = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "com.queuectl.Main",
+                    "enqueue", "{\"id\":\"cold-" + i + "\",\"command\":\"true\"}")
+                    .directory(dir.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.environment().remove("QUEUECTL_SOCKET");
+            pb.environment().put("QUEUECTL_STORE", dir.resolve("queue.db").toString());
+            long s = System.nanoTime();
+            int exit = pb.start().waitFor();
+            lat[i] = System.nanoTime() - s;
+            if (exit != 0) throw new IllegalStateException("cold enqueue exited " + exit);
+        }
+        return Percentiles.of(lat, runs, 1e6);
+    }
+}
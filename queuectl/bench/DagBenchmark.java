@@ -0,0 +1,150 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Scheduling cost of dependency graphs, with no processes: every DAG is enqueued in chunks, then drained
+ * by claiming whatever is pending and completing it at once, until nothing is left. A second copy has
+ * its roots fail, and the time for that failure to reach every job downstream is reported. With
+ * incremental readiness the cost per job stays flat as the graph grows; a rescan per completion would
+ * make it grow with the graph.
+ *
+ *   chain     job i depends on job i-1 (one job claimable at a time)
+ *   fanout    one root, every other job depends on it
+ *   fanin     one job depends on all the others
+ *   layered   layers of --width jobs, each depending on 3 random jobs of the layer before
+ *
+ * Usage: DagBenchmark [--nodes 10000,100000] [--shapes chain,fanout,fanin,layered] [--width 100]
+ *                     [--batch 256] [--backend sqlite|log]
+ */
+public class DagBenchmark {
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10_000, 100_000};
+        List<String> shapes = List.of("chain", "fanout", "fanin", "layered");
+        int width = 100, batch = 256;
+        String backend = "sqlite";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--nodes" -> sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--shapes" -> shapes = List.of(args[i + 1].split(","));
+                case "--width" -> width = Integer.parseInt(args[i + 1]);
+                case "--batch" -> batch = Integer.parseInt(args[i + 1]);
+                case "--backend" -> backend = args[i + 1];
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        int layerWidth = width, claimBatch = batch;
+        System.out.printf("%-8s %8s %8s %10s %10s %12s %10s%n", "shape", "nodes", "edges", "enqueue_s", "drain_s", "drain_us/job", "fail_s");
+        for (String shape : shapes) {
+            for (int nodes : sizes) {
+                List<Job> dag = build(shape, nodes, layerWidth);
+                long edges = dag.stream().mapToLong(j -> j.dependsOn == null ? 0 : j.dependsOn.size()).sum();
+                double[] drain = withStore(backend, store -> drain(store, dag, claimBatch));
+                double[] fail = withStore(backend, store -> failRoots(store, build(shape, nodes, layerWidth)));
+                System.out.printf("%-8s %8d %8d %10.2f %10.2f %12.1f %10.3f%n", shape, nodes, edges,
+                        drain[0], drain[1], drain[1] * 1e6 / nodes, fail[1]);
+            }
+        }
+    }
+
+    private static List<Job> build(String shape, int nodes, int width) {
+        Random rnd = new Random(42);
+        List<Job> jobs = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            Job j = new Job("n" + i, "true", 0);
+            switch (shape) {
+                case "chain" -> j.dependsOn = i == 0 ? null : List.of("n" + (i - 1));
+                case "fanout" -> j.dependsOn = i == 0 ? null : List.of("n0");
+                case "fanin" -> {
+                    if (i == nodes - 1) {
+                        List<String> all = new ArrayList<>(nodes - 1);
+                        for (int k = 0; k < nodes - 1; k++) all.add("n" + k);
+                        j.dependsOn = all;
+                    }
+                }
+                case "layered" -> {
+                    int layer = i / width;
+                    if (layer > 0) {
+                        List<String> parents = new ArrayList<>(3);
+                        while (parents.size() < Math.min(3, width)) {
+                            String p = "n" + ((layer - 1) * width + rnd.nextInt(width));
+                            if (!parents.contains(p)) parents.add(p);
+                        }
+                        j.dependsOn = parents;
+                    }
+                }
+                default -> throw new IllegalArgumentException("unknown shape " + shape);
+            }
+            jobs.add(j);
+        }
+        return jobs;
+    }
+
+    // Returns {enqueue seconds, drain seconds}.
+    private static double[] drain(JobStore store, List<Job> dag, int batch) throws Exception {
+        long t0 = System.nanoTime();
+        enqueue(store, dag);
+        long t1 = System.nanoTime();
+        long done = 0;
+        for (List<Job> claimed; !(claimed = store.reserveBatch(batch)).isEmpty(); ) {
+            List<String> ids = new ArrayList<>(claimed.size());
+            for (Job j : claimed) ids.add(j.id);
+            store.completeJobs(ids);
+            done += ids.size();
+        }
+        long t2 = System.nanoTime();
+        if (done != dag.size() || store.countByState("completed") != dag.size()) {
+            throw new IllegalStateException("drained " + done + " of " + dag.size() + " jobs; counts " + store.countsByState());
+        }
+        return new double[] {(t1 - t0) / 1e9, (t2 - t1) / 1e9};
+    }
+
+    // Fail every root (max_retries 0, so one failure is final). Returns {0, seconds spent in failJobs}.
+    private static double[] failRoots(JobStore store, List<Job> dag) throws Exception {
+        enqueue(store, dag);
+        List<Job> roots = new ArrayList<>();
+        for (List<Job> claimed; !(claimed = store.reserveBatch(1000)).isEmpty(); ) roots.addAll(claimed);
+        long t0 = System.nanoTime();
+        store.failJobs(roots, new Config());
+        long t1 = System.nanoTime();
+        int notRun = store.countByState("dead");
+        if (notRun != dag.size()) throw new IllegalStateException(notRun + " of " + dag.size() + " jobs dead; counts " + store.countsByState());
+        return new double[] {0, (t1 - t0) / 1e9};
+    }
+
+    private static void enqueue(JobStore store, List<Job> dag) throws Exception {
+        for (int i = 0; i < dag.size(); i += 1000) {
+            List<Job> chunk = dag.subList(i, Math.min(dag.size(), i + 1000));
+            int n = store.enqueueBatch(chunk);
+            if (n != chunk.size()) throw new IllegalStateException("enqueued " + n + " of " + chunk.size());
+        }
+    }
+
+    private interface Run { double[] apply(JobStore store) throws Exception; }
+
+    private static double[] withStore(String backend, Run run) throws Exception {
+        Path dir = Files.createTempDirectory("dag-bench");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous("OFF");
+        try (JobStore store = JobStore.open(cfg)) {
+            return run.apply(store);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Cost of idempotent enqueue. Each store is padded with --rows keyed jobs, then --jobs more are enqueued,
+ * one call each (enqueue) and in chunks of 1000 (enqueueBatch), in three modes:
+ *
+ *   nokey    no dedupe_key: the plain insert
+ *   newkey   a dedupe_key never seen before, the common case for a producer
+ *   retry    the same ids and keys again, as a producer retrying after a timeout sends them
+ *
+ * newkey against nokey is what taking a key costs a job that is not a duplicate.
+ *
+ * Usage: DedupeBenchmark [--jobs 20000] [--rows 100000] [--backend sqlite|log] [--synchronous NORMAL]
+ */
+public class DedupeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int jobs = 20_000, rows = 100_000;
+        String backend = "sqlite", sync = "NORMAL";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--jobs" -> jobs = Integer.parseInt(args[i + 1]);
+                case "--rows" -> rows = Integer.parseInt(args[i + 1]);
+                case "--backend" -> backend = args[i + 1];
+                case "--synchronous" -> sync = args[i + 1];
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        run(backend, sync, 2000, 1000, false); // warm-up, discarded
+        System.out.printf("%-7s %-8s %-6s %12s %10s%n", "backend", "mode", "call", "jobs/sec", "us/job");
+        run(backend, sync, jobs, rows, true);
+    }
+
+    private static void run(String backend, String sync, int jobs, int rows, boolean print) throws Exception {
+        Path dir = Files.createTempDirectory("dedupe-bench");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous(sync);
+        try (JobStore store = JobStore.open(cfg)) {
+            List<Job> pad = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) pad.add(job("pad-" + i, "pad-" + i));
+            for (int i = 0; i < pad.size(); i += 1000) store.enqueueBatch(pad.subList(i, Math.min(pad.size(), i + 1000)));
+            for (String call : List.of("single", "batch")) {
+                for (String mode : List.of("nokey", "newkey", "retry")) {
+                    // retry resends exactly what newkey enqueued
+                    String prefix = call + "-" + (mode.equals("retry") ? "newkey" : mode) + "-";
+                    List<Job> batch = new ArrayList<>(jobs);
+                    for (int i = 0; i < jobs; i++) batch.add(job(prefix + i, mode.equals("nokey") ? null : prefix + i));
+                    long t0 = System.nanoTime();
+                    int inserted = 0;
+                    if (call.equals("single")) {
+                        for (Job j : batch) {
+                            store.enqueue(j);
+                            if (j.state.equals("pending")) inserted++;
+                        }
+                    } else {
+                        for (int i = 0; i < batch.size(); i += 1000) inserted += store.enqueueBatch(batch.subList(i, Math.min(batch.size(), i + 1000)));
+                    }
+                    long nanos = System.nanoTime() - t0;
+                    int expected = mode.equals("retry") ? 0 : jobs;
+                    if (inserted != expected) throw new IllegalStateException(mode + ": inserted " + inserted + ", expected " + expected);
+                    if (print) System.out.printf("%-7s %-8s %-6s %12.0f %10.1f%n", backend, mode, call, jobs / (nanos / 1e9), nanos / 1e3 / jobs);
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static Job job(String id, String key) {
+        Job j = new Job(id, "true", 3);
+        j.dedupeKey = key;
+        return j;
+    }
+}
@@ -0,0 +1,166 @@
+package com.queuectl.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Per-operation latency and throughput of the JobStore hot paths (enqueue, markProcessingAndReserveNext,
+ * completeJob, failAndScheduleRetry) for every combination of backend, table size and thread count.
+ * Each combination gets a fresh store padded with completed rows; a warm-up pass on a small store runs
+ * first so the JIT has compiled the paths before anything is recorded.
+ *
+ * Results are written as a JSON array (stdout, or --out FILE) so runs from two commits can be diffed;
+ * a readable table goes to stderr.
+ *
+ * Usage: HotPathBenchmark [--backends sqlite,log] [--rows 10000,100000] [--threads 1,4] [--ops 2000]
+ *                         [--synchronous NORMAL] [--out results.json]
+ */
+public class HotPathBenchmark {
+    private static final List<String> OPS = List.of("enqueue", "claim", "complete", "fail");
+
+    public static void main(String[] args) throws Exception {
+        List<String> backends = List.of("sqlite", "log");
+        long[] rows = {10_000, 100_000};
+        int[] threads = {1, 4};
+        int ops = 2000;
+        String sync = "NORMAL";
+        Path out = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--backends" -> backends = List.of(args[i + 1].split(","));
+                case "--rows" -> rows = Arrays.stream(args[i + 1].split(",")).mapToLong(Long::parseLong).toArray();
+                case "--threads" -> threads = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--ops" -> ops = Integer.parseInt(args[i + 1]);
+                case "--synchronous" -> sync = args[i + 1];
+                case "--out" -> out = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        for (String backend : backends) {
+            for (String op : OPS) measure(backend, op, 1000, 1, ops, sync); // warm-up, discarded
+        }
+        List<Map<String, Object>> results = new ArrayList<>();
+        System.err.printf("%-7s %-9s %9s %7s %12s %9s %9s %9s %9s%n", "backend", "op", "rows", "threads", "ops/sec", "mean_us", "p50_us", "p99_us", "p999_us");
+        for (String backend : backends) {
+            for (long r : rows) {
+                for (int t : threads) {
+                    for (String op : OPS) {
+                        Map<String, Object> res = measure(backend, op, r, t, ops, sync);
+                        results.add(res);
+                        @SuppressWarnings("unchecked")
+                        Map<String, Double> lat = (Map<String, Double>) res.get("latency_us");
+                        System.err.printf("%-7s %-9s %9d %7d %12.0f %9.1f %9.1f %9.1f %9.1f%n", backend, op, r, t,
+                                (Double) res.get("ops_per_sec"), lat.get("mean"), lat.get("p50"), lat.get("p99"), lat.get("p999"));
+                    }
+                }
+            }
+        }
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (out != null) mapper.writeValue(out.toFile(), results);
+        else System.out.println(mapper.writeValueAsString(results));
+    }
+
+    private interface Op {
+        void run(int i) throws Exception;
+    }
+
+    private static Map<String, Object> measure(String backend, String op, long rows, int threads, int ops, String sync) throws Exception {
+        Path dir = Files.createTempDirectory("hotpath-bench");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous(sync);
+        try (JobStore store = JobStore.open(cfg)) {
+            pad(store, rows);
+            List<Job> claimed = new ArrayList<>();
+            if (!op.equals("enqueue")) {
+                List<Job> pending = new ArrayList<>(ops);
+                for (int i = 0; i < ops; i++) pending.add(new Job("p-" + i, "true", 3));
+                store.enqueueBatch(pending);
+            }
+            if (op.equals("complete") || op.equals("fail")) {
+                for (List<Job> b; !(b = store.reserveBatch(1000)).isEmpty(); ) claimed.addAll(b);
+            }
+            JobStore.JobHolder[] holders = new JobStore.JobHolder[threads];
+            for (int t = 0; t < threads; t++) holders[t] = new JobStore.JobHolder();
+            Op body = switch (op) {
+                case "enqueue" -> i -> store.enqueue(new Job("e-" + i, "true", 3));
+                case "claim" -> i -> {
+                    if (!store.markProcessingAndReserveNext(cfg, holders[i % threads])) throw new IllegalStateException("nothing to claim");
+                };
+                case "complete" -> i -> store.completeJob(claimed.get(i).id);
+                case "fail" -> i -> store.failAndScheduleRetry(claimed.get(i), cfg);
+                default -> throw new IllegalArgumentException(op);
+            };
+
+            long[] lat = new long[ops];
+            CountDownLatch done = new CountDownLatch(threads);
+            long t0 = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                new Thread(() -> {
+                    try {
+                        // thread t takes operations t, t+threads, ...; each index (and job) is used once
+                        for (int i = first; i < ops; i += threads) {
+                            long s = System.nanoTime();
+                            body.run(i);
+                            lat[i] = System.nanoTime() - s;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            done.await();
+            double secs = (System.nanoTime() - t0) / 1e9;
+
+            Map<String, Object> res = new LinkedHashMap<>();
+            res.put("backend", backend);
+            res.put("op", op);
+            res.put("rows", rows);
+            res.put("threads", threads);
+            res.put("ops", ops);
+            res.put("synchronous", sync);
+            res.put("ops_per_sec", Math.round(ops / secs * 10) / 10.0);
+            res.put("latency_us", Percentiles.of(lat, ops, 1e3));
+            return res;
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // Completed rows, the usual bulk of a long-lived store.
+    private static void pad(JobStore store, long rows) throws Exception {
+        List<Job> chunk = new ArrayList<>(10_000);
+        for (long i = 0; i < rows; i++) {
+            Job j = new Job("done-" + i, "true", 3);
+            j.state = "completed";
+            j.attempts = 1;
+            chunk.add(j);
+            if (chunk.size() == 10_000) {
+                store.enqueueBatch(chunk);
+                chunk.clear();
+            }
+        }
+        store.enqueueBatch(chunk);
+    }
+}
@@ -0,0 +1,33 @@
+package com.queuectl.bench;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Exact percentiles over recorded samples (nanoseconds), for the JSON reports of the benchmarks.
+final class Percentiles {
+    private Percentiles() {}
+
+    // Sorts samples[0..n) in place and returns mean/p50/p99/p999/max in the given unit (e.g. 1e3 for us).
+    static Map<String, Double> of(long[] samples, int n, double unitNanos) {
+        Map<String, Double> out = new LinkedHashMap<>();
+        if (n == 0) return out;
+        Arrays.sort(samples, 0, n);
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += samples[i];
+        out.put("mean", round(sum / n / unitNanos));
+        out.put("p50", round(at(samples, n, 0.50) / unitNanos));
+        out.put("p99", round(at(samples, n, 0.99) / unitNanos));
+        out.put("p999", round(at(samples, n, 0.999) / unitNanos));
+        out.put("max", round(samples[n - 1] / unitNanos));
+        return out;
+    }
+
+    private static long at(long[] sorted, int n, double q) {
+        return sorted[Math.min(n - 1, (int) Math.ceil(q * n) - 1)];
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+}
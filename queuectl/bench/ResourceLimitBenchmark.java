@@ -0,0 +1,97 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Cost of resource-limits at claim time. Each store gets --jobs pending jobs, which are then claimed
+ * --batch-size at a time and completed until none are left, in four modes:
+ *
+ *   none       no resource-limits: the plain claim
+ *   unkeyed    resource-limits set, but the jobs carry no resource_key
+ *   keyed      every job has a limited key whose limits never bind (the bucket and in-flight bookkeeping)
+ *   throttled  as unkeyed, plus --throttled higher-priority jobs of a key that is out of tokens, which
+ *              every claim steps over
+ *
+ * Usage: ResourceLimitBenchmark [--jobs 20000] [--throttled 1000] [--batch-size 8] [--backend sqlite|log]
+ *                               [--synchronous NORMAL]
+ */
+public class ResourceLimitBenchmark {
+    public static void main(String[] args) throws Exception {
+        int jobs = 20_000, throttled = 1000, batch = 8;
+        String backend = "sqlite", sync = "NORMAL";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--jobs" -> jobs = Integer.parseInt(args[i + 1]);
+                case "--throttled" -> throttled = Integer.parseInt(args[i + 1]);
+                case "--batch-size" -> batch = Integer.parseInt(args[i + 1]);
+                case "--backend" -> backend = args[i + 1];
+                case "--synchronous" -> sync = args[i + 1];
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        for (String mode : List.of("none", "unkeyed", "keyed", "throttled")) run(backend, sync, mode, 2000, 100, batch, false); // warm-up
+        System.out.printf("%-7s %-10s %12s %10s%n", "backend", "mode", "jobs/sec", "us/job");
+        for (String mode : List.of("none", "unkeyed", "keyed", "throttled")) run(backend, sync, mode, jobs, throttled, batch, true);
+    }
+
+    private static void run(String backend, String sync, String mode, int jobs, int throttled, int batch, boolean print) throws Exception {
+        Path dir = Files.createTempDirectory("resource-bench");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous(sync);
+        // "open" never binds; "shut" has one token, taken by its first job below
+        if (!mode.equals("none")) cfg.setResourceLimits("open:1000000000:1000000000,shut:0.001");
+        try (JobStore store = JobStore.open(cfg)) {
+            List<Job> all = new ArrayList<>(jobs + throttled + 1);
+            for (int i = 0; i < jobs; i++) {
+                Job j = new Job("job-" + i, "true", 0);
+                if (mode.equals("keyed")) j.resourceKey = "open";
+                all.add(j);
+            }
+            if (mode.equals("throttled")) {
+                for (int i = 0; i <= throttled; i++) {
+                    Job j = new Job("shut-" + i, "true", 0);
+                    j.resourceKey = "shut";
+                    j.priority = 1;
+                    all.add(j);
+                }
+            }
+            for (int i = 0; i < all.size(); i += 1000) store.enqueueBatch(all.subList(i, Math.min(all.size(), i + 1000)));
+            if (mode.equals("throttled")) store.completeJobs(ids(store.reserveBatch(1))); // drain the bucket
+
+            long t0 = System.nanoTime();
+            int claimed = 0;
+            while (claimed < jobs) {
+                List<Job> got = store.reserveBatch(batch);
+                if (got.isEmpty()) throw new IllegalStateException(mode + ": claimed " + claimed + " of " + jobs);
+                for (Job j : got) {
+                    if ("shut".equals(j.resourceKey)) throw new IllegalStateException("claimed a throttled job");
+                }
+                store.completeJobs(ids(got));
+                claimed += got.size();
+            }
+            long nanos = System.nanoTime() - t0;
+            if (print) System.out.printf("%-7s %-10s %12.0f %10.1f%n", backend, mode, jobs / (nanos / 1e9), nanos / 1e3 / jobs);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static List<String> ids(List<Job> jobs) {
+        List<String> out = new ArrayList<>(jobs.size());
+        for (Job j : jobs) out.add(j.id);
+        return out;
+    }
+}
@@ -0,0 +1,151 @@
+package com.queuectl.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+import com.queuectl.RetryPolicy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A mass failure: N jobs fail at the same instant. For every retry policy this reports how the retries
+ * land in time, as due-jobs-per-second in fixed buckets, which is the claim rate workers would see.
+ * A flat schedule has a peak close to its mean; a synchronized one puts everything in a few buckets.
+ * The span runs from the failure to the last retry, so a delay with no spread still counts as a spike.
+ *
+ *   store      the first retry, as written by the real store: N jobs are claimed and failed in one
+ *              failJobs call, and the available_at values it assigned are bucketed.
+ *   attempts   the whole storm: each job fails every attempt as soon as it is due, for --attempts
+ *              attempts, using the same RetryPolicy code (no store, so 100k jobs x attempts is quick).
+ *
+ * Usage: RetryStormBenchmark [--jobs 100000] [--attempts 5] [--bucket-ms 100] [--backend sqlite|log]
+ *                            [--policy spec]... [--out result.json]
+ */
+public class RetryStormBenchmark {
+    public static void main(String[] args) throws Exception {
+        int jobs = 100_000, attempts = 5;
+        long bucketMs = 100;
+        String backend = "sqlite";
+        List<String> policies = new ArrayList<>();
+        Path out = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--jobs" -> jobs = Integer.parseInt(args[i + 1]);
+                case "--attempts" -> attempts = Integer.parseInt(args[i + 1]);
+                case "--bucket-ms" -> bucketMs = Long.parseLong(args[i + 1]);
+                case "--backend" -> backend = args[i + 1];
+                case "--policy" -> policies.add(args[i + 1]);
+                case "--out" -> out = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        // the first is the old fixed schedule: base ^ attempts with no jitter
+        if (policies.isEmpty()) policies = List.of("exponential:jitter=0", "exponential", "decorrelated", "fixed:delay=30,jitter=0", "fixed:delay=30");
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        System.err.printf("%-26s %-8s %12s %12s %10s %10s%n", "policy", "series", "peak/s", "mean/s", "peak/mean", "span_s");
+        for (String policy : policies) {
+            Map<String, Object> res = new LinkedHashMap<>();
+            res.put("policy", policy);
+            res.put("jobs", jobs);
+            res.put("bucket_ms", bucketMs);
+            res.put("store", spread(storeRound(backend, policy, jobs), bucketMs));
+            res.put("attempts", attempts);
+            res.put("all_attempts", spread(simulate(policy, jobs, attempts), bucketMs));
+            results.add(res);
+            for (String series : List.of("store", "all_attempts")) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> s = (Map<String, Object>) res.get(series);
+                System.err.printf("%-26s %-8s %12.0f %12.0f %10.1f %10.1f%n", policy, series.equals("store") ? "store" : "attempts",
+                        (Double) s.get("peak_per_sec"), (Double) s.get("mean_per_sec"), (Double) s.get("peak_to_mean"), (Double) s.get("span_sec"));
+            }
+        }
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (out != null) mapper.writeValue(out.toFile(), results);
+        else System.out.println(mapper.writeValueAsString(results));
+    }
+
+    // Retry offsets (ms after the failure) the store assigned when failing all jobs in one call.
+    private static long[] storeRound(String backend, String policy, int jobs) throws Exception {
+        Path dir = Files.createTempDirectory("retry-storm");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous("OFF");
+        try (JobStore store = JobStore.open(cfg)) {
+            List<Job> all = new ArrayList<>(jobs);
+            for (int i = 0; i < jobs; i++) {
+                Job j = new Job("job-" + i, "false", 10);
+                j.retryPolicy = policy;
+                all.add(j);
+            }
+            store.enqueueBatch(all);
+            List<Job> claimed = new ArrayList<>(jobs);
+            for (List<Job> b; !(b = store.reserveBatch(5000)).isEmpty(); ) claimed.addAll(b);
+            long failedAt = System.currentTimeMillis();
+            store.failJobs(claimed, cfg);
+            long[] offsets = new long[claimed.size()];
+            for (int i = 0; i < offsets.length; i++) offsets[i] = claimed.get(i).availableAtMillis() - failedAt;
+            return offsets;
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // Due times (ms after the outage) of every retry when each attempt fails as soon as it is claimed.
+    private static long[] simulate(String policy, int jobs, int attempts) {
+        Config cfg = new Config();
+        RetryPolicy p = RetryPolicy.parse(policy);
+        long[] due = new long[jobs * attempts];
+        int k = 0;
+        for (int j = 0; j < jobs; j++) {
+            long t = 0, prev = 0;
+            for (int a = 1; a <= attempts; a++) {
+                prev = p.delayMs(a, prev, cfg);
+                t += prev;
+                due[k++] = t;
+            }
+        }
+        return due;
+    }
+
+    // Bucket the offsets from the outage to the last retry and describe how even the rate is over
+    // that span: peak_to_mean is 1 for a perfectly flat schedule and span/bucket for a single spike.
+    private static Map<String, Object> spread(long[] offsets, long bucketMs) {
+        long min = Long.MAX_VALUE, max = 0;
+        for (long o : offsets) {
+            min = Math.min(min, o);
+            max = Math.max(max, o);
+        }
+        int buckets = (int) (Math.max(0, max) / bucketMs + 1);
+        int[] counts = new int[buckets];
+        for (long o : offsets) counts[(int) (Math.max(0, o) / bucketMs)]++;
+        int peak = 0;
+        for (int c : counts) peak = Math.max(peak, c);
+        double perSec = 1000.0 / bucketMs;
+        double mean = (double) offsets.length / buckets;
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("retries", offsets.length);
+        res.put("first_sec", round(min / 1000.0));
+        res.put("span_sec", round(buckets * bucketMs / 1000.0));
+        res.put("peak_per_sec", round(peak * perSec));
+        res.put("mean_per_sec", round(mean * perSec));
+        res.put("peak_to_mean", round(peak / mean));
+        return res;
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 10) / 10.0;
+    }
+}
@@ -0,0 +1,67 @@
+package com.queuectl.bench;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+import com.queuectl.SqliteJobStore;
+import com.queuectl.WorkerManager;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Starts N workers in platform or virtual mode against N long-running jobs and reports how long
+ * it takes until every job is running, plus the process RSS and OS thread count at that point.
+ * Run each mode in its own JVM so the memory numbers don't mix.
+ *
+ * Usage: ThreadModeBenchmark platform|virtual [jobs] [sleep-seconds]   (default 2000 10)
+ */
+public class ThreadModeBenchmark {
+    public static void main(String[] args) throws Exception {
+        boolean virtual = args.length > 0 && "virtual".equals(args[0]);
+        int jobs = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int sleep = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Path db = Files.createTempFile("threads-bench", ".db");
+        Config cfg = new Config();
+        cfg.setSynchronous("OFF");
+        JobStore store = new SqliteJobStore(db.toString(), cfg);
+        for (int i = 0; i < jobs; i++) store.enqueue(new Job("job-" + i, "sleep " + sleep, 0));
+        long rssBefore = rssKb();
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // workers log every pick
+        WorkerManager manager = new WorkerManager(store, cfg);
+        long t0 = System.nanoTime();
+        manager.start(jobs, virtual, jobs);
+        long started = System.nanoTime();
+        while (store.countByState("processing") < jobs) Thread.sleep(10);
+        long allRunning = System.nanoTime();
+        long rss = rssKb();
+        int osThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.setOut(console);
+
+        System.out.printf("mode=%s jobs=%d%n", virtual ? "virtual" : "platform", jobs);
+        System.out.printf("  start():          %8.1f ms%n", (started - t0) / 1e6);
+        System.out.printf("  all jobs running: %8.1f ms%n", (allRunning - t0) / 1e6);
+        System.out.printf("  RSS:              %8d KB (+%d KB over idle)%n", rss, rss - rssBefore);
+        System.out.printf("  JVM threads:      %8d%n", osThreads);
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        manager.stop();
+        store.close();
+        System.setOut(console);
+        Files.deleteIfExists(db);
+        System.exit(0);
+    }
+
+    private static long rssKb() throws Exception {
+        for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+            if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("\\D", ""));
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,187 @@
+package com.queuectl.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.queuectl.Config;
+import com.queuectl.HandlerExecutor;
+import com.queuectl.Job;
+import com.queuectl.JobHandler;
+import com.queuectl.JobSignal;
+import com.queuectl.JobStore;
+import com.queuectl.WorkerManager;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput: enqueues N no-op jobs, runs them through WorkerManager, and reports
+ * jobs/sec plus the claim-to-complete latency of every job (from the claim returning to its
+ * acknowledgement being durable) as p50/p99/p999. The store is wrapped so the timestamps are taken at
+ * exactly those two points; the wrapper only records, it adds no locking.
+ *
+ * --executor shell runs each job as the command `true` through /bin/sh; --executor handler runs it as
+ * an in-process JobHandler that does nothing, so the difference is what the fork and exec cost.
+ *
+ * Writes one JSON object (stdout, or --out FILE) for diffing between commits.
+ *
+ * Usage: ThroughputBenchmark [--backend sqlite|log] [--jobs 2000] [--workers 8] [--batch-size 8]
+ *                            [--executor shell|handler] [--virtual] [--synchronous NORMAL] [--out result.json]
+ */
+public class ThroughputBenchmark {
+    public static void main(String[] args) throws Exception {
+        String backend = "sqlite", sync = "NORMAL", executor = "shell";
+        int jobs = 2000, workers = 8, batch = 8;
+        boolean virtual = false;
+        Path out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--backend" -> backend = args[++i];
+                case "--jobs" -> jobs = Integer.parseInt(args[++i]);
+                case "--workers" -> workers = Integer.parseInt(args[++i]);
+                case "--batch-size" -> batch = Integer.parseInt(args[++i]);
+                case "--executor" -> executor = args[++i];
+                case "--virtual" -> virtual = true;
+                case "--synchronous" -> sync = args[++i];
+                case "--out" -> out = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (!executor.equals("shell") && !executor.equals("handler")) throw new IllegalArgumentException("--executor must be shell or handler");
+
+        Path dir = Files.createTempDirectory("throughput-bench");
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setSynchronous(sync);
+        cfg.setBatchSize(batch);
+        cfg.setLogDir(dir.resolve("logs").toString());
+        Map<String, Object> res = new LinkedHashMap<>();
+        try (TimingStore store = new TimingStore(JobStore.open(cfg), jobs)) {
+            List<Job> all = new ArrayList<>(jobs);
+            for (int i = 0; i < jobs; i++) {
+                Job j = new Job("job-" + i, "true", 0);
+                if (executor.equals("handler")) {
+                    j.command = null;
+                    j.handler = "noop";
+                }
+                all.add(j);
+            }
+            HandlerExecutor.register(new Noop());
+            store.enqueueBatch(all);
+
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream())); // workers log every job
+            WorkerManager manager = new WorkerManager(store, cfg);
+            long t0 = System.nanoTime();
+            manager.start(workers, virtual, 0);
+            while (store.completed.get() < jobs) Thread.sleep(5);
+            double secs = (System.nanoTime() - t0) / 1e9;
+            manager.stop();
+            System.setOut(console);
+
+            res.put("backend", backend);
+            res.put("jobs", jobs);
+            res.put("workers", workers);
+            res.put("batch_size", batch);
+            res.put("executor", executor);
+            res.put("virtual", virtual);
+            res.put("synchronous", sync);
+            res.put("seconds", Math.round(secs * 1000) / 1000.0);
+            res.put("jobs_per_sec", Math.round(jobs / secs * 10) / 10.0);
+            res.put("claim_to_complete_ms", Percentiles.of(store.latencies, store.completed.get(), 1e6));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (out != null) mapper.writeValue(out.toFile(), res);
+        else System.out.println(mapper.writeValueAsString(res));
+        System.exit(0);
+    }
+
+    private static final class Noop implements JobHandler {
+        @Override
+        public String name() {
+            return "noop";
+        }
+
+        @Override
+        public void handle(Job job, PrintStream out) {
+        }
+    }
+
+    // Delegating JobStore that timestamps claims and acknowledgements.
+    private static final class TimingStore implements JobStore {
+        private final JobStore d;
+        private final Map<String, Long> claimedAt = new ConcurrentHashMap<>();
+        final long[] latencies;
+        final AtomicInteger completed = new AtomicInteger();
+
+        TimingStore(JobStore delegate, int jobs) {
+            this.d = delegate;
+            this.latencies = new long[jobs];
+        }
+
+        @Override
+        public List<Job> reserveBatch(String queue, int n) throws SQLException {
+            List<Job> batch = d.reserveBatch(queue, n);
+            long now = System.nanoTime();
+            for (Job j : batch) claimedAt.put(j.id, now);
+            return batch;
+        }
+
+        @Override
+        public void applyTransitions(List<Job> completedJobs, List<Job> failed, Config cfg) throws SQLException {
+            d.applyTransitions(completedJobs, failed, cfg);
+            long now = System.nanoTime();
+            for (Job j : completedJobs) record(j, now);
+            for (Job j : failed) record(j, now);
+        }
+
+        private void record(Job j, long now) {
+            Long t = claimedAt.remove(j.id);
+            if (t != null) latencies[completed.getAndIncrement()] = now - t;
+        }
+
+        @Override public String enqueue(Job job) throws SQLException { return d.enqueue(job); }
+        @Override public int enqueueBatch(List<Job> jobs) throws SQLException { return d.enqueueBatch(jobs); }
+        @Override public void completeJobs(List<String> ids) throws SQLException { d.completeJobs(ids); }
+        @Override public void failJobs(List<Job> jobs, Config cfg) throws SQLException { d.failJobs(jobs, cfg); }
+        @Override public void releaseJobs(List<String> ids) throws SQLException { d.releaseJobs(ids); }
+        @Override public int heartbeat() throws SQLException { return d.heartbeat(); }
+        @Override public int reapExpiredLeases() throws SQLException { return d.reapExpiredLeases(); }
+        @Override public int recoverOrphans() throws SQLException { return d.recoverOrphans(); }
+        @Override public boolean requeue(String id) throws SQLException { return d.requeue(id); }
+        @Override public Long nextDueAt(Collection<String> queues) throws SQLException { return d.nextDueAt(queues); }
+        @Override public List<Job> listPage(String state, String since, Cursor after, int limit) throws SQLException { return d.listPage(state, since, after, limit); }
+        @Override public Job getJob(String id) throws SQLException { return d.getJob(id); }
+        @Override public int countByState(String state) throws SQLException { return d.countByState(state); }
+        @Override public Map<String, Integer> countsByState() throws SQLException { return d.countsByState(); }
+        @Override public String cancel(String id) throws SQLException { return d.cancel(id); }
+        @Override public List<String> cancelRequested() throws SQLException { return d.cancelRequested(); }
+        @Override public int archive(long cutoffMillis, int n) throws SQLException { return d.archive(cutoffMillis, n); }
+        @Override public List<Job> listArchived(String state, String since, Cursor after, int limit) throws SQLException { return d.listArchived(state, since, after, limit); }
+        @Override public Job getArchivedJob(String id) throws SQLException { return d.getArchivedJob(id); }
+        @Override public int expireDedupeKeys(long nowMillis) throws SQLException { return d.expireDedupeKeys(nowMillis); }
+        @Override public void compact(boolean full) throws SQLException { d.compact(full); }
+        @Override public Map<String, String> loadConfig() throws SQLException { return d.loadConfig(); }
+        @Override public void saveConfig(String key, String value) throws SQLException { d.saveConfig(key, value); }
+        @Override public List<QueueDepth> queueDepths() throws SQLException { return d.queueDepths(); }
+        @Override public JobSignal signal() { return d.signal(); }
+        @Override public String owner() { return d.owner(); }
+        @Override public void close() throws SQLException { d.close(); }
+    }
+}
@@ -0,0 +1,42 @@
+package com.queuectl.check;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Pass/fail bookkeeping shared by the checks in this package. Each check prints one line per
+ * assertion and keeps going after a failure, so a run shows everything that is broken; exit() ends
+ * the process with status 1 if anything failed, which is what scripts and CI look at.
+ */
+final class Checks {
+    private int passed, failed;
+
+    void check(boolean ok, String what) {
+        if (ok) {
+            passed++;
+        } else {
+            failed++;
+            System.out.println("FAIL " + what);
+        }
+    }
+
+    void equal(Object expected, Object actual, String what) {
+        check(Objects.equals(expected, actual), what + ": expected " + expected + ", got " + actual);
+    }
+
+    void exit() {
+        System.out.println(passed + " passed, " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
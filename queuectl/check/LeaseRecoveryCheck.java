@@ -0,0 +1,194 @@
+package com.queuectl.check;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Kills a worker process with SIGKILL mid-job and checks that no job is lost or run twice. Two
+ * `worker start` processes, A and B, share one SQLite store and --jobs sleeping jobs; each job notes its
+ * id and the time in a file when it starts. Once both hold jobs, A and its job processes are killed, as a machine
+ * dying would. Then, by --mode:
+ *
+ *   reap      B's reaper returns A's jobs to the queue once their leases (lease-ms 3000) run out.
+ *   restart   a third process C starts, and its startup recovery returns A's jobs at once. Leases are
+ *             60 s, so the reaper cannot be what freed them, and B's live jobs must be left alone.
+ *
+ * Every job must end completed and be acknowledged once across all worker outputs. The jobs A held
+ * ran twice and are on attempt 2, the second run starting only after A was killed; every other job
+ * ran once. Exits with status 1 if any check fails.
+ * SQLite only: the log backend is opened by one process at a time.
+ *
+ * Usage: LeaseRecoveryCheck [--mode reap|restart|both] [--jobs 12] [--timeout-seconds 120]
+ */
+public class LeaseRecoveryCheck {
+    private static final Pattern COMPLETED = Pattern.compile("\\] completed job (\\S+)");
+    private static final Pattern REAPED = Pattern.compile("Requeued (\\d+) job\\(s\\) with expired leases");
+
+    public static void main(String[] args) throws Exception {
+        String mode = "both";
+        int jobs = 12;
+        long timeoutSeconds = 120;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--mode" -> mode = args[i + 1];
+                case "--jobs" -> jobs = Integer.parseInt(args[i + 1]);
+                case "--timeout-seconds" -> timeoutSeconds = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        Checks c = new Checks();
+        for (String m : "both".equals(mode) ? List.of("reap", "restart") : List.of(mode)) {
+            Path dir = Files.createTempDirectory("lease-check");
+            try {
+                run(c, m, dir, jobs, timeoutSeconds);
+            } finally {
+                Checks.deleteTree(dir);
+            }
+        }
+        c.exit();
+    }
+
+    private static void run(Checks c, String mode, Path dir, int jobs, long timeoutSeconds) throws Exception {
+        boolean restart = "restart".equals(mode);
+        Config cfg = new Config();
+        cfg.setStorePath(dir.resolve("queue.db").toString());
+        Path starts = dir.resolve("starts");
+        List<Worker> workers = new ArrayList<>();
+        try (JobStore store = JobStore.open(cfg)) {
+            store.saveConfig("lease-ms", restart ? "60000" : "3000");
+            List<Job> batch = new ArrayList<>();
+            for (int i = 0; i < jobs; i++) batch.add(new Job("job-" + i, "echo job-" + i + " $(date +%s%3N) >> " + starts + "; sleep 2", 3));
+            store.enqueueBatch(batch);
+
+            Worker a = new Worker(dir, "a"), b = new Worker(dir, "b");
+            workers.add(a);
+            workers.add(b);
+            long deadline = System.currentTimeMillis() + timeoutSeconds * 1000;
+            Set<String> held = new TreeSet<>(), heldByB = new TreeSet<>();
+            while (System.currentTimeMillis() < deadline && (held.isEmpty() || heldByB.isEmpty())) {
+                Thread.sleep(50);
+                held = heldBy(store, a.pid());
+                heldByB = heldBy(store, b.pid());
+            }
+            if (held.isEmpty() || heldByB.isEmpty()) {
+                c.check(false, mode + ": workers A and B did not both claim jobs within " + timeoutSeconds + " s; see " + a.output);
+                return;
+            }
+            Thread.sleep(500); // into the 2 s jobs, so each held job has noted its start
+            a.kill();
+            held = heldBy(store, a.pid()); // what A held when it died
+            c.check(!held.isEmpty(), mode + ": A held no job when it was killed");
+            long killedAt = System.currentTimeMillis();
+
+            if (restart) workers.add(new Worker(dir, "c"));
+            while (System.currentTimeMillis() < deadline && store.countByState("completed") < jobs) Thread.sleep(100);
+            double secs = (System.currentTimeMillis() - killedAt) / 1000.0;
+            for (Worker w : workers) w.stop();
+            System.out.printf("%s: A held %s when killed; all done %.1f s later%n", mode, held, secs);
+
+            Map<String, Integer> acks = new HashMap<>();
+            for (Worker w : workers) {
+                Matcher m = COMPLETED.matcher(Files.readString(w.output));
+                while (m.find()) acks.merge(m.group(1), 1, Integer::sum);
+            }
+            Map<String, Integer> runs = new HashMap<>();
+            Map<String, Long> lastStart = new HashMap<>();
+            for (String line : Files.readAllLines(starts)) {
+                String[] f = line.strip().split(" ");
+                runs.merge(f[0], 1, Integer::sum);
+                lastStart.merge(f[0], Long.parseLong(f[1]), Math::max);
+            }
+            for (int i = 0; i < jobs; i++) {
+                String id = "job-" + i;
+                Job j = store.getJob(id);
+                int expected = held.contains(id) ? 2 : 1;
+                c.equal("completed", j.state, mode + " " + id + " state");
+                c.equal(1, acks.getOrDefault(id, 0), mode + " " + id + " acknowledgements");
+                c.equal(expected, runs.getOrDefault(id, 0), mode + " " + id + " runs");
+                c.equal(expected, j.attempts, mode + " " + id + " attempts");
+                // A's run was killed, so the rerun must not have overlapped it
+                if (held.contains(id)) c.check(lastStart.getOrDefault(id, 0L) >= killedAt, mode + " " + id + " ran again before A was killed");
+            }
+            String b1 = Files.readString(b.output);
+            if (restart) {
+                String c1 = Files.readString(workers.get(2).output);
+                c.check(c1.contains("Requeued " + held.size() + " job(s) left processing by exited workers"),
+                        mode + ": C did not requeue exactly A's " + held.size() + " job(s) at startup");
+                c.check(!b1.contains("with expired leases"), mode + ": B reaped expired leases, so startup recovery was not what freed A's jobs");
+            } else {
+                // the reaper can free A's jobs over several passes, one line each
+                int reaped = 0;
+                for (Matcher m = REAPED.matcher(b1); m.find(); ) reaped += Integer.parseInt(m.group(1));
+                c.equal(held.size(), reaped, mode + ": jobs B's reaper requeued");
+            }
+        } finally {
+            for (Worker w : workers) w.kill();
+        }
+    }
+
+    private static Set<String> heldBy(JobStore store, long pid) throws Exception {
+        Set<String> ids = new TreeSet<>();
+        for (Job j : store.listPage("processing", null, null, 1000)) {
+            if (j.owner != null && j.owner.split(":")[1].equals(String.valueOf(pid))) ids.add(j.id);
+        }
+        return ids;
+    }
+
+    // A `queuectl worker start --count 2` process in dir, output to <name>.out. It stops on Enter.
+    private static final class Worker {
+        final Process process;
+        final Path output;
+
+        Worker(Path dir, String name) throws IOException {
+            output = dir.resolve(name + ".out");
+            // absolute, since the worker runs in dir
+            StringJoiner classPath = new StringJoiner(File.pathSeparator);
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                if (!entry.isEmpty()) classPath.add(Path.of(entry).toAbsolutePath().toString());
+            }
+            List<String> cmd = List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", classPath.toString(), "com.queuectl.Main", "worker", "start", "--count", "2");
+            ProcessBuilder pb = new ProcessBuilder(cmd).directory(dir.toFile()).redirectErrorStream(true).redirectOutput(output.toFile());
+            pb.environment().put("QUEUECTL_STORE", dir.resolve("queue.db").toString());
+            pb.environment().remove("QUEUECTL_SOCKET");
+            pb.environment().remove("QUEUECTL_BACKEND");
+            process = pb.start();
+        }
+
+        long pid() {
+            return process.pid();
+        }
+
+        // SIGKILL the JVM and the job processes it started, which would otherwise outlive it.
+        void kill() {
+            List<ProcessHandle> tree = process.descendants().toList();
+            process.destroyForcibly();
+            tree.forEach(ProcessHandle::destroyForcibly);
+            try { process.waitFor(); } catch (InterruptedException ignored) {}
+        }
+
+        void stop() throws Exception {
+            if (!process.isAlive()) return;
+            try {
+                process.getOutputStream().write('\n');
+                process.getOutputStream().close();
+            } catch (IOException ignored) {}
+            process.waitFor();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.queuectl.check;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+import com.queuectl.Json;
+import com.queuectl.OutputCapture;
+import com.queuectl.WorkerManager;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs chatty shell jobs through real workers and checks what OutputCapture promises: a job writing far
+ * more than a pipe holds still completes, its log stops at log-max-bytes, and output_tail holds the last
+ * output-tail-bytes of what it wrote. Two jobs per backend:
+ *
+ *   bulk     --bytes of 'x' on stdout (1 GiB by default), then `seq 1 --lines`: the log is capped.
+ *   stderr   `seq 1 --lines` on stderr only, under the cap: the log is the whole output.
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Usage: OutputCaptureCheck [--backends sqlite,log] [--bytes 1073741824] [--lines 100000]
+ *                           [--log-max-bytes 1048576] [--timeout-seconds 300]
+ */
+public class OutputCaptureCheck {
+    public static void main(String[] args) throws Exception {
+        List<String> backends = List.of("sqlite", "log");
+        long bytes = 1L << 30, logMaxBytes = 1 << 20, timeoutSeconds = 300;
+        int lines = 100_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--backends" -> backends = List.of(args[i + 1].split(","));
+                case "--bytes" -> bytes = Long.parseLong(args[i + 1]);
+                case "--lines" -> lines = Integer.parseInt(args[i + 1]);
+                case "--log-max-bytes" -> logMaxBytes = Long.parseLong(args[i + 1]);
+                case "--timeout-seconds" -> timeoutSeconds = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        byte[] seq = seq(lines);
+        if (seq.length >= logMaxBytes) throw new IllegalArgumentException("--lines must write less than --log-max-bytes");
+        Checks c = new Checks();
+        for (String backend : backends) {
+            Path dir = Files.createTempDirectory("output-check");
+            try {
+                run(c, backend, dir, bytes, lines, seq, logMaxBytes, timeoutSeconds);
+            } finally {
+                Checks.deleteTree(dir);
+            }
+        }
+        c.exit();
+    }
+
+    private static void run(Checks c, String backend, Path dir, long bytes, int lines, byte[] seq, long logMaxBytes, long timeoutSeconds) throws Exception {
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+        cfg.setLogDir(dir.resolve("logs").toString());
+        cfg.setLogMaxBytes(logMaxBytes);
+        cfg.setSynchronous("OFF");
+        try (JobStore store = JobStore.open(cfg)) {
+            store.enqueue(new Job("bulk", "head -c " + bytes + " /dev/zero | tr '\\0' x; seq 1 " + lines, 0));
+            store.enqueue(new Job("stderr", "seq 1 " + lines + " 1>&2", 0));
+            WorkerManager manager = new WorkerManager(store, cfg);
+            long t0 = System.nanoTime();
+            manager.start(2);
+            long deadline = System.currentTimeMillis() + timeoutSeconds * 1000;
+            try {
+                while (System.currentTimeMillis() < deadline && (unfinished(store, "bulk") || unfinished(store, "stderr"))) Thread.sleep(100);
+            } finally {
+                manager.stop();
+            }
+            System.out.printf("%s: workers stopped after %.1f s%n", backend, (System.nanoTime() - t0) / 1e9);
+
+            int tailBytes = cfg.getOutputTailBytes();
+            byte[] expectedTail = new byte[Math.min(tailBytes, seq.length)];
+            System.arraycopy(seq, seq.length - expectedTail.length, expectedTail, 0, expectedTail.length);
+            String tail = new String(expectedTail, StandardCharsets.UTF_8);
+
+            Job bulk = store.getJob("bulk");
+            c.equal("completed", bulk.state, backend + " bulk state");
+            c.check(tail.equals(bulk.outputTail), backend + " bulk output_tail is not the last " + tail.length() + " bytes written: " + ending(bulk.outputTail));
+            Path bulkLog = OutputCapture.logPath(cfg, "bulk");
+            long size = Files.size(bulkLog);
+            // the cap, then one line saying the log was truncated
+            c.check(size >= logMaxBytes && size <= logMaxBytes + 100, backend + " bulk log is " + size + " bytes, cap " + logMaxBytes);
+
+            Job err = store.getJob("stderr");
+            c.equal("completed", err.state, backend + " stderr state");
+            c.check(tail.equals(err.outputTail), backend + " stderr output_tail is not the last " + tail.length() + " bytes written: " + ending(err.outputTail));
+            byte[] log = Files.readAllBytes(OutputCapture.logPath(cfg, "stderr"));
+            c.check(Arrays.equals(seq, log), backend + " stderr log is " + log.length + " bytes, not the " + seq.length + " written");
+        }
+    }
+
+    private static boolean unfinished(JobStore store, String id) throws Exception {
+        Job j = store.getJob(id);
+        return "pending".equals(j.state) || "processing".equals(j.state);
+    }
+
+    // The end of a tail, for a failure message.
+    private static String ending(String tail) {
+        if (tail == null) return "null";
+        return tail.length() + " bytes ending " + Json.MAPPER.valueToTree(tail.substring(Math.max(0, tail.length() - 20)));
+    }
+
+    // What `seq 1 n` writes.
+    private static byte[] seq(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= n; i++) sb.append(i).append('\n');
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,510 @@
+package com.queuectl.check;
+
+import com.queuectl.Config;
+import com.queuectl.Job;
+import com.queuectl.JobStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The behaviour both JobStore backends must share, run against each of them through JobStore.open.
+ * Every scenario gets a fresh store in a temporary directory and calls only the interface, so a
+ * scenario that passes on one backend and fails on the other is a divergence in the stores, not
+ * in the check. orphans opens the store in a child JVM that exits without releasing its claims.
+ * Exits with status 1 if any check fails.
+ *
+ * Usage: StoreComplianceCheck [--backends sqlite,log] [--scenarios claim-order,lease-lost,...]
+ */
+public class StoreComplianceCheck {
+    private interface Scenario {
+        void run(Suite s) throws Exception;
+    }
+
+    private static final Map<String, Scenario> SCENARIOS = new LinkedHashMap<>();
+
+    static {
+        SCENARIOS.put("claim-order", StoreComplianceCheck::claimOrder);
+        SCENARIOS.put("duplicates", StoreComplianceCheck::duplicates);
+        SCENARIOS.put("dedupe-keys", StoreComplianceCheck::dedupeKeys);
+        SCENARIOS.put("unknown-dependency", StoreComplianceCheck::unknownDependency);
+        SCENARIOS.put("lease-lost", StoreComplianceCheck::leaseLost);
+        SCENARIOS.put("reaper", StoreComplianceCheck::reaper);
+        SCENARIOS.put("orphans", StoreComplianceCheck::orphans);
+        SCENARIOS.put("cancel", StoreComplianceCheck::cancel);
+        SCENARIOS.put("requeue", StoreComplianceCheck::requeue);
+        SCENARIOS.put("dependency-failure", StoreComplianceCheck::dependencyFailure);
+        SCENARIOS.put("archive", StoreComplianceCheck::archive);
+        SCENARIOS.put("paging", StoreComplianceCheck::paging);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--child")) {
+            child(args[1], args[2]);
+            return;
+        }
+        List<String> backends = List.of("sqlite", "log");
+        List<String> scenarios = new ArrayList<>(SCENARIOS.keySet());
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--backends" -> backends = List.of(args[i + 1].split(","));
+                case "--scenarios" -> scenarios = List.of(args[i + 1].split(","));
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        Checks c = new Checks();
+        for (String backend : backends) {
+            for (String name : scenarios) {
+                Scenario scenario = SCENARIOS.get(name);
+                if (scenario == null) throw new IllegalArgumentException("unknown scenario " + name);
+                Path dir = Files.createTempDirectory("store-check");
+                Suite s = new Suite(c, backend, name, dir);
+                try {
+                    scenario.run(s);
+                } catch (Exception e) {
+                    s.check(false, "threw " + e);
+                } finally {
+                    Checks.deleteTree(dir);
+                }
+            }
+        }
+        c.exit();
+    }
+
+    // ---- scenarios ------------------------------------------------------------------------------
+
+    // Highest priority first, then oldest, within the queue asked for; release undoes the attempt.
+    private static void claimOrder(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("low", 0), s.job("high", 5), s.job("mid", 1), s.job("other", 9, "other")));
+            List<Job> claimed = store.reserveBatch("default", 10);
+            s.equal(List.of("high", "mid", "low"), ids(claimed), "claimed from default");
+            for (Job j : claimed) {
+                s.equal("processing", j.state, j.id + " claimed state");
+                s.equal(1, j.attempts, j.id + " claimed attempts");
+                s.equal(store.owner(), j.owner, j.id + " claimed owner");
+            }
+            s.equal(List.of("other"), ids(store.reserveBatch(10)), "claimed from any queue");
+            s.equal(List.of(), ids(store.reserveBatch(10)), "claimed with nothing pending");
+            s.equal(4, store.countsByState().get("processing"), "processing count");
+            store.releaseJobs(List.of("low"));
+            s.state(store, "low", "pending");
+            s.equal(0, store.getJob("low").attempts, "low attempts after release");
+            store.completeJobs(List.of("high"));
+            s.state(store, "high", "completed");
+            s.equal(1, store.countsByState().get("completed"), "completed count");
+            s.equal(1, store.countsByState().get("pending"), "pending count");
+        }
+    }
+
+    private static void duplicates(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            s.equal("a", store.enqueue(s.job("a")), "enqueue a");
+            Job again = s.job("a");
+            s.equal("a", store.enqueue(again), "enqueue a again");
+            s.equal(JobStore.DUPLICATE, again.state, "second a");
+            List<Job> batch = List.of(s.job("b"), s.job("a"), s.job("b"));
+            s.equal(1, store.enqueueBatch(batch), "inserted from [b, a, b]");
+            s.equal(List.of("pending", JobStore.DUPLICATE, JobStore.DUPLICATE), states(batch), "states of [b, a, b]");
+            s.equal(2, store.countByState("pending"), "pending count");
+        }
+    }
+
+    private static void dedupeKeys(Suite s) throws Exception {
+        s.cfg.setDedupeTtlSeconds(1);
+        try (JobStore store = s.open()) {
+            s.equal("k1", store.enqueue(s.keyed("k1", "K")), "enqueue k1 with K");
+            Job k2 = s.keyed("k2", "K");
+            s.equal("k1", store.enqueue(k2), "enqueue k2 with K returns the holder");
+            s.equal(JobStore.DUPLICATE_KEY, k2.state, "k2");
+            s.check(store.getJob("k2") == null, "k2 was inserted");
+            List<Job> batch = List.of(s.keyed("k3", "K"), s.keyed("k4", "L"));
+            s.equal(1, store.enqueueBatch(batch), "inserted from [k3 K, k4 L]");
+            s.equal(List.of(JobStore.DUPLICATE_KEY, "pending"), states(batch), "states of [k3 K, k4 L]");
+            Thread.sleep(1100);
+            s.equal(2, store.expireDedupeKeys(System.currentTimeMillis()), "keys expired after the ttl");
+            s.equal("k5", store.enqueue(s.keyed("k5", "K")), "enqueue k5 with K once it expired");
+            s.state(store, "k5", "pending");
+        }
+    }
+
+    private static void unknownDependency(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            Job x = s.dependent("x", null, "nope");
+            s.equal(0, store.enqueueBatch(List.of(x)), "inserted x depending on nope");
+            s.equal(JobStore.UNKNOWN_DEPENDENCY, x.state, "x");
+            s.check(store.getJob("x") == null, "x was inserted");
+            try {
+                store.enqueue(s.dependent("y", null, "nope"));
+                s.check(false, "enqueue of y depending on nope did not throw");
+            } catch (SQLException expected) {
+                s.check(store.getJob("y") == null, "y was inserted");
+            }
+            // a dependency earlier in the same chunk is known
+            List<Job> batch = List.of(s.job("p"), s.dependent("q", null, "p"));
+            s.equal(2, store.enqueueBatch(batch), "inserted [p, q depending on p]");
+            s.state(store, "q", "waiting");
+            s.equal(1, store.getJob("q").depsPending, "q deps_pending");
+        }
+    }
+
+    // Acknowledgements after a lease was reaped change nothing and say LEASE_LOST.
+    private static void leaseLost(Suite s) throws Exception {
+        s.cfg.setLeaseMs(50);
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("l1"), s.job("l2")));
+            List<Job> claimed = store.reserveBatch(10);
+            Thread.sleep(120);
+            s.equal(2, store.reapExpiredLeases(), "reaped");
+            s.state(store, "l1", "pending");
+            s.equal(1, store.getJob("l1").attempts, "l1 attempts after reaping");
+            s.check(store.getJob("l1").owner == null, "l1 keeps an owner after reaping");
+            Job l1 = claimed.get(0), l2 = claimed.get(1);
+            store.applyTransitions(List.of(l1), List.of(l2), s.cfg);
+            s.equal(JobStore.LEASE_LOST, l1.state, "late completion of l1");
+            s.equal(JobStore.LEASE_LOST, l2.state, "late failure of l2");
+            store.completeJobs(List.of("l1"));
+            s.state(store, "l1", "pending");
+            s.state(store, "l2", "pending");
+
+            s.cfg.setLeaseMs(60_000);
+            claimed = store.reserveBatch(10);
+            s.equal(2, claimed.size(), "claimed again");
+            s.equal(2, claimed.get(0).attempts, "attempts on the second claim");
+            s.equal(2, store.heartbeat(), "heartbeated");
+            s.equal(0, store.reapExpiredLeases(), "reaped live leases");
+            store.applyTransitions(List.of(claimed.get(0)), List.of(), s.cfg);
+            s.equal("completed", claimed.get(0).state, "completion under a live lease");
+            s.state(store, claimed.get(0).id, "completed");
+        }
+    }
+
+    // Expired leases go back to pending, or to cancelled or the DLQ as the job's flag and attempts say.
+    private static void reaper(Suite s) throws Exception {
+        s.cfg.setLeaseMs(50);
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("r-cancel"), s.job("r-dead", 0, "default", 0), s.job("r-retry"),
+                    s.dependent("r-child", null, "r-dead"), s.dependent("r-child2", "cancel", "r-cancel")));
+            s.equal(3, store.reserveBatch(10).size(), "claimed");
+            s.equal("processing", store.cancel("r-cancel"), "cancel of a processing job");
+            s.equal(List.of("r-cancel"), store.cancelRequested(), "cancel requested");
+            Thread.sleep(120);
+            s.equal(3, store.reapExpiredLeases(), "reaped");
+            s.state(store, "r-cancel", "cancelled");
+            s.state(store, "r-dead", "dead");
+            s.state(store, "r-retry", "pending");
+            s.state(store, "r-child", "dead");
+            s.equal(JobStore.dependencyFailedNote("r-dead", "dead"), store.getJob("r-child").outputTail, "r-child output_tail");
+            s.state(store, "r-child2", "cancelled");
+            s.equal(JobStore.dependencyFailedNote("r-cancel", "cancelled"), store.getJob("r-child2").outputTail, "r-child2 output_tail");
+        }
+    }
+
+    // Claims left by a process that exited are recovered at once; our own live claims are not.
+    private static void orphans(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("o-retry"), s.job("o-dead", 0, "default", 0), s.job("o-cancel"),
+                    s.dependent("o-child", null, "o-dead")));
+        }
+        Process child = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), StoreComplianceCheck.class.getName(), "--child", s.backend, s.cfg.getStorePath())
+                .redirectErrorStream(true).start();
+        String out = new String(child.getInputStream().readAllBytes()).strip();
+        s.equal(0, child.waitFor(), "child exit status (output: " + out + ")");
+        try (JobStore store = s.open()) {
+            s.state(store, "o-retry", "processing");
+            store.enqueue(s.job("o-mine"));
+            s.equal(List.of("o-mine"), ids(store.reserveBatch(10)), "claimed by this process");
+            s.equal(3, store.recoverOrphans(), "recovered");
+            s.state(store, "o-retry", "pending");
+            s.equal(1, store.getJob("o-retry").attempts, "o-retry attempts");
+            s.state(store, "o-dead", "dead");
+            s.state(store, "o-cancel", "cancelled");
+            s.state(store, "o-child", "dead");
+            s.state(store, "o-mine", "processing");
+            s.equal(0, store.recoverOrphans(), "recovered again");
+        }
+    }
+
+    // The child: claim every due job, flag o-cancel, and exit without releasing anything.
+    private static void child(String backend, String storePath) throws Exception {
+        Config cfg = new Config();
+        cfg.setBackend(backend);
+        cfg.setStorePath(storePath);
+        JobStore store = JobStore.open(cfg);
+        List<Job> claimed = store.reserveBatch(10);
+        store.cancel("o-cancel");
+        System.out.println("claimed " + ids(claimed));
+        System.out.flush();
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static void cancel(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("c-pending"), s.job("c-run"), s.job("c-done"),
+                    s.dependent("c-waiting", null, "c-run"), s.dependent("c-below", null, "c-waiting")));
+            store.cancel("c-pending");
+            s.state(store, "c-pending", "cancelled");
+            List<Job> claimed = store.reserveBatch(2);
+            s.equal(List.of("c-run", "c-done"), ids(claimed), "claimed");
+            store.completeJobs(List.of("c-done"));
+            s.equal("completed", store.cancel("c-done"), "cancel of a completed job");
+            s.equal(null, store.cancel("nope"), "cancel of an unknown job");
+            s.equal("cancelled", store.cancel("c-waiting"), "cancel of a waiting job");
+            s.state(store, "c-below", "dead");
+            s.equal(JobStore.dependencyFailedNote("c-waiting", "cancelled"), store.getJob("c-below").outputTail, "c-below output_tail");
+            s.equal("processing", store.cancel("c-run"), "cancel of a processing job");
+            s.equal(List.of("c-run"), store.cancelRequested(), "cancel requested");
+            // the worker kills it; the failure it reports ends the job cancelled, not retried
+            Job run = claimed.get(0);
+            run.cancelRequested = true;
+            store.failJobs(List.of(run), s.cfg);
+            s.equal("cancelled", run.state, "failure of a cancelled job");
+            s.state(store, "c-run", "cancelled");
+            s.equal(List.of(), store.cancelRequested(), "cancel requested after it ended");
+        }
+    }
+
+    // A cancel flagged after the worker's last look wins over both the retry and the DLQ; requeue
+    // takes dead jobs only, and gives them a fresh attempt budget.
+    private static void requeue(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("d-dead", 0, "default", 0), s.job("d-last", 0, "default", 0), s.job("d-retry"),
+                    s.dependent("d-after-last", null, "d-last"), s.dependent("d-after-retry", null, "d-retry")));
+            List<Job> claimed = store.reserveBatch(10);
+            s.equal(3, claimed.size(), "claimed");
+            store.cancel("d-last");
+            store.cancel("d-retry");
+            store.failJobs(claimed, s.cfg); // the workers' copies, claimed before the cancels
+            s.equal(List.of("dead", "cancelled", "cancelled"), states(claimed), "failures of [d-dead, d-last, d-retry]");
+            s.state(store, "d-dead", "dead");
+            s.state(store, "d-last", "cancelled");
+            s.state(store, "d-retry", "cancelled");
+            s.state(store, "d-after-last", "dead");
+            s.state(store, "d-after-retry", "dead");
+
+            s.check(store.requeue("d-dead"), "requeue of d-dead");
+            Job j = store.getJob("d-dead");
+            s.equal("pending", j.state, "d-dead state after requeue");
+            s.equal(0, j.attempts, "d-dead attempts after requeue");
+            s.check(!j.cancelRequested, "d-dead cancel_requested after requeue");
+            s.check(!store.requeue("d-dead"), "requeue of a pending job");
+            s.check(!store.requeue("d-last"), "requeue of a cancelled job");
+            s.check(!store.requeue("nope"), "requeue of an unknown job");
+            claimed = store.reserveBatch(10);
+            s.equal(List.of("d-dead"), ids(claimed), "claimed after requeue");
+            s.equal(1, claimed.get(0).attempts, "attempts on the claim after requeue");
+
+            // backoff starts over too
+            Job backoff = s.job("d-backoff", 0, "default", 1);
+            backoff.retryPolicy = "fixed:delay=0.05";
+            store.enqueue(backoff);
+            store.failJobs(store.reserveBatch(10), s.cfg);
+            s.check(store.getJob("d-backoff").lastRetryDelayMs > 0, "d-backoff has no last_retry_delay_ms after a retry");
+            Thread.sleep(100);
+            store.failJobs(store.reserveBatch(10), s.cfg);
+            s.state(store, "d-backoff", "dead");
+            s.check(store.requeue("d-backoff"), "requeue of d-backoff");
+            s.equal(0L, store.getJob("d-backoff").lastRetryDelayMs, "d-backoff last_retry_delay_ms after requeue");
+        }
+    }
+
+    private static void dependencyFailure(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            store.enqueueBatch(List.of(s.job("a", 0, "default", 0), s.dependent("b", null, "a"), s.dependent("c", null, "b"),
+                    s.dependent("e", "cancel", "a"), s.job("x"), s.dependent("y", null, "x", "a")));
+            s.equal(2, store.getJob("y").depsPending, "y deps_pending");
+            List<Job> claimed = store.reserveBatch(10);
+            s.equal(List.of("a", "x"), ids(claimed), "claimed");
+            store.completeJobs(List.of("x"));
+            s.equal(1, store.getJob("y").depsPending, "y deps_pending after x completed");
+            store.failJobs(List.of(claimed.get(0)), s.cfg);
+            String note = JobStore.dependencyFailedNote("a", "dead");
+            for (String id : List.of("b", "c", "y")) {
+                s.state(store, id, "dead");
+                s.equal(note, store.getJob(id).outputTail, id + " output_tail");
+            }
+            s.state(store, "e", "cancelled");
+            s.equal(note, store.getJob("e").outputTail, "e output_tail");
+            store.enqueue(s.dependent("h", null, "a"));
+            s.state(store, "h", "dead");
+
+            // retrying the chain from the bottom: each waits for the one above it
+            s.check(store.requeue("c"), "requeue of c");
+            s.state(store, "c", "waiting");
+            s.check(store.requeue("b"), "requeue of b");
+            s.state(store, "b", "waiting");
+            s.check(store.requeue("a"), "requeue of a");
+            s.state(store, "a", "pending");
+            s.equal(List.of("a"), ids(store.reserveBatch(10)), "claimed after requeue");
+            store.completeJobs(List.of("a"));
+            s.state(store, "b", "pending");
+            s.equal(0, store.getJob("b").depsPending, "b deps_pending");
+            s.state(store, "c", "waiting");
+            s.equal(List.of("b"), ids(store.reserveBatch(10)), "claimed after a completed");
+            store.completeJobs(List.of("b"));
+            s.state(store, "c", "pending");
+        }
+    }
+
+    private static void archive(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) jobs.add(s.job("p" + i, 0, "default", i == 3 ? 0 : 3));
+            store.enqueueBatch(jobs);
+            List<Job> claimed = store.reserveBatch(3);
+            store.completeJobs(List.of("p1", "p2"));
+            store.failJobs(List.of(claimed.get(2)), s.cfg);
+            store.cancel("p4");
+            s.equal(0, store.archive(System.currentTimeMillis() - 60_000, 10), "archived before the cutoff");
+            long cutoff = System.currentTimeMillis() + 1000;
+            s.equal(2, store.archive(cutoff, 2), "archived, first batch");
+            s.equal(2, store.archive(cutoff, 10), "archived, second batch");
+            s.equal(0, store.archive(cutoff, 10), "archived, nothing left");
+
+            s.check(store.getJob("p1") == null, "p1 is still live");
+            Job p1 = store.getArchivedJob("p1");
+            s.equal("completed", p1 == null ? null : p1.state, "archived p1 state");
+            s.check(store.getArchivedJob("p5") == null, "p5 is archived");
+            s.equal(0, store.countByState("completed"), "completed count");
+            s.equal(1, store.countByState("pending"), "pending count");
+            s.equal(List.of("p1", "p2", "p3", "p4"), ids(store.listArchived(null, null, null, 100)), "archived jobs");
+            s.equal(List.of("p3"), ids(store.listArchived("dead", null, null, 100)), "archived dead jobs");
+            List<Job> first = store.listArchived(null, null, null, 3);
+            s.equal(List.of("p1", "p2", "p3"), ids(first), "first archived page");
+            s.equal(List.of("p4"), ids(store.listArchived(null, null, JobStore.Cursor.after(first.get(2)), 3)), "second archived page");
+            s.equal(List.of("p5"), ids(store.listPage(null, null, null, 100)), "live jobs");
+
+            // archived jobs still count as dependencies, in their final state
+            store.enqueue(s.dependent("q", null, "p1"));
+            s.state(store, "q", "pending");
+            store.enqueue(s.dependent("r", null, "p3"));
+            s.state(store, "r", "dead");
+            s.equal(JobStore.dependencyFailedNote("p3", "dead"), store.getJob("r").outputTail, "r output_tail");
+        }
+    }
+
+    // Keyset pages cover every job once, in (created_at, id) order, with state and since filters.
+    private static void paging(Suite s) throws Exception {
+        try (JobStore store = s.open()) {
+            List<Job> jobs = new ArrayList<>();
+            List<String> all = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                Job j = s.job(String.format("page-%02d", i), 0, "default", 3);
+                j.createdAt = s.createdAt(i);
+                jobs.add(j);
+                all.add(j.id);
+            }
+            store.enqueueBatch(jobs);
+            s.equal(all, walk(store, null, null, 10), "every job, 10 per page");
+            s.equal(all, walk(store, null, null, 1), "every job, 1 per page");
+            store.reserveBatch(5);
+            s.equal(all.subList(5, 25), walk(store, "pending", null, 10), "pending jobs");
+            s.equal(all.subList(0, 5), walk(store, "processing", null, 10), "processing jobs");
+            s.equal(all.subList(10, 25), walk(store, null, s.createdAt(10), 10), "jobs since page-10");
+            s.equal(all.subList(12, 25), ids(store.listPage(null, null, JobStore.Cursor.after(jobs.get(11)), 100)), "page after page-11");
+        }
+    }
+
+    private static List<String> walk(JobStore store, String state, String since, int limit) throws SQLException {
+        List<String> out = new ArrayList<>();
+        JobStore.Cursor after = null;
+        for (int pages = 0; pages < 1000; pages++) {
+            List<Job> page = store.listPage(state, since, after, limit);
+            out.addAll(ids(page));
+            if (page.size() < limit) break;
+            after = JobStore.Cursor.after(page.get(page.size() - 1));
+        }
+        return out;
+    }
+
+    private static List<String> ids(List<Job> jobs) {
+        return jobs.stream().map(j -> j.id).toList();
+    }
+
+    private static List<String> states(List<Job> jobs) {
+        return jobs.stream().map(j -> j.state).toList();
+    }
+
+    // One scenario on one backend: its store, its jobs and its assertions.
+    private static final class Suite {
+        final Checks c;
+        final String backend, scenario;
+        final Path dir;
+        final Config cfg = new Config();
+        private int created;
+
+        Suite(Checks c, String backend, String scenario, Path dir) {
+            this.c = c;
+            this.backend = backend;
+            this.scenario = scenario;
+            this.dir = dir;
+            cfg.setBackend(backend);
+            cfg.setStorePath(dir.resolve("log".equals(backend) ? "queue-log" : "queue.db").toString());
+            cfg.setSynchronous("OFF");
+        }
+
+        JobStore open() throws SQLException {
+            return JobStore.open(cfg);
+        }
+
+        // Jobs are created a millisecond apart, so list order never depends on a tie. Always with
+        // millis: Instant.toString drops a zero fraction, which would sort after the rest of its second.
+        String createdAt(int i) {
+            return String.format("2026-01-01T00:%02d:%02d.%03dZ", i / 60_000, i / 1000 % 60, i % 1000);
+        }
+
+        Job job(String id) {
+            return job(id, 0, "default", 3);
+        }
+
+        Job job(String id, int priority) {
+            return job(id, priority, "default", 3);
+        }
+
+        Job job(String id, int priority, String queue) {
+            return job(id, priority, queue, 3);
+        }
+
+        Job job(String id, int priority, String queue, int maxRetries) {
+            Job j = new Job(id, "true", maxRetries);
+            j.priority = priority;
+            j.queue = queue;
+            j.createdAt = createdAt(created++);
+            j.updatedAt = Instant.now().toString();
+            return j;
+        }
+
+        Job keyed(String id, String key) {
+            Job j = job(id);
+            j.dedupeKey = key;
+            return j;
+        }
+
+        Job dependent(String id, String onFailure, String... parents) {
+            Job j = job(id);
+            j.dependsOn = List.of(parents);
+            j.onDependencyFailure = onFailure;
+            return j;
+        }
+
+        void check(boolean ok, String what) {
+            c.check(ok, backend + " " + scenario + ": " + what);
+        }
+
+        void equal(Object expected, Object actual, String what) {
+            c.equal(expected, actual, backend + " " + scenario + ": " + what);
+        }
+
+        void state(JobStore store, String id, String expected) throws SQLException {
+            Job j = store.getJob(id);
+            equal(expected, j == null ? null : j.state, id + " state");
+        }
+    }
+}